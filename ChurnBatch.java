@@ -0,0 +1,394 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * ChurnBatch looks up many customers without starting the GUI. It reads a
+ * file of customer IDs and filter specs, fetches the record of every
+ * customer and computes and stores their statistics like a search in
+ * {@link ChurnCustomerApplication} does, and writes one CSV line or JSON
+ * object per customer.
+ * <p>
+ * Each line of the input file is either a customer ID or a filter spec
+ * {@code filter:<type>=<value>}, where the type is one of the filters of
+ * the application ("Senior Citizen", "Tenure" or "Paperless Billing") and
+ * selects every matching customer. Blank lines and lines starting with #
+ * are ignored. Customers are looked up in chunks by a pool of workers, each
+ * with its own connection; the output keeps the input order.
+ */
+public class ChurnBatch {
+
+	// Customers looked up by a worker at a time, with one query
+	private static final int CHUNK_SIZE = InList.MAX_SIZE;
+
+	private static final String[] RECORD_COLUMNS = { "customerID", "gender", "SeniorCitizen", "Partner",
+			"Dependents", "tenure", "PhoneService", "MultipleLines", "InternetService", "OnlineSecurity",
+			"OnlineBackup", "DeviceProtection", "TechSupport", "StreamingTV", "StreamingMovies", "Contract",
+			"PaperlessBilling", "PaymentMethod", "MonthlyCharges", "TotalCharges", "Churn" };
+	private static final String[] STATISTICS_COLUMNS = { "CustomerLifetimeValue", "DiscountEligibility",
+			"NumberOfServices" };
+	// Position of the first service column of CustomerStatistics.SERVICE_COLUMNS in RECORD_COLUMNS
+	private static final int FIRST_SERVICE_COLUMN = 6;
+	private static final int TENURE_COLUMN = 5;
+	private static final int MONTHLY_CHARGES_COLUMN = 18;
+
+	private static final String RECORD_QUERY = "SELECT " + String.join(", ", RECORD_COLUMNS)
+			+ " FROM CustomerProfile WHERE customerID IN ";
+
+	private final ConnectionPool pool;
+	private final int workerCount;
+	private final boolean storeStatistics;
+	private int missingCustomers;
+
+	/**
+	 * Creates a new ChurnBatch.
+	 *
+	 * @param pool            The pool to borrow connections from. It must allow
+	 *                        at least {@code workerCount} connections.
+	 * @param workerCount     The number of threads looking up customers.
+	 * @param storeStatistics Whether the statistics are upserted into the
+	 *                        InsightsStatistics table, as a search does.
+	 */
+	public ChurnBatch(ConnectionPool pool, int workerCount, boolean storeStatistics) {
+		this.pool = pool;
+		this.workerCount = workerCount;
+		this.storeStatistics = storeStatistics;
+	}
+
+	/**
+	 * Reads the input file and resolves its filter specs, in input order and
+	 * without duplicates. IDs differing only in case are duplicates, as MySQL
+	 * matches them to the same customer; the first spelling is kept.
+	 *
+	 * @param inputFile The file of customer IDs and filter specs.
+	 * @return The IDs of the customers to look up.
+	 * @throws IOException  If the file cannot be read.
+	 * @throws SQLException If a filter cannot be run.
+	 */
+	public List<String> readCustomerIDs(Path inputFile) throws IOException, SQLException {
+		// Keyed by the upper-case ID, so later spellings of an ID are dropped
+		Map<String, String> customerIDs = new LinkedHashMap<>();
+		for (String line : Files.readAllLines(inputFile, StandardCharsets.UTF_8)) {
+			line = line.trim();
+			if (line.isEmpty() || line.startsWith("#")) {
+				continue;
+			}
+			if (!line.startsWith("filter:")) {
+				customerIDs.putIfAbsent(line.toUpperCase(Locale.ROOT), line);
+				continue;
+			}
+			int separator = line.indexOf('=');
+			if (separator < 0) {
+				throw new IllegalArgumentException("Invalid filter spec: " + line);
+			}
+			String filterType = line.substring("filter:".length(), separator).trim();
+			try (Connection connection = pool.getConnection();
+					PreparedStatement statement = ConnectionPool.prepareStreaming(connection, filterQuery(filterType))) {
+				statement.setString(1, line.substring(separator + 1).trim());
+				try (ResultSet resultSet = statement.executeQuery()) {
+					while (resultSet.next()) {
+						String customerID = resultSet.getString("customerID");
+						customerIDs.putIfAbsent(customerID.toUpperCase(Locale.ROOT), customerID);
+					}
+				}
+			}
+		}
+		return new ArrayList<>(customerIDs.values());
+	}
+
+	/**
+	 * @param filterType One of the filters of the application.
+	 * @return A query selecting the IDs of the customers matching the filter,
+	 *         with the filter value as its only parameter.
+	 * @throws IllegalArgumentException If the filter type is unknown.
+	 */
+	static String filterQuery(String filterType) {
+		switch (filterType) {
+		case "Senior Citizen":
+			return "SELECT customerID FROM CustomerProfile WHERE SeniorCitizen = ?";
+		case "Tenure":
+			return "SELECT customerID FROM CustomerProfile WHERE tenure >= ?";
+		case "Paperless Billing":
+			return "SELECT customerID FROM CustomerProfile WHERE PaperlessBilling = ?";
+		default:
+			throw new IllegalArgumentException("Invalid filter type: " + filterType);
+		}
+	}
+
+	/**
+	 * Looks up the customers in parallel and writes their records and
+	 * statistics.
+	 *
+	 * @param customerIDs The IDs of the customers.
+	 * @param output      The writer to write the records to.
+	 * @param json        True to write a JSON array, false to write CSV.
+	 * @return The number of customers written.
+	 * @throws IOException  If the output cannot be written.
+	 * @throws SQLException If a lookup fails.
+	 */
+	public int run(List<String> customerIDs, Writer output, boolean json) throws IOException, SQLException {
+		ExecutorService workers = Executors.newFixedThreadPool(workerCount);
+		List<Future<List<String[]>>> chunks = new ArrayList<>();
+		for (int start = 0; start < customerIDs.size(); start += CHUNK_SIZE) {
+			List<String> chunk = customerIDs.subList(start, Math.min(start + CHUNK_SIZE, customerIDs.size()));
+			chunks.add(workers.submit(() -> {
+				try (Connection connection = pool.getConnection()) {
+					return lookUp(connection, chunk, storeStatistics, 0);
+				}
+			}));
+		}
+
+		int written = 0;
+		try {
+			if (json) {
+				output.write("[");
+			} else {
+				output.write(String.join(",", RECORD_COLUMNS) + "," + String.join(",", STATISTICS_COLUMNS) + "\n");
+			}
+			// Write chunks in input order as they complete
+			for (Future<List<String[]>> chunk : chunks) {
+				for (String[] record : chunk.get()) {
+					if (json) {
+						output.write(written == 0 ? "\n" : ",\n");
+						writeJson(output, record);
+					} else {
+						writeCsv(output, record);
+					}
+					written++;
+				}
+			}
+			if (json) {
+				output.write("\n]\n");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while looking up customers.", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			throw cause instanceof SQLException ? (SQLException) cause
+					: new SQLException("Failed to look up customers.", cause);
+		} finally {
+			workers.shutdownNow();
+		}
+		missingCustomers = customerIDs.size() - written;
+		return written;
+	}
+
+	/**
+	 * @return The number of customer IDs of the last run that were not found.
+	 */
+	public int getMissingCustomers() {
+		return missingCustomers;
+	}
+
+	/**
+	 * Fetches the records of customers and computes their statistics,
+	 * upserting the statistics in one batch if asked to. The records are read
+	 * with one query per {@link InList#MAX_SIZE} customers.
+	 *
+	 * @param connection      The connection to use.
+	 * @param customerIDs     The IDs of the customers.
+	 * @param storeStatistics Whether the statistics are upserted.
+	 * @param timeoutSeconds  The timeout of each query in seconds, or 0 for
+	 *                        none.
+	 * @return The records of the customers that exist, in the order of the IDs,
+	 *         with the statistics columns after the table columns.
+	 * @throws SQLException If a lookup fails.
+	 */
+	static List<String[]> lookUp(Connection connection, List<String> customerIDs, boolean storeStatistics,
+			int timeoutSeconds) throws SQLException {
+		// Rows come back in any order; they are put back in the order of the IDs
+		Map<String, String[]> found = new HashMap<>();
+		try (PreparedStatement upsertStatement = connection.prepareStatement(CustomerStatistics.UPSERT_QUERY)) {
+			upsertStatement.setQueryTimeout(timeoutSeconds);
+			for (int start = 0; start < customerIDs.size(); start += InList.MAX_SIZE) {
+				List<String> chunk = customerIDs.subList(start, Math.min(start + InList.MAX_SIZE, customerIDs.size()));
+				try (PreparedStatement recordStatement = connection
+						.prepareStatement(RECORD_QUERY + InList.placeholders(chunk.size()))) {
+					recordStatement.setQueryTimeout(timeoutSeconds);
+					InList.bind(recordStatement, 1, chunk);
+					try (ResultSet resultSet = recordStatement.executeQuery()) {
+						while (resultSet.next()) {
+							String[] record = new String[RECORD_COLUMNS.length + STATISTICS_COLUMNS.length];
+							for (int column = 0; column < RECORD_COLUMNS.length; column++) {
+								record[column] = resultSet.getString(column + 1);
+							}
+							String[] services = new String[CustomerStatistics.SERVICE_COLUMNS.length];
+							System.arraycopy(record, FIRST_SERVICE_COLUMN, services, 0, services.length);
+							CustomerStatistics statistics = new CustomerStatistics(record[0],
+									resultSet.getInt(TENURE_COLUMN + 1),
+									resultSet.getDouble(MONTHLY_CHARGES_COLUMN + 1),
+									CustomerStatistics.countServices(services));
+							record[RECORD_COLUMNS.length] = String.valueOf(statistics.getCustomerLifetimeValue());
+							record[RECORD_COLUMNS.length + 1] = statistics.isDiscountEligible() ? "Yes" : "No";
+							record[RECORD_COLUMNS.length + 2] = String.valueOf(statistics.getNumberOfServices());
+							if (storeStatistics) {
+								statistics.addTo(upsertStatement);
+							}
+							found.put(record[0].toUpperCase(Locale.ROOT), record);
+						}
+					}
+				}
+			}
+			if (storeStatistics && !found.isEmpty()) {
+				upsertStatement.executeBatch();
+			}
+		}
+		List<String[]> records = new ArrayList<>(found.size());
+		for (String customerID : customerIDs) {
+			// Keyed case-insensitively, as MySQL matched the IDs; read, not removed, so each spelling finds it
+			String[] record = found.get(customerID.toUpperCase(Locale.ROOT));
+			if (record != null) {
+				records.add(record);
+			}
+		}
+		return records;
+	}
+
+	private static void writeCsv(Writer output, String[] record) throws IOException {
+		for (int column = 0; column < record.length; column++) {
+			if (column > 0) {
+				output.write(',');
+			}
+			String value = record[column];
+			if (value == null) {
+				continue;
+			}
+			if (value.indexOf(',') >= 0 || value.indexOf('"') >= 0 || value.indexOf('\n') >= 0) {
+				value = '"' + value.replace("\"", "\"\"") + '"';
+			}
+			output.write(value);
+		}
+		output.write('\n');
+	}
+
+	/**
+	 * Writes a record returned by {@link #lookUp(Connection, List, boolean, int)}
+	 * as a JSON object.
+	 *
+	 * @param output The writer to write to.
+	 * @param record The record.
+	 * @throws IOException If writing fails.
+	 */
+	static void writeJson(Writer output, String[] record) throws IOException {
+		output.write("  {");
+		for (int column = 0; column < record.length; column++) {
+			if (column > 0) {
+				output.write(", ");
+			}
+			String name = column < RECORD_COLUMNS.length ? RECORD_COLUMNS[column]
+					: STATISTICS_COLUMNS[column - RECORD_COLUMNS.length];
+			writeJsonString(output, name);
+			output.write(": ");
+			writeJsonString(output, record[column]);
+		}
+		output.write("}");
+	}
+
+	/**
+	 * Writes a string as a quoted JSON string, or null.
+	 *
+	 * @param output The writer to write to.
+	 * @param value  The string, may be null.
+	 * @throws IOException If writing fails.
+	 */
+	static void writeJsonString(Writer output, String value) throws IOException {
+		if (value == null) {
+			output.write("null");
+			return;
+		}
+		output.write('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\') {
+				output.write('\\');
+				output.write(c);
+			} else if (c < 0x20) {
+				output.write(String.format("\\u%04x", (int) c));
+			} else {
+				output.write(c);
+			}
+		}
+		output.write('"');
+	}
+
+	/**
+	 * Looks up the customers listed in a file and writes their records.
+	 * Usage: ChurnBatch input-file [--workers N] [--format csv|json]
+	 * [--output file] [--no-store]. The output defaults to standard output;
+	 * --no-store skips writing statistics to the database.
+	 *
+	 * @param args The command line arguments.
+	 */
+	public static void main(String[] args) {
+		// Nothing here needs a display. Run headless so a batch started through the
+		// window's main class with --batch also works on a machine without one
+		System.setProperty("java.awt.headless", "true");
+		Path inputFile = null;
+		Path outputFile = null;
+		int workerCount = Runtime.getRuntime().availableProcessors();
+		boolean json = false;
+		boolean storeStatistics = true;
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+			case "--workers":
+				workerCount = Integer.parseInt(args[++i]);
+				break;
+			case "--format":
+				json = args[++i].equalsIgnoreCase("json");
+				break;
+			case "--output":
+				outputFile = Paths.get(args[++i]);
+				break;
+			case "--no-store":
+				storeStatistics = false;
+				break;
+			default:
+				inputFile = Paths.get(args[i]);
+			}
+		}
+		if (inputFile == null) {
+			System.err.println(
+					"Usage: ChurnBatch input-file [--workers N] [--format csv|json] [--output file] [--no-store]");
+			System.exit(2);
+		}
+
+		ConnectionPool pool = ConnectionPool.createDefault(0, workerCount + 1, Long.MAX_VALUE);
+		ChurnBatch batch = new ChurnBatch(pool, workerCount, storeStatistics);
+		long start = System.nanoTime();
+		try (Writer output = new BufferedWriter(outputFile == null
+				? new OutputStreamWriter(System.out, StandardCharsets.UTF_8)
+				: Files.newBufferedWriter(outputFile, StandardCharsets.UTF_8))) {
+			List<String> customerIDs = batch.readCustomerIDs(inputFile);
+			int written = batch.run(customerIDs, output, json);
+			output.flush();
+			System.err.printf("Looked up %d customers (%d not found) in %.1f s%n", written,
+					batch.getMissingCustomers(), (System.nanoTime() - start) / 1e9);
+		} catch (IOException | SQLException | IllegalArgumentException e) {
+			System.err.println("Failed to look up customers.");
+			e.printStackTrace();
+			System.exit(1);
+		} finally {
+			pool.close();
+		}
+	}
+}
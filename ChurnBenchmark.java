@@ -0,0 +1,556 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * ChurnBenchmark measures the search, filter, statistics and rendering paths
+ * of the application on the bundled Customer-Churn.csv, scaled up
+ * synthetically by repeating its rows under new customer IDs.
+ * <p>
+ * The in-memory benchmarks (snapshot scans, filter indexes, statistics and
+ * rendering) need no database. With {@code --db}, the SQL paths are measured
+ * against the database configured with the churn.db.* system properties,
+ * which should point at a scratch database; {@code --seed} first loads the
+ * scaled data set into it with {@link CsvIngestor}.
+ * <p>
+ * Each benchmark runs for a warmup period and then a measurement period,
+ * timing every operation, and reports the mean, median and 99th percentile.
+ * Results of the operations are folded into a volatile sink so the JIT
+ * cannot drop the work.
+ */
+public class ChurnBenchmark {
+
+	/**
+	 * One measured operation.
+	 */
+	private interface Operation {
+		Object run() throws Exception;
+	}
+
+	// Columns of Customer-Churn.csv
+	private static final int CUSTOMER_ID = 0;
+	private static final int SENIOR_CITIZEN = 2;
+	private static final int TENURE = 5;
+	private static final int MONTHLY_CHARGES = 18;
+	private static final int TOTAL_CHARGES = 19;
+	// Columns of the snapshot's categorical columns, in the order of ColumnarSnapshot.CATEGORICAL_COLUMNS
+	private static final int[] CATEGORICAL_CSV_COLUMNS = { 1, 3, 4, 6, 7, 8, 9, 10, 11, 12, 13, 14, 16, 17, 20, 15 };
+	// Columns counted towards the number of services, in the order of CustomerStatistics.SERVICE_COLUMNS
+	private static final int FIRST_SERVICE_COLUMN = 6;
+
+	private static final String[] LOOKUP_TABLES = { "Customer", "Service", "MonthlyCharges", "SeniorCitizen",
+			"PartnerDependents", "CustomerProfile", "InsightsStatistics" };
+	// Tables a full profile is read from without CustomerProfile
+	private static final String[] NORMALIZED_TABLES = { "Customer", "Service", "MonthlyCharges", "SeniorCitizen",
+			"PartnerDependents" };
+	private static final String[][] FILTERS = { { "Senior Citizen", "1" }, { "Tenure", "12" },
+			{ "Paperless Billing", "Yes" } };
+	// Filters on the normalized tables, measured against the CustomerProfile filters of ChurnBatch
+	private static final String[] FILTER_QUERIES = { "SELECT * FROM SeniorCitizen WHERE SeniorCitizen = ?",
+			"SELECT * FROM Customer WHERE tenure >= ?", "SELECT * FROM Service WHERE PaperlessBilling = ?" };
+	private static final String COMBINED_FILTER = "SeniorCitizen = 1 AND tenure >= 12 OR PaperlessBilling = Yes";
+
+	private static volatile int sink;
+
+	private final List<String[]> baseRows;
+	private final int customerCount;
+	private final long warmupNanos;
+	private final long measureNanos;
+	private final String only;
+
+	/**
+	 * Creates a new ChurnBenchmark.
+	 *
+	 * @param baseRows       The rows of Customer-Churn.csv, without the header.
+	 * @param customerCount  The number of customers of the scaled data set.
+	 * @param warmupSeconds  How long each benchmark warms up.
+	 * @param measureSeconds How long each benchmark is measured.
+	 * @param only           Only benchmarks whose name contains this text are
+	 *                       run, or all of them if null.
+	 */
+	public ChurnBenchmark(List<String[]> baseRows, int customerCount, int warmupSeconds, int measureSeconds,
+			String only) {
+		this.baseRows = baseRows;
+		this.customerCount = customerCount;
+		this.warmupNanos = warmupSeconds * 1_000_000_000L;
+		this.measureNanos = measureSeconds * 1_000_000_000L;
+		this.only = only;
+	}
+
+	/**
+	 * Returns a customer of the scaled data set. Copies of the bundled rows
+	 * after the first get a "-n" suffix on their customer ID.
+	 *
+	 * @param index The index of the customer, from 0 to the customer count.
+	 * @return The CSV row of the customer.
+	 */
+	private String[] customer(int index) {
+		String[] base = baseRows.get(index % baseRows.size());
+		int copy = index / baseRows.size();
+		if (copy == 0) {
+			return base;
+		}
+		String[] row = base.clone();
+		row[CUSTOMER_ID] = base[CUSTOMER_ID] + "-" + copy;
+		return row;
+	}
+
+	private String customerID(int index) {
+		int copy = index / baseRows.size();
+		String base = baseRows.get(index % baseRows.size())[CUSTOMER_ID];
+		return copy == 0 ? base : base + "-" + copy;
+	}
+
+	/**
+	 * Runs the benchmarks that need no database.
+	 */
+	public void runInMemory() throws Exception {
+		long start = System.nanoTime();
+		ColumnarSnapshot snapshot = new ColumnarSnapshot();
+		ColumnarSnapshot.Loader loader = new ColumnarSnapshot.Loader();
+		String[] categories = new String[CATEGORICAL_CSV_COLUMNS.length];
+		for (int index = 0; index < customerCount; index++) {
+			String[] row = customer(index);
+			for (int column = 0; column < categories.length; column++) {
+				categories[column] = row[CATEGORICAL_CSV_COLUMNS[column]];
+			}
+			loader.add(row[CUSTOMER_ID], Integer.parseInt(row[SENIOR_CITIZEN]), Integer.parseInt(row[TENURE]),
+					Double.parseDouble(row[MONTHLY_CHARGES]), parseCharges(row[TOTAL_CHARGES]), categories);
+		}
+		snapshot.replace(loader.finish());
+		System.out.printf("Snapshot: %d customers loaded in %.0f ms, %.1f MB%n", snapshot.getRowCount(),
+				(System.nanoTime() - start) / 1e6, snapshot.getMemoryFootprint() / (1024.0 * 1024.0));
+		start = System.nanoTime();
+		FilterIndex index = new FilterIndex(snapshot);
+		System.out.printf("Filter index: built in %.0f ms, %.1f MB%n", (System.nanoTime() - start) / 1e6,
+				index.getMemoryFootprint() / (1024.0 * 1024.0));
+
+		for (String[] filter : FILTERS) {
+			measure("filter/scan/" + filter[0], () -> {
+				int[] count = { 0 };
+				snapshot.forEachMatch(filter[0], filter[1], row -> count[0]++);
+				return count[0];
+			});
+			measure("filter/index/" + filter[0], () -> FilterIndex.count(index.evaluate(filter[0], filter[1])));
+		}
+		measure("filter/index/Combined", () -> FilterIndex.count(index.evaluate(COMBINED_FILTER)));
+		measure("churn/snapshot", snapshot::getChurnPercentage);
+		measure("cohorts/compute", () -> CohortAnalytics.compute(snapshot));
+		// One epoch per operation; the scoring benchmark reuses the last model trained
+		ChurnRiskModel[] riskModel = { ChurnRiskModel.train(snapshot, 1, 4096, 0.5, 42) };
+		measure("risk/train/epoch", () -> riskModel[0] = ChurnRiskModel.train(snapshot, 1, 4096, 0.5, 42));
+		measure("risk/score", () -> riskModel[0].scoreAll());
+
+		SplittableRandom random = new SplittableRandom(42);
+		measure("statistics/compute", () -> {
+			String[] row = customer(random.nextInt(customerCount));
+			String[] services = Arrays.copyOfRange(row, FIRST_SERVICE_COLUMN,
+					FIRST_SERVICE_COLUMN + CustomerStatistics.SERVICE_COLUMNS.length);
+			CustomerStatistics statistics = new CustomerStatistics(row[CUSTOMER_ID], Integer.parseInt(row[TENURE]),
+					Double.parseDouble(row[MONTHLY_CHARGES]), CustomerStatistics.countServices(services));
+			return statistics.getCustomerLifetimeValue();
+		});
+
+		// Rendering the way the result area shows filtered customers and customer records
+		long[] tenureMatches = index.evaluate("Tenure", "12");
+		measure("render/filter/Tenure", () -> {
+			StringBuilder resultBuilder = new StringBuilder();
+			FilterIndex.forEachRow(tenureMatches, row -> resultBuilder.append("Customer ID: ")
+					.append(index.getCustomerID(row)).append("\n").append("\n"));
+			return resultBuilder.length();
+		});
+		measure("render/customer", () -> {
+			String[] row = customer(random.nextInt(customerCount));
+			StringBuilder resultBuilder = new StringBuilder("Customer Details:\n");
+			resultBuilder.append("Customer ID: ").append(row[CUSTOMER_ID]).append("\n");
+			resultBuilder.append("Gender: ").append(row[1]).append("\n");
+			resultBuilder.append("Senior Citizen: ").append(Integer.parseInt(row[SENIOR_CITIZEN])).append("\n");
+			resultBuilder.append("Partner: ").append(row[3]).append("\n");
+			resultBuilder.append("Dependents: ").append(row[4]).append("\n");
+			resultBuilder.append("Tenure: ").append(Integer.parseInt(row[TENURE])).append("\n\n");
+			return resultBuilder.length();
+		});
+
+		// Prefix suggestions as typed into the search field
+		start = System.nanoTime();
+		CustomerIdIndex idIndex = new CustomerIdIndex();
+		List<String> ids = new ArrayList<>(customerCount);
+		for (int i = 0; i < customerCount; i++) {
+			ids.add(customerID(i));
+		}
+		idIndex.addAll(ids);
+		System.out.printf("Customer ID index: built in %.0f ms%n", (System.nanoTime() - start) / 1e6);
+		measure("search/suggest", () -> idIndex.suggest(customerID(random.nextInt(customerCount)).substring(0, 5), 10));
+
+		// Cold start from the mapped snapshot file instead of the database
+		Path file = Files.createTempFile("churn", ".snapshot");
+		try {
+			start = System.nanoTime();
+			SnapshotFile.write(snapshot, file);
+			System.out.printf("Snapshot file: written in %.0f ms, %.1f MB%n", (System.nanoTime() - start) / 1e6,
+					Files.size(file) / (1024.0 * 1024.0));
+			measure("snapshot/file/open", () -> SnapshotFile.open(file));
+			SnapshotFile mapped = SnapshotFile.open(file);
+			RecordRenderer customerRenderer = RecordRenderer.forTable("Customer");
+			measure("lookup/file/Customer", () -> {
+				StringBuilder resultBuilder = new StringBuilder(customerRenderer.getHeading());
+				customerRenderer.renderRow(mapped, mapped.findRow(customerID(random.nextInt(customerCount))),
+						resultBuilder);
+				return resultBuilder.length();
+			});
+			measure("filter/file/Tenure", () -> {
+				int[] count = { 0 };
+				mapped.forEachMatch("Tenure", "12", row -> count[0]++);
+				return count[0];
+			});
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	/**
+	 * Measures a filter query, rendering the matching customer IDs like the
+	 * application does.
+	 *
+	 * @param connection The connection to run the query on.
+	 * @param name       The name of the benchmark.
+	 * @param query      The filter query, with the filter value as its only
+	 *                   parameter.
+	 * @param value      The filter value.
+	 */
+	private void measureFilter(Connection connection, String name, String query, String value) throws Exception {
+		try (PreparedStatement statement = ConnectionPool.prepareStreaming(connection, query)) {
+			statement.setString(1, value);
+			measure(name, () -> {
+				StringBuilder resultBuilder = new StringBuilder();
+				try (ResultSet resultSet = statement.executeQuery()) {
+					while (resultSet.next()) {
+						resultBuilder.append("Customer ID: ").append(resultSet.getString("customerID")).append("\n")
+								.append("\n");
+					}
+				}
+				return resultBuilder.length();
+			});
+		}
+	}
+
+	/**
+	 * Runs the benchmarks of the SQL paths. The database must hold the scaled
+	 * data set of the same customer count, see {@link #seed(ConnectionPool)}.
+	 *
+	 * @param pool The pool to borrow connections from.
+	 */
+	public void runDatabase(ConnectionPool pool) throws Exception {
+		SplittableRandom random = new SplittableRandom(42);
+		try (Connection connection = pool.getConnection()) {
+			for (String table : LOOKUP_TABLES) {
+				RecordRenderer renderer = RecordRenderer.forTable(table);
+				if (renderer == null) {
+					renderer = RecordRenderer.ofAllColumns(table, table);
+				}
+				RecordRenderer tableRenderer = renderer;
+				StringBuilder resultBuilder = new StringBuilder();
+				try (PreparedStatement statement = connection.prepareStatement(tableRenderer.getQuery(true))) {
+					measure("lookup/" + table, () -> {
+						statement.setString(1, customerID(random.nextInt(customerCount)));
+						resultBuilder.setLength(0);
+						try (ResultSet resultSet = statement.executeQuery()) {
+							while (resultSet.next()) {
+								tableRenderer.renderRow(resultSet, resultBuilder);
+							}
+						}
+						return resultBuilder.toString();
+					});
+				}
+			}
+
+			// The same profile read from the normalized tables, one query per table
+			PreparedStatement[] normalizedStatements = new PreparedStatement[NORMALIZED_TABLES.length];
+			try {
+				for (int i = 0; i < NORMALIZED_TABLES.length; i++) {
+					normalizedStatements[i] = connection
+							.prepareStatement(RecordRenderer.forTable(NORMALIZED_TABLES[i]).getQuery(true));
+				}
+				StringBuilder resultBuilder = new StringBuilder();
+				measure("lookup/normalized/all", () -> {
+					String customerID = customerID(random.nextInt(customerCount));
+					resultBuilder.setLength(0);
+					for (int i = 0; i < NORMALIZED_TABLES.length; i++) {
+						RecordRenderer renderer = RecordRenderer.forTable(NORMALIZED_TABLES[i]);
+						normalizedStatements[i].setString(1, customerID);
+						try (ResultSet resultSet = normalizedStatements[i].executeQuery()) {
+							while (resultSet.next()) {
+								renderer.renderRow(resultSet, resultBuilder);
+							}
+						}
+					}
+					return resultBuilder.toString();
+				});
+			} finally {
+				for (PreparedStatement statement : normalizedStatements) {
+					if (statement != null) {
+						statement.close();
+					}
+				}
+			}
+
+			for (int i = 0; i < FILTERS.length; i++) {
+				measureFilter(connection, "filter/sql/" + FILTERS[i][0], FILTER_QUERIES[i], FILTERS[i][1]);
+				measureFilter(connection, "filter/sql/profile/" + FILTERS[i][0], ChurnBatch.filterQuery(FILTERS[i][0]),
+						FILTERS[i][1]);
+			}
+
+			try (PreparedStatement lookupStatement = connection.prepareStatement(CustomerStatistics.LOOKUP_QUERY);
+					PreparedStatement upsertStatement = connection.prepareStatement(CustomerStatistics.UPSERT_QUERY);
+					PreparedStatement summaryStatement = connection.prepareStatement(
+							CustomerStatistics.CHURN_SUMMARY_QUERY);
+					PreparedStatement scanStatement = connection.prepareStatement(
+							"SELECT COUNT(*) AS totalCustomers, SUM(CASE WHEN Churn = 'Yes' THEN 1 ELSE 0 END) AS churnedCustomers FROM MonthlyCharges")) {
+				measure("statistics/calculateAdditionalStatistics", () -> {
+					lookupStatement.setString(1, customerID(random.nextInt(customerCount)));
+					try (ResultSet resultSet = lookupStatement.executeQuery()) {
+						if (resultSet.next()) {
+							CustomerStatistics.fromResultSet(resultSet).addTo(upsertStatement);
+							upsertStatement.executeBatch();
+						}
+					}
+					return churnPercentage(summaryStatement);
+				});
+				measure("churn/summary", () -> churnPercentage(summaryStatement));
+				measure("churn/scan", () -> churnPercentage(scanStatement));
+			}
+		}
+	}
+
+	/**
+	 * Checks that streaming reads keep client memory flat: scans growing
+	 * prefixes of the Service table with a streaming and a buffered statement
+	 * and measures the heap retained while the last row is being read.
+	 *
+	 * @param pool The pool to borrow a connection from.
+	 * @return True if the streaming heap stayed within 8 MB across all sizes.
+	 */
+	public boolean checkStreamingHeap(ConnectionPool pool) throws SQLException {
+		long[] streamingHeap = new long[3];
+		System.out.printf("%-12s %16s %16s%n", "Rows", "Streaming MB", "Buffered MB");
+		try (Connection connection = pool.getConnection()) {
+			for (int i = 0; i < streamingHeap.length; i++) {
+				int rows = (int) Math.max(1, customerCount / Math.pow(10, streamingHeap.length - 1 - i));
+				String query = "SELECT * FROM Service ORDER BY serviceID LIMIT " + rows;
+				long baseline = usedHeap();
+				try (PreparedStatement statement = ConnectionPool.prepareStreaming(connection, query)) {
+					streamingHeap[i] = heapAtLastRow(statement) - baseline;
+				}
+				long buffered;
+				baseline = usedHeap();
+				try (PreparedStatement statement = connection.prepareStatement(query)) {
+					buffered = heapAtLastRow(statement) - baseline;
+				}
+				System.out.printf("%-12d %16.1f %16.1f%n", rows, streamingHeap[i] / (1024.0 * 1024.0),
+						buffered / (1024.0 * 1024.0));
+			}
+		}
+		long growth = streamingHeap[streamingHeap.length - 1] - streamingHeap[0];
+		System.out.printf("Streaming heap growth: %.1f MB%n", growth / (1024.0 * 1024.0));
+		return growth < 8L * 1024 * 1024;
+	}
+
+	/**
+	 * Reads a result set row by row, consuming each row the way the result
+	 * area does, and returns the used heap just before it is closed.
+	 */
+	private static long heapAtLastRow(PreparedStatement statement) throws SQLException {
+		try (ResultSet resultSet = statement.executeQuery()) {
+			int columnCount = resultSet.getMetaData().getColumnCount();
+			while (resultSet.next()) {
+				for (int column = 1; column <= columnCount; column++) {
+					consume(resultSet.getString(column));
+				}
+			}
+			return usedHeap();
+		}
+	}
+
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	private static double churnPercentage(PreparedStatement statement) throws SQLException {
+		try (ResultSet resultSet = statement.executeQuery()) {
+			resultSet.next();
+			return (double) resultSet.getInt("churnedCustomers") / resultSet.getInt("totalCustomers") * 100;
+		}
+	}
+
+	/**
+	 * Writes the scaled data set to a CSV file in the temporary directory and
+	 * loads it with {@link CsvIngestor}. The file is reused, and the load
+	 * resumes, when the benchmark is run again with the same customer count.
+	 *
+	 * @param pool The pool to load the data with.
+	 */
+	public void seed(ConnectionPool pool) throws IOException, SQLException {
+		Path csvFile = Paths.get(System.getProperty("java.io.tmpdir"), "churn-benchmark-" + customerCount + ".csv");
+		if (!Files.exists(csvFile)) {
+			Path partial = Paths.get(csvFile + ".tmp");
+			try (BufferedWriter writer = Files.newBufferedWriter(partial, StandardCharsets.UTF_8)) {
+				writer.write("customerID,gender,SeniorCitizen,Partner,Dependents,tenure,PhoneService,MultipleLines,"
+						+ "InternetService,OnlineSecurity,OnlineBackup,DeviceProtection,TechSupport,StreamingTV,"
+						+ "StreamingMovies,Contract,PaperlessBilling,PaymentMethod,MonthlyCharges,TotalCharges,Churn\r\n");
+				for (int index = 0; index < customerCount; index++) {
+					writer.write(String.join(",", customer(index)));
+					writer.write("\r\n");
+				}
+			}
+			Files.move(partial, csvFile);
+		}
+		long start = System.nanoTime();
+		int threadCount = Runtime.getRuntime().availableProcessors();
+		long rows = new CsvIngestor(pool, csvFile, threadCount, 1000, 8L * 1024 * 1024).run();
+		System.out.printf("Seeded %d customers from %s in %.1f s%n", rows, csvFile,
+				(System.nanoTime() - start) / 1e9);
+	}
+
+	/**
+	 * Warms up and measures one operation, printing its latency.
+	 */
+	private void measure(String name, Operation operation) throws Exception {
+		if (only != null && !name.contains(only)) {
+			return;
+		}
+		long warmupEnd = System.nanoTime() + warmupNanos;
+		while (System.nanoTime() < warmupEnd) {
+			consume(operation.run());
+		}
+		long[] samples = new long[1024];
+		int count = 0;
+		long measureEnd = System.nanoTime() + measureNanos;
+		do {
+			long start = System.nanoTime();
+			consume(operation.run());
+			long elapsed = System.nanoTime() - start;
+			if (count == samples.length) {
+				samples = Arrays.copyOf(samples, count * 2);
+			}
+			samples[count++] = elapsed;
+		} while (System.nanoTime() < measureEnd);
+
+		Arrays.sort(samples, 0, count);
+		long total = 0;
+		for (int i = 0; i < count; i++) {
+			total += samples[i];
+		}
+		System.out.printf("%-45s %10d ops %12.1f us/op  p50 %12.1f us  p99 %12.1f us%n", name, count,
+				total / (count * 1e3), samples[count / 2] / 1e3, samples[(int) (count * 0.99)] / 1e3);
+	}
+
+	private static void consume(Object result) {
+		sink += System.identityHashCode(result);
+	}
+
+	private static double parseCharges(String charges) {
+		return charges.isBlank() ? 0 : Double.parseDouble(charges);
+	}
+
+	/**
+	 * Runs the benchmarks. Options: --customers N (default 1000000),
+	 * --warmup N and --measure N in seconds per benchmark, --only TEXT to run
+	 * the benchmarks whose name contains TEXT, --db to include the SQL paths
+	 * and --seed to load the scaled data set into the database first.
+	 * --heap-check only checks that streaming reads keep the heap flat, and
+	 * exits with status 1 if they do not.
+	 *
+	 * @param args The command line options.
+	 */
+	public static void main(String[] args) {
+		int customerCount = 1_000_000;
+		int warmupSeconds = 2;
+		int measureSeconds = 5;
+		String only = null;
+		boolean database = false;
+		boolean seed = false;
+		boolean heapCheck = false;
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+			case "--customers":
+				customerCount = Integer.parseInt(args[++i]);
+				break;
+			case "--warmup":
+				warmupSeconds = Integer.parseInt(args[++i]);
+				break;
+			case "--measure":
+				measureSeconds = Integer.parseInt(args[++i]);
+				break;
+			case "--only":
+				only = args[++i];
+				break;
+			case "--db":
+				database = true;
+				break;
+			case "--seed":
+				database = true;
+				seed = true;
+				break;
+			case "--heap-check":
+				database = true;
+				heapCheck = true;
+				break;
+			default:
+				System.err.println("Unknown option: " + args[i]);
+				System.exit(2);
+			}
+		}
+
+		try {
+			List<String[]> baseRows = new ArrayList<>();
+			for (String line : Files.readAllLines(Paths.get("Customer-Churn.csv"), StandardCharsets.UTF_8)) {
+				if (!line.isEmpty() && !line.startsWith("customerID,")) {
+					baseRows.add(line.split(",", -1));
+				}
+			}
+			ChurnBenchmark benchmark = new ChurnBenchmark(baseRows, customerCount, warmupSeconds, measureSeconds,
+					only);
+			if (!heapCheck) {
+				benchmark.runInMemory();
+			}
+			if (database) {
+				ConnectionPool pool = ConnectionPool.createDefault(0, Runtime.getRuntime().availableProcessors(),
+						Long.MAX_VALUE);
+				try {
+					if (seed) {
+						benchmark.seed(pool);
+					}
+					if (heapCheck) {
+						if (!benchmark.checkStreamingHeap(pool)) {
+							System.err.println("Streaming reads did not keep the heap flat.");
+							System.exit(1);
+						}
+						return;
+					}
+					benchmark.runDatabase(pool);
+				} finally {
+					pool.close();
+				}
+			}
+		} catch (Exception e) {
+			System.err.println("Benchmark failed.");
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+}
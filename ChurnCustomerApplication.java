@@ -1,7 +1,22 @@
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.table.DefaultTableModel;
 
 /**
  * ChurnCustomerApplication class represents a graphical user interface for displaying customer
@@ -12,19 +27,65 @@ public class ChurnCustomerApplication extends JFrame {
 	private JTextField searchField;
 	private JTextField filterValueField;
 	private JTextArea resultArea;
-	private Connection connection;
+	private ConnectionPool connectionPool;
+	private JLabel poolStatusLabel;
 	private JPanel searchPanel;
 	private PreparedStatement preparedStatement;
 	private JButton filterButton;
+	private JButton exportButton;
 	private JPanel filterPanel;
 	private double averageMonthlyCharges = 0;
-	private int tenure = 0;
-	String churnAnalysisResult = null;
-	private int senior = 0;
+	volatile String churnAnalysisResult = null;
+	private QueryExecutor queryExecutor;
+	private final ColumnarSnapshot snapshot = new ColumnarSnapshot();
+	// Rebuilt after every snapshot refresh
+	private volatile FilterIndex filterIndex;
+	// Computed on demand and kept until the snapshot is refreshed
+	private volatile CohortAnalytics cohortAnalytics;
+	// Exported after every snapshot refresh and mapped at startup when set
+	private final String snapshotFilePath = System.getProperty("churn.snapshot.file");
+	// Serves lookups and filters until the snapshot has been loaded from the database
+	private volatile SnapshotFile snapshotFile;
+	// Customer IDs suggested while typing in searchField
+	private final CustomerIdIndex customerIdIndex = new CustomerIdIndex();
+	// Set while a periodic sync of the index is queued or running
+	private final AtomicBoolean customerIdSyncPending = new AtomicBoolean();
+	private JPopupMenu suggestionPopup;
+	private Timer suggestionTimer;
+	private final CustomerRecordCache recordCache = new CustomerRecordCache(
+			Integer.getInteger("churn.cache.maxCustomers", 1000),
+			Long.getLong("churn.cache.ttlSeconds", 300) * 1000);
+	private JLabel cacheStatusLabel;
+	private final QueryMetrics queryMetrics = new QueryMetrics();
+	private JTextArea metricsArea;
+	private JScrollPane metricsScrollPane;
+	// Shows either resultArea or the paged table
+	private JPanel resultPanel;
+	private JTable pagedTable;
+	private PagedTableModel pagedTableModel;
+	private JCheckBox memoryEngineCheckBox;
+	private volatile boolean useMemoryEngine;
+
+	// Tables browsed page by page when searched without a customer ID, with the column they are paged by
+	private static final Map<String, String> PAGED_TABLE_KEYS = Map.of("Customer", "customerID",
+			"Service", "serviceID", "MonthlyCharges", "chargeID", "SeniorCitizen", "seniorID", "PartnerDependents",
+			"partnerDependentID", "CustomerProfile", "customerID");
+
+	// Rendering buffer reused by each query worker across searches, dropped when it grows past the limit
+	private static final ThreadLocal<StringBuilder> RENDER_BUFFER = ThreadLocal.withInitial(StringBuilder::new);
+	private static final int MAX_RENDER_BUFFER = 1 << 20;
+
+	// Number of rows rendered before a partial result is pushed to resultArea
+	private static final int ROWS_PER_FLUSH = 200;
+	// Deadline for every background search or filter, in seconds
+	private static final int QUERY_TIMEOUT_SECONDS = 30;
+	// Pause in typing after which customer ID suggestions are shown
+	private static final int SUGGESTION_DELAY_MILLIS = 150;
+	private static final int MAX_SUGGESTIONS = 10;
 
 	// Initialize tableComboBox
 	String[] tableOptions = { "Customer", "Service", "MonthlyCharges", "SeniorCitizen", "PartnerDependents",
-			"InsightsStatistics" };
+			"CustomerProfile", "InsightsStatistics", "Cohorts" };
 	JComboBox tableComboBox = new JComboBox<>(tableOptions);
 
 	/**
@@ -47,13 +108,47 @@ public class ChurnCustomerApplication extends JFrame {
 				searchCustomer();
 			}
 		});
+		// Suggest matching customer IDs once typing pauses
+		suggestionPopup = new JPopupMenu();
+		suggestionPopup.setFocusable(false);
+		suggestionTimer = new Timer(SUGGESTION_DELAY_MILLIS, e -> showSuggestions());
+		suggestionTimer.setRepeats(false);
+		searchField.getDocument().addDocumentListener(new DocumentListener() {
+			@Override
+			public void insertUpdate(DocumentEvent e) {
+				suggestionTimer.restart();
+			}
+
+			@Override
+			public void removeUpdate(DocumentEvent e) {
+				suggestionTimer.restart();
+			}
+
+			@Override
+			public void changedUpdate(DocumentEvent e) {
+				// Attribute changes do not change the text
+			}
+		});
 		searchPanel.add(searchLabel);
 		searchPanel.add(searchField);
 		searchPanel.add(searchButton);
+		cacheStatusLabel = new JLabel();
+		searchPanel.add(cacheStatusLabel);
+		JCheckBox metricsCheckBox = new JCheckBox("Metrics");
+		metricsCheckBox.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				metricsScrollPane.setVisible(metricsCheckBox.isSelected());
+				metricsArea.setText(queryMetrics.format());
+				revalidate();
+			}
+		});
+		searchPanel.add(metricsCheckBox);
 
 		// Initialize filterPanel
 		filterPanel = new JPanel(new FlowLayout());
-		String[] filterOptions = { "Senior Citizen", "Tenure", "Paperless Billing" };
+		// "Combined" takes predicates such as "SeniorCitizen = 1 AND tenure >= 12" and needs the in-memory engine
+		String[] filterOptions = { "Senior Citizen", "Tenure", "Paperless Billing", "Combined" };
 		JComboBox<String> filterComboBox = new JComboBox<>(filterOptions);
 		filterValueField = new JTextField(10);
 		filterButton = new JButton("Apply Filter");
@@ -67,6 +162,37 @@ public class ChurnCustomerApplication extends JFrame {
 		filterPanel.add(filterValueField);
 		filterPanel.add(filterButton);
 
+		// Optional in-memory engine answering filters and the churn percentage
+		memoryEngineCheckBox = new JCheckBox("In-memory engine");
+		memoryEngineCheckBox.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				useMemoryEngine = memoryEngineCheckBox.isSelected();
+				if (useMemoryEngine && !snapshot.isLoaded()) {
+					refreshSnapshot();
+				}
+			}
+		});
+		JButton refreshSnapshotButton = new JButton("Refresh");
+		refreshSnapshotButton.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				refreshSnapshot();
+			}
+		});
+		filterPanel.add(memoryEngineCheckBox);
+		filterPanel.add(refreshSnapshotButton);
+
+		// Export every customer with its statistics to CSV or the compressed columnar format
+		exportButton = new JButton("Export...");
+		exportButton.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				exportCustomers();
+			}
+		});
+		filterPanel.add(exportButton);
+
 		// Add components to the frame
 		add(searchPanel, BorderLayout.NORTH);
 		add(tableComboBox, BorderLayout.WEST); // Add tableComboBox to the left side
@@ -77,496 +203,887 @@ public class ChurnCustomerApplication extends JFrame {
 		resultArea.setEditable(false);
 		JScrollPane resultScrollPane = new JScrollPane(resultArea);
 		resultScrollPane.setPreferredSize(new Dimension(380, 300)); // Adjust the size as needed
-		add(resultScrollPane);
+		pagedTable = new JTable();
+		resultPanel = new JPanel(new CardLayout());
+		resultPanel.add(resultScrollPane, "text");
+		resultPanel.add(new JScrollPane(pagedTable), "table");
+		add(resultPanel);
+
+		// Per-query metrics, hidden until toggled on
+		metricsArea = new JTextArea(10, 60);
+		metricsArea.setEditable(false);
+		metricsArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 11));
+		metricsScrollPane = new JScrollPane(metricsArea);
+		metricsScrollPane.setVisible(false);
+		add(metricsScrollPane, BorderLayout.EAST);
+		Runtime.getRuntime().addShutdownHook(new Thread(this::dumpMetrics));
+
+		// Answer lookups and filters from the last exported snapshot, even without a database
+		openSnapshotFile();
 
 		// Connect to the database
 		connectToDatabase();
+
+		// Run queries in the background so the window stays responsive
+		queryExecutor = new QueryExecutor(connectionPool, 2, 2, QUERY_TIMEOUT_SECONDS, e -> {
+			if (e instanceof SQLTimeoutException) {
+				showErrorDialog("The query timed out after " + QUERY_TIMEOUT_SECONDS
+						+ " seconds; the results may be incomplete.");
+			} else {
+				showErrorDialog("Failed to execute the query.");
+			}
+			e.printStackTrace();
+		});
+
+		// Recompute the statistics of customers whose data changed, dropping their cached records
+		long refreshSeconds = Long.getLong("churn.statistics.refreshSeconds", 60);
+		if (refreshSeconds > 0) {
+			StatisticsRefresher refresher = new StatisticsRefresher(connectionPool, queryMetrics, 10_000, 500,
+					changed -> changed.forEach(recordCache::invalidate));
+			refresher.start(refreshSeconds);
+		}
+
+		// Load the customer IDs suggested while typing, then reload them when customers are added
+		queryExecutor.runDetached(this::syncCustomerIds);
+		int suggestSyncSeconds = Integer.getInteger("churn.suggest.syncSeconds", 30);
+		if (suggestSyncSeconds > 0) {
+			new Timer(suggestSyncSeconds * 1000, e -> {
+				// Skip the tick while the last sync waits behind a snapshot load, instead of queueing another
+				if (!customerIdSyncPending.compareAndSet(false, true)) {
+					return;
+				}
+				queryExecutor.runDetached(context -> {
+					// Reported without a dialog, since the next poll retries
+					try {
+						syncCustomerIds(context);
+					} catch (SQLException ex) {
+						System.err.println("Failed to reload the customer IDs.");
+						ex.printStackTrace();
+					} finally {
+						customerIdSyncPending.set(false);
+					}
+				});
+			}).start();
+		}
+
+		// Serve lookups to other tools over HTTP when a port is configured. The
+		// service gets its own pool so busy HTTP workers cannot starve searches
+		Integer httpPort = Integer.getInteger("churn.http.port");
+		if (httpPort != null) {
+			int httpWorkers = Integer.getInteger("churn.http.workers", 4);
+			ConnectionPool httpPool = ConnectionPool.createDefault(0, httpWorkers, 60_000);
+			try {
+				ChurnHttpService httpService = new ChurnHttpService(httpPool, queryMetrics, httpPort, httpWorkers,
+						Integer.getInteger("churn.http.queue", 256));
+				httpService.start();
+				Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+					httpService.stop();
+					httpPool.close();
+				}));
+			} catch (IOException e) {
+				showErrorDialog("Failed to start the HTTP service on port " + httpPort + ".");
+				e.printStackTrace();
+				httpPool.close();
+			}
+		}
+	}
+
+	/**
+	 * Maps the snapshot file named by the churn.snapshot.file property, if it
+	 * exists, and turns the in-memory engine on so it is used right away.
+	 */
+	private void openSnapshotFile() {
+		if (snapshotFilePath == null || !Files.exists(Paths.get(snapshotFilePath))) {
+			return;
+		}
+		long start = System.nanoTime();
+		try {
+			SnapshotFile file = SnapshotFile.open(Paths.get(snapshotFilePath));
+			queryMetrics.record("snapshot/file/open", System.nanoTime() - start, file.getRowCount(), null);
+			snapshotFile = file;
+			useMemoryEngine = true;
+			memoryEngineCheckBox.setSelected(true);
+			memoryEngineCheckBox.setText(String.format("In-memory engine (file, %d customers, %.1f MB)",
+					file.getRowCount(), file.getSize() / (1024.0 * 1024.0)));
+		} catch (IOException e) {
+			queryMetrics.record("snapshot/file/open", System.nanoTime() - start, 0, e);
+			showErrorDialog("Failed to open the snapshot file " + snapshotFilePath + ".");
+			e.printStackTrace();
+		}
 	}
 
 	/**
-	 * Establishes a connection to the MySQL database.
+	 * Creates the connection pool for the MySQL database and checks that the
+	 * database is reachable. If it is not, the pool keeps retrying in the
+	 * background and later searches reconnect once it is back.
 	 */
 	private void connectToDatabase() {
+		connectionPool = ConnectionPool.createDefault();
 		try {
-			String url = "jdbc:mysql://localhost/churndata?";
-			String username = "root";
-			String password = "";
-			connection = DriverManager.getConnection(url, username, password);
+			// The validated connection goes straight back to the pool for the first search
+			connectionPool.validate();
 		} catch (SQLException e) {
 			showErrorDialog("Failed to connect to the database.");
 			e.printStackTrace();
-			System.exit(1);
 		}
+
+		// Show pool usage so the pool can be sized
+		poolStatusLabel = new JLabel();
+		filterPanel.add(poolStatusLabel);
+		new Timer(1000, e -> {
+			poolStatusLabel.setText(connectionPool.getStats().toString());
+			recordCache.evictExpired();
+			cacheStatusLabel.setText(recordCache.getStats().toString());
+			if (metricsScrollPane.isVisible()) {
+				metricsArea.setText(queryMetrics.format());
+			}
+		}).start();
 	}
 
 	/**
-	 * Searches for customer data based on the entered customer ID.
+	 * Loads the customer ID index if customers were added or removed since it
+	 * was last loaded.
+	 * 
+	 * @param context The background task the IDs are read in.
+	 * @throws SQLException If the IDs cannot be read.
 	 */
-	private void searchCustomer() {
-		String searchTerm = searchField.getText().trim();
+	private void syncCustomerIds(QueryExecutor.QueryContext context) throws SQLException {
+		long start = System.nanoTime();
+		if (customerIdIndex.sync(context.getConnection())) {
+			queryMetrics.record("search/suggest/load", System.nanoTime() - start, customerIdIndex.size(), null);
+		}
+	}
 
-		// Clear the resultArea before displaying the new result
-		resultArea.setText("");
+	/**
+	 * Writes the query metrics to the file named by the churn.metrics.file
+	 * system property, or to standard output if it is not set. Runs on exit.
+	 */
+	private void dumpMetrics() {
+		String metricsFile = System.getProperty("churn.metrics.file");
+		if (metricsFile == null) {
+			System.out.print(queryMetrics.format());
+			return;
+		}
+		try {
+			queryMetrics.dump(Paths.get(metricsFile));
+		} catch (IOException e) {
+			System.err.println("Failed to write query metrics to " + metricsFile);
+			e.printStackTrace();
+		}
+	}
 
-		// Calculate additional statistics regardless of the selected table
-		calculateAdditionalStatistics(searchTerm);
+	/**
+	 * Reloads the in-memory snapshot from the database in the background,
+	 * rebuilds the filter indexes over it and shows their size once loaded.
+	 */
+	private void refreshSnapshot() {
+		memoryEngineCheckBox.setText("In-memory engine (loading...)");
+		queryExecutor.runDetached(this::loadSnapshot);
+	}
 
+	/**
+	 * Loads the snapshot and rebuilds its filter index in the given task,
+	 * then shows the snapshot size next to the in-memory engine checkbox.
+	 *
+	 * @param context The background task the snapshot is loaded in.
+	 * @throws SQLException If the tables cannot be read.
+	 */
+	private void loadSnapshot(QueryExecutor.QueryContext context) throws SQLException {
+		long start = System.nanoTime();
 		try {
-			// Retrieve additional information from related tables based on user selection
-			String selectedTable = (String) tableComboBox.getSelectedItem();
-			switch (selectedTable) {
-			case "Service":
-				displayServiceInfo(searchTerm);
-				break;
-			case "MonthlyCharges":
-				displayMonthlyChargesInfo(searchTerm);
-				break;
-			case "SeniorCitizen":
-				displaySeniorCitizenInfo(searchTerm);
-				break;
-			case "PartnerDependents":
-				displayPartnerDependentsInfo(searchTerm);
-				break;
-			case "InsightsStatistics":
-				displayInsightsStatistics(searchTerm);
-				break;
-			default:
-				displayCustomerInfo(searchTerm);
-			}
+			snapshot.refresh(context.getConnection());
+			queryMetrics.record("snapshot/refresh", System.nanoTime() - start, snapshot.getRowCount(), null);
+			filterIndex = new FilterIndex(snapshot);
+			exportSnapshot();
 		} catch (SQLException e) {
-			showErrorDialog("Failed to execute the query.");
-			e.printStackTrace();
+			queryMetrics.record("snapshot/refresh", System.nanoTime() - start, 0, e);
+			throw e;
+		} finally {
+			FilterIndex index = filterIndex;
+			long footprint = snapshot.getMemoryFootprint() + (index == null ? 0 : index.getMemoryFootprint());
+			SwingUtilities.invokeLater(() -> memoryEngineCheckBox.setText(String.format(
+					"In-memory engine (%d customers, %.1f MB)", snapshot.getRowCount(),
+					footprint / (1024.0 * 1024.0))));
 		}
 	}
 
 	/**
-	 * Calculates additional statistics for the given customer.
+	 * Shows a whole table in the paged table view, replacing the previous
+	 * table.
 	 * 
-	 * @param searchTerm The customer ID for which statistics are calculated.
+	 * @param table The table to show.
 	 */
-	private void calculateAdditionalStatistics(String searchTerm) {
-		// Calculate additional statistics for the given customer
-		calculateCLV(searchTerm); // Assuming averageMonthlyCharges and tenure are available
-		isDiscountEligible(searchTerm); // Assuming tenure is available
-		calculateNumberOfServices(searchTerm);
-		calculateChurnPercentage();
+	private void showPagedTable(String table) {
+		if (pagedTableModel != null) {
+			pagedTableModel.close();
+		}
+		pagedTableModel = new PagedTableModel(connectionPool, queryMetrics, table, PAGED_TABLE_KEYS.get(table));
+		pagedTable.setModel(pagedTableModel);
+		pagedTableModel.open(e -> {
+			showErrorDialog("Failed to load the " + table + " table.");
+			e.printStackTrace();
+		});
+		((CardLayout) resultPanel.getLayout()).show(resultPanel, "table");
 	}
 
 	/**
-	 * Displays customer information based on the provided customer ID.
+	 * Splits a search term into the customer IDs it lists, separated by commas
+	 * or whitespace. Empty entries are skipped, and so are IDs differing from
+	 * an earlier one only in case, which MySQL matches to the same customer.
 	 * 
-	 * @param searchTerm The customer ID for which information is displayed.
-	 * @throws SQLException If an SQL exception occurs.
+	 * @param searchTerm The search term.
+	 * @return The distinct IDs, in the order they were entered.
 	 */
-	private void displayCustomerInfo(String searchTerm) throws SQLException {
-		StringBuilder resultBuilder = new StringBuilder("Customer Details:\n");
-		String query = "SELECT * FROM Customer";
-		if (searchTerm.isEmpty()) {
-			PreparedStatement customerStatement = connection.prepareStatement(query);
+	private static List<String> parseCustomerIDs(String searchTerm) {
+		Map<String, String> customerIDs = new LinkedHashMap<>();
+		for (String customerID : searchTerm.split("[,\\s]+")) {
+			if (!customerID.isEmpty()) {
+				customerIDs.putIfAbsent(customerID.toUpperCase(Locale.ROOT), customerID);
+			}
+		}
+		return new ArrayList<>(customerIDs.values());
+	}
+
+	/**
+	 * Shows resultArea instead of the paged table view.
+	 */
+	private void showTextResult() {
+		if (pagedTableModel != null) {
+			pagedTableModel.close();
+			pagedTableModel = null;
+			pagedTable.setModel(new DefaultTableModel());
 		}
-		if (!searchTerm.isEmpty()) {
-			query += " WHERE customerID = ?";
+		((CardLayout) resultPanel.getLayout()).show(resultPanel, "text");
+	}
+
+	/**
+	 * Searches for customer data based on the entered customer ID.
+	 */
+	private void searchCustomer() {
+		suggestionTimer.stop();
+		suggestionPopup.setVisible(false);
+		String searchTerm = searchField.getText().trim();
+		String selectedTable = (String) tableComboBox.getSelectedItem();
+
+		// Clear the resultArea before displaying the new result
+		resultArea.setText("");
+
+		// Whole tables are browsed page by page instead of being rendered as text
+		if (searchTerm.isEmpty() && PAGED_TABLE_KEYS.containsKey(selectedTable)) {
+			queryExecutor.cancelCurrent();
+			showPagedTable(selectedTable);
+			return;
 		}
-		try (PreparedStatement customerStatement = connection.prepareStatement(query)) {
-			if (!searchTerm.isEmpty()) {
-				customerStatement.setString(1, searchTerm);
+		showTextResult();
+
+		// Any search or filter still running is cancelled by the new submission
+		queryExecutor.submit(context -> {
+			// Cohorts cover every customer, so the search term is not used
+			if (selectedTable.equals("Cohorts")) {
+				displayCohorts(context);
+				return;
 			}
-			try (ResultSet customerResultSet = customerStatement.executeQuery()) {
-				while (customerResultSet.next()) {
-					resultBuilder.append("Customer ID: ").append(customerResultSet.getString("customerID"))
-							.append("\n");
-					resultBuilder.append("Gender: ").append(customerResultSet.getString("gender")).append("\n");
-					resultBuilder.append("Senior Citizen: ").append(customerResultSet.getInt("SeniorCitizen"))
-							.append("\n");
-					resultBuilder.append("Partner: ").append(customerResultSet.getString("Partner")).append("\n");
-					resultBuilder.append("Dependents: ").append(customerResultSet.getString("Dependents")).append("\n");
-					resultBuilder.append("Tenure: ").append(customerResultSet.getInt("tenure")).append("\n\n");
-					tenure = customerResultSet.getInt("tenure");
+
+			// Until the snapshot is loaded from the database, customers are looked up in the snapshot file
+			SnapshotFile file = snapshotFile;
+			RecordRenderer fileRenderer = RecordRenderer.forTable(selectedTable);
+			if (useMemoryEngine && !snapshot.isLoaded() && file != null && !searchTerm.isEmpty()
+					&& fileRenderer != null) {
+				displayFileRecord(context, file, searchTerm, fileRenderer);
+				return;
+			}
+
+			// Several IDs separated by commas or spaces are looked up together
+			List<String> customerIDs = parseCustomerIDs(searchTerm);
+			if (customerIDs.size() > 1) {
+				displayBatchLookup(context, customerIDs, selectedTable);
+				return;
+			}
+			// A term such as ", ABC" names a single customer
+			String customerID = customerIDs.isEmpty() ? searchTerm : customerIDs.get(0);
+
+			// Calculate additional statistics regardless of the selected table
+			calculateAdditionalStatistics(context, customerID);
+
+			try {
+				// Retrieve additional information from related tables based on user selection
+				if (selectedTable.equals("InsightsStatistics")) {
+					displayInsightsStatistics(context, customerID);
+				} else {
+					RecordRenderer renderer = RecordRenderer.forTable(selectedTable);
+					displayRecords(context, customerID, renderer != null ? renderer : RecordRenderer.forTable("Customer"));
+				}
+			} catch (SQLException e) {
+				reportFailure(context, "Failed to execute the query.", e);
+			}
+		});
+	}
+
+	/**
+	 * Looks up several customers at once: for every chunk of
+	 * {@link InList#MAX_SIZE} customers, their statistics are read with one
+	 * query and stored with one batch, and the rows of the selected table are
+	 * read with one query, so the cost grows with the number of chunks rather
+	 * than the number of customers.
+	 * 
+	 * @param context       The background task the lookup runs in.
+	 * @param customerIDs   The IDs of the customers.
+	 * @param selectedTable The table to display.
+	 */
+	private void displayBatchLookup(QueryExecutor.QueryContext context, List<String> customerIDs,
+			String selectedTable) {
+		boolean insights = selectedTable.equals("InsightsStatistics");
+		RecordRenderer renderer = RecordRenderer.forTable(selectedTable);
+		if (renderer == null) {
+			renderer = RecordRenderer.forTable("Customer");
+		}
+		StringBuilder resultBuilder = new StringBuilder(insights ? "Insights Statistics:\n" : renderer.getHeading());
+		int rowCount = 0;
+		try {
+			for (int start = 0; start < customerIDs.size(); start += InList.MAX_SIZE) {
+				List<String> chunk = customerIDs.subList(start, Math.min(start + InList.MAX_SIZE, customerIDs.size()));
+				storeBatchStatistics(context, chunk);
+				String query = insights
+						? "SELECT customerID, statisticName, statisticValue FROM InsightsStatistics WHERE customerID IN "
+								+ InList.placeholders(chunk.size())
+						: renderer.getQueryForCustomers(chunk.size());
+				String name = "search/batch/" + selectedTable;
+				try (PreparedStatement statement = prepare(context, name, query)) {
+					InList.bind(statement, 1, chunk);
+					int chunkStart = rowCount;
+					try (ResultSet resultSet = statement.executeQuery()) {
+						while (resultSet.next()) {
+							if (insights) {
+								resultBuilder.append("Customer ID: ").append(resultSet.getString(1)).append("\n");
+								resultBuilder.append("Statistics Name: ").append(resultSet.getString(2)).append("\n");
+								resultBuilder.append("Statistics Value: ").append(resultSet.getString(3))
+										.append("\n\n");
+							} else {
+								renderer.renderRow(resultSet, resultBuilder);
+							}
+							flushPartialResult(context, resultBuilder, ++rowCount);
+						}
+					}
+					queryMetrics.addRows(name, rowCount - chunkStart);
 				}
 			}
+		} catch (SQLException e) {
+			reportFailure(context, "Failed to look up the customers.", e);
 		}
-		resultArea.append(resultBuilder.toString());
+		if (insights) {
+			calculateChurnPercentage(context);
+			resultBuilder.append(churnAnalysisResult);
+		}
+		appendResult(context, resultBuilder.toString());
 	}
 
 	/**
-	 * Displays service information based on the provided customer ID.
+	 * Calculates the statistics of several customers with one query and
+	 * upserts those that changed since they were last stored with one batch.
 	 * 
-	 * @param searchTerm The customer ID for which information is displayed.
-	 * @throws SQLException If an SQL exception occurs.
+	 * @param context     The background task the queries run in.
+	 * @param customerIDs The IDs of the customers, at most
+	 *                    {@link InList#MAX_SIZE}.
+	 * @throws SQLException If the statistics cannot be read or stored.
 	 */
-	private void displayServiceInfo(String searchTerm) throws SQLException {
-		StringBuilder resultBuilder = new StringBuilder("Service Details:\n");
-		String query = "SELECT * FROM Service";
-		if (searchTerm.isEmpty()) {
-			PreparedStatement serviceStatement = connection.prepareStatement(query);
+	private void storeBatchStatistics(QueryExecutor.QueryContext context, List<String> customerIDs)
+			throws SQLException {
+		List<CustomerStatistics> changed = new ArrayList<>();
+		try (PreparedStatement lookupStatement = prepare(context, "statistics/lookup/batch",
+				CustomerStatistics.lookupQuery(customerIDs.size()))) {
+			InList.bind(lookupStatement, 1, customerIDs);
+			try (ResultSet resultSet = lookupStatement.executeQuery()) {
+				int rowCount = 0;
+				while (resultSet.next()) {
+					rowCount++;
+					CustomerStatistics statistics = CustomerStatistics.fromResultSet(resultSet);
+					// Unchanged statistics were already written by an earlier search
+					if (!recordCache.updateStatistics(statistics)) {
+						changed.add(statistics);
+					}
+				}
+				queryMetrics.addRows("statistics/lookup/batch", rowCount);
+			}
 		}
-		if (!searchTerm.isEmpty()) {
-			query += " WHERE customerID = ?";
+		if (changed.isEmpty()) {
+			return;
 		}
-		try (PreparedStatement serviceStatement = connection.prepareStatement(query)) {
-			if (!searchTerm.isEmpty()) {
-				serviceStatement.setString(1, searchTerm);
+		try (PreparedStatement upsertStatement = prepare(context, "statistics/upsert/batch",
+				CustomerStatistics.UPSERT_QUERY)) {
+			for (CustomerStatistics statistics : changed) {
+				statistics.addTo(upsertStatement);
 			}
-			try (ResultSet serviceResultSet = serviceStatement.executeQuery()) {
-				while (serviceResultSet.next()) {
-					resultBuilder.append("Service ID: ").append(serviceResultSet.getInt("serviceID")).append("\n");
-					resultBuilder.append("Phone Service: ").append(serviceResultSet.getString("PhoneService"))
-							.append("\n");
-					resultBuilder.append("Multiple Lines: ").append(serviceResultSet.getString("MultipleLines"))
-							.append("\n");
-					resultBuilder.append("Internet Service: ").append(serviceResultSet.getString("InternetService"))
-							.append("\n");
-					resultBuilder.append("Online Security: ").append(serviceResultSet.getString("OnlineSecurity"))
-							.append("\n");
-					resultBuilder.append("Online Backup: ").append(serviceResultSet.getString("OnlineBackup"))
-							.append("\n");
-					resultBuilder.append("Device Protection: ").append(serviceResultSet.getString("DeviceProtection"))
-							.append("\n");
-					resultBuilder.append("Tech Support: ").append(serviceResultSet.getString("TechSupport"))
-							.append("\n");
-					resultBuilder.append("Streaming TV: ").append(serviceResultSet.getString("StreamingTV"))
-							.append("\n");
-					resultBuilder.append("Streaming Movies: ").append(serviceResultSet.getString("StreamingMovies"))
-							.append("\n");
-					resultBuilder.append("Paperless Billing: ").append(serviceResultSet.getString("PaperlessBilling"))
-							.append("\n");
-					resultBuilder.append("Payment Method: ").append(serviceResultSet.getString("PaymentMethod"))
-							.append("\n\n");
-					// Add more service details as needed
-				}
+			upsertStatement.executeBatch();
+		} catch (SQLException e) {
+			// Forget the statistics so the next search writes them again
+			for (CustomerStatistics statistics : changed) {
+				recordCache.invalidate(statistics.getCustomerID());
 			}
+			throw e;
 		}
-		resultArea.append(resultBuilder.toString());
 	}
 
 	/**
-	 * Displays monthly charges information based on the provided customer ID.
+	 * Shows the customer IDs starting with the text of searchField below it.
+	 * Choosing one searches for that customer.
+	 */
+	private void showSuggestions() {
+		suggestionPopup.setVisible(false);
+		suggestionPopup.removeAll();
+		String prefix = searchField.getText().trim();
+		if (prefix.isEmpty() || !searchField.isShowing()) {
+			return;
+		}
+		long start = System.nanoTime();
+		List<String> suggestions = customerIdIndex.suggest(prefix, MAX_SUGGESTIONS);
+		queryMetrics.record("search/suggest", System.nanoTime() - start, suggestions.size(), null);
+		// Nothing to suggest once the whole ID has been typed
+		if (suggestions.isEmpty() || (suggestions.size() == 1 && suggestions.get(0).equalsIgnoreCase(prefix))) {
+			return;
+		}
+		for (String customerID : suggestions) {
+			JMenuItem item = new JMenuItem(customerID);
+			item.addActionListener(e -> {
+				searchField.setText(customerID);
+				searchCustomer();
+			});
+			suggestionPopup.add(item);
+		}
+		suggestionPopup.show(searchField, 0, searchField.getHeight());
+	}
+
+	/**
+	 * Calculates additional statistics for the given customer. The inputs of
+	 * all statistics are read with one joined query and the statistics are
+	 * upserted with one batch, so a search costs two round trips instead of
+	 * one or more per statistic.
 	 * 
-	 * @param searchTerm The customer ID for which information is displayed.
-	 * @throws SQLException If an SQL exception occurs.
+	 * @param context    The background task the statistics are calculated in.
+	 * @param searchTerm The customer ID for which statistics are calculated.
 	 */
-	private void displayMonthlyChargesInfo(String searchTerm) throws SQLException {
-		StringBuilder resultBuilder = new StringBuilder("Monthly Charges:\n");
-		String query = "SELECT * FROM MonthlyCharges";
-		if (searchTerm.isEmpty()) {
-			PreparedStatement chargesStatement = connection.prepareStatement(query);
-		}
-		if (!searchTerm.isEmpty()) {
-			query += " WHERE customerID = ?";
-		}
-		try (PreparedStatement chargesStatement = connection.prepareStatement(query)) {
-			if (!searchTerm.isEmpty()) {
-				chargesStatement.setString(1, searchTerm);
-			}
-			try (ResultSet chargesResultSet = chargesStatement.executeQuery()) {
-				while (chargesResultSet.next()) {
-					resultBuilder.append("Charge ID: ").append(chargesResultSet.getInt("chargeID")).append("\n");
-					resultBuilder.append("Monthly Charges: ")
-							.append(String.valueOf(chargesResultSet.getDouble("MonthlyCharges"))).append("\n");
-					resultBuilder.append("Total Charges: ")
-							.append(String.valueOf(chargesResultSet.getDouble("TotalCharges"))).append("\n");
-					resultBuilder.append("Churn: ").append(chargesResultSet.getString("Churn")).append("\n\n");
-				}
+	private void calculateAdditionalStatistics(QueryExecutor.QueryContext context, String searchTerm) {
+		// Calculate additional statistics for the given customer
+		storeCustomerStatistics(context, searchTerm);
+		calculateChurnPercentage(context);
+	}
+
+	/**
+	 * Prepares a statement that is cancelled together with the given task and
+	 * whose executions are recorded in the query metrics.
+	 * 
+	 * @param context The background task the statement belongs to.
+	 * @param name    The name the executions are recorded under.
+	 * @param query   The SQL query to prepare.
+	 * @return The prepared statement.
+	 * @throws SQLException If the statement cannot be prepared or the task was
+	 *                      cancelled.
+	 */
+	private PreparedStatement prepare(QueryExecutor.QueryContext context, String name, String query)
+			throws SQLException {
+		return prepare(context, name, query, false);
+	}
+
+	/**
+	 * Prepares a statement like {@link #prepare(QueryExecutor.QueryContext,
+	 * String, String)}, optionally streaming its result set so scans of whole
+	 * tables are consumed row by row instead of being buffered by the driver.
+	 * 
+	 * @param context   The background task the statement belongs to.
+	 * @param name      The name the executions are recorded under.
+	 * @param query     The SQL query to prepare.
+	 * @param streaming True to stream the result set.
+	 * @return The prepared statement.
+	 * @throws SQLException If the statement cannot be prepared or the task was
+	 *                      cancelled.
+	 */
+	private PreparedStatement prepare(QueryExecutor.QueryContext context, String name, String query,
+			boolean streaming) throws SQLException {
+		Connection connection = context.getConnection();
+		PreparedStatement statement = streaming ? ConnectionPool.prepareStreaming(connection, query)
+				: connection.prepareStatement(query);
+		return context.track(queryMetrics.instrument(name, statement));
+	}
+
+	/**
+	 * Appends text to the result area from a background task. Text produced by
+	 * a task that has since been cancelled is discarded.
+	 * 
+	 * @param context The background task producing the text.
+	 * @param text    The text to append.
+	 */
+	private void appendResult(QueryExecutor.QueryContext context, String text) {
+		SwingUtilities.invokeLater(() -> {
+			if (!context.isCancelled()) {
+				resultArea.append(text);
 			}
+		});
+	}
+
+	/**
+	 * Pushes the rows rendered so far to the result area once enough of them
+	 * have accumulated, so large tables appear progressively.
+	 * 
+	 * @param context       The background task producing the rows.
+	 * @param resultBuilder The buffer holding the rendered rows.
+	 * @param rowCount      The number of rows rendered so far.
+	 * @throws SQLException If the task was cancelled.
+	 */
+	private void flushPartialResult(QueryExecutor.QueryContext context, StringBuilder resultBuilder, int rowCount)
+			throws SQLException {
+		if (context.isCancelled()) {
+			throw new SQLException("Query was cancelled.");
+		}
+		if (rowCount % ROWS_PER_FLUSH == 0) {
+			appendResult(context, resultBuilder.toString());
+			resultBuilder.setLength(0);
 		}
-		resultArea.append(resultBuilder.toString());
 	}
 
 	/**
-	 * Displays senior citizen status information based on the provided customer ID.
+	 * Appends the cached record of the searched customer for a table, if there
+	 * is one.
 	 * 
-	 * @param searchTerm The customer ID for which information is displayed.
-	 * @throws SQLException If an SQL exception occurs.
+	 * @param context    The background task the search runs in.
+	 * @param searchTerm The customer ID searched for.
+	 * @param table      The table whose record is displayed.
+	 * @return True if the record was found in the cache and appended.
 	 */
-	private void displaySeniorCitizenInfo(String searchTerm) throws SQLException {
-		StringBuilder resultBuilder = new StringBuilder("Senior Citizen Information:\n");
-		String query = "SELECT * FROM SeniorCitizen";
+	private boolean appendCachedRecord(QueryExecutor.QueryContext context, String searchTerm, String table) {
 		if (searchTerm.isEmpty()) {
-			PreparedStatement seniorStatement = connection.prepareStatement(query);
+			return false;
 		}
-		if (!searchTerm.isEmpty()) {
-			query += " WHERE customerID = ?";
+		String cached = recordCache.get(searchTerm, table);
+		if (cached == null) {
+			return false;
 		}
-		try (PreparedStatement seniorStatement = connection.prepareStatement(query)) {
-			if (!searchTerm.isEmpty()) {
-				seniorStatement.setString(1, searchTerm);
-			}
-			try (ResultSet seniorResultSet = seniorStatement.executeQuery()) {
-				while (seniorResultSet.next()) {
-					resultBuilder.append("Senior ID: ").append(seniorResultSet.getInt("seniorID")).append("\n");
-					resultBuilder.append("Senior Citizen: ").append(seniorResultSet.getInt("SeniorCitizen"))
-							.append("\n\n");
-					senior = seniorResultSet.getInt("SeniorCitizen");
+		appendResult(context, cached);
+		return true;
+	}
 
-				}
-			}
+	/**
+	 * Appends the rendered record of a table and caches it when a single
+	 * customer was searched. A single customer's record never has enough rows
+	 * to be flushed partially, so the text is the complete record.
+	 * 
+	 * @param context    The background task the search runs in.
+	 * @param searchTerm The customer ID searched for, or empty for all.
+	 * @param table      The table the record was rendered from.
+	 * @param rendered   The rendered record.
+	 */
+	private void appendRecord(QueryExecutor.QueryContext context, String searchTerm, String table, String rendered) {
+		if (!searchTerm.isEmpty() && !context.isCancelled()) {
+			recordCache.put(searchTerm, table, rendered);
+		}
+		appendResult(context, rendered);
+	}
+
+	/**
+	 * Reports a failure of a background task unless the task was cancelled, in
+	 * which case the failure is expected. A task cancelled by its deadline is
+	 * reported as timed out by the query executor once it returns.
+	 * 
+	 * @param context The background task that failed.
+	 * @param message The error message to display.
+	 * @param e       The exception that caused the failure.
+	 */
+	private void reportFailure(QueryExecutor.QueryContext context, String message, Exception e) {
+		if (context.isCancelled()) {
+			return;
 		}
-		resultArea.append(resultBuilder.toString());
+		showErrorDialog(message);
+		e.printStackTrace();
 	}
 
 	/**
-	 * Displays partner and dependents information based on the provided customer
-	 * ID.
+	 * Displays the rows of a table for the provided customer ID, or every row
+	 * of the table if no customer ID is given.
 	 * 
+	 * @param context    The background task the query runs in.
 	 * @param searchTerm The customer ID for which information is displayed.
+	 * @param renderer   The renderer of the table.
 	 * @throws SQLException If an SQL exception occurs.
 	 */
-	private void displayPartnerDependentsInfo(String searchTerm) throws SQLException {
-		StringBuilder resultBuilder = new StringBuilder("Partner and Dependents Information:\n");
-		String query = "SELECT * FROM PartnerDependents";
-		if (searchTerm.isEmpty()) {
-			PreparedStatement partnerDependentsStatement = connection.prepareStatement(query);
-		}
-		if (!searchTerm.isEmpty()) {
-			query += " WHERE customerID = ?";
+	private void displayRecords(QueryExecutor.QueryContext context, String searchTerm, RecordRenderer renderer)
+			throws SQLException {
+		String table = renderer.getTable();
+		if (appendCachedRecord(context, searchTerm, table)) {
+			return;
 		}
-		try (PreparedStatement partnerDependentsStatement = connection.prepareStatement(query)) {
-			if (!searchTerm.isEmpty()) {
-				partnerDependentsStatement.setString(1, searchTerm);
+		StringBuilder resultBuilder = RENDER_BUFFER.get();
+		resultBuilder.setLength(0);
+		resultBuilder.append(renderer.getHeading());
+		boolean byCustomer = !searchTerm.isEmpty();
+		try (PreparedStatement statement = prepare(context, "search/" + table, renderer.getQuery(byCustomer),
+				!byCustomer)) {
+			if (byCustomer) {
+				statement.setString(1, searchTerm);
 			}
-			try (ResultSet partnerDependentsResultSet = partnerDependentsStatement.executeQuery()) {
-				while (partnerDependentsResultSet.next()) {
-					resultBuilder.append("Partner Dependent ID: ")
-							.append(partnerDependentsResultSet.getInt("partnerDependentID")).append("\n");
-					resultBuilder.append("Partner: ").append(partnerDependentsResultSet.getString("Partner"))
-							.append("\n");
-					resultBuilder.append("Dependents: ").append(partnerDependentsResultSet.getString("Dependents"))
-							.append("\n\n");
+			try (ResultSet resultSet = statement.executeQuery()) {
+				int rowCount = 0;
+				while (resultSet.next()) {
+					renderer.renderRow(resultSet, resultBuilder);
+					flushPartialResult(context, resultBuilder, ++rowCount);
 				}
+				queryMetrics.addRows("search/" + table, rowCount);
 			}
 		}
-		resultArea.append(resultBuilder.toString());
+		appendRecord(context, searchTerm, table, resultBuilder.toString());
+		// Do not keep a buffer that grew for an unusually large result
+		if (resultBuilder.capacity() > MAX_RENDER_BUFFER) {
+			RENDER_BUFFER.remove();
+		}
+	}
+
+	/**
+	 * Displays a customer of the snapshot file, rendered like the rows of a
+	 * table.
+	 * 
+	 * @param context    The background task the lookup runs in.
+	 * @param file       The snapshot file.
+	 * @param searchTerm The customer ID to look up.
+	 * @param renderer   The renderer of the table.
+	 */
+	private void displayFileRecord(QueryExecutor.QueryContext context, SnapshotFile file, String searchTerm,
+			RecordRenderer renderer) {
+		long start = System.nanoTime();
+		StringBuilder resultBuilder = new StringBuilder(renderer.getHeading());
+		int row = file.findRow(searchTerm);
+		if (row >= 0) {
+			renderer.renderRow(file, row, resultBuilder);
+		}
+		queryMetrics.record("search/file/" + renderer.getTable(), System.nanoTime() - start, row >= 0 ? 1 : 0,
+				null);
+		appendResult(context, resultBuilder.toString());
 	}
 
 	/**
 	 * Applies a filter to the database based on the given filter type and value.
 	 * 
 	 * @param filterType The type of filter to apply (e.g., "Senior Citizen",
-	 *                   "Tenure", "Paperless Billing").
+	 *                   "Tenure", "Paperless Billing", "Combined").
 	 */
 	private void applyFilter(String filterType) {
 		String filterValue = filterValueField.getText().trim();
 		String query = "";
-		try {
-			switch (filterType) {
-			case "Senior Citizen":
-				query = "SELECT * FROM SeniorCitizen WHERE SeniorCitizen = ?";
-				break;
-			case "Tenure":
-				query = "SELECT * FROM Customer WHERE tenure >= ?";
-				break;
-			case "Paperless Billing":
-				query = "SELECT * FROM Service WHERE PaperlessBilling = ?";
-				break;
-			default:
-				showErrorDialog("Invalid filter type.");
+		switch (filterType) {
+		case "Senior Citizen":
+			query = "SELECT customerID FROM CustomerProfile WHERE SeniorCitizen = ?";
+			break;
+		case "Tenure":
+			query = "SELECT customerID FROM CustomerProfile WHERE tenure >= ?";
+			break;
+		case "Paperless Billing":
+			query = "SELECT customerID FROM CustomerProfile WHERE PaperlessBilling = ?";
+			break;
+		case "Combined":
+			// Combined filters are only answered by the filter indexes
+			if (!useMemoryEngine || filterIndex == null) {
+				showErrorDialog("Combined filters need the in-memory engine.");
 				return;
 			}
+			break;
+		default:
+			showErrorDialog("Invalid filter type.");
+			return;
+		}
 
-			PreparedStatement preparedStatement = connection.prepareStatement(query);
-			preparedStatement.setString(1, filterValue);
-			ResultSet resultSet = preparedStatement.executeQuery();
-			displayFilteredResults(resultSet);
-		} catch (SQLException ex) {
-			showErrorDialog("Failed to apply filter.");
-			ex.printStackTrace();
+		// Filtered results replace whatever is currently displayed
+		resultArea.setText("");
+		showTextResult();
+
+		FilterIndex index = filterIndex;
+		if (useMemoryEngine && index != null) {
+			queryExecutor.submit(context -> displayIndexedFilterResults(context, index, filterType, filterValue));
+			return;
+		}
+		SnapshotFile file = snapshotFile;
+		if (useMemoryEngine && file != null && !filterType.equals("Combined")) {
+			queryExecutor.submit(context -> displayFileFilterResults(context, file, filterType, filterValue));
+			return;
 		}
+
+		String filterQuery = query;
+		queryExecutor.submit(context -> {
+			String name = "filter/sql/" + filterType;
+			try (PreparedStatement preparedStatement = prepare(context, name, filterQuery, true)) {
+				preparedStatement.setString(1, filterValue);
+				try (ResultSet resultSet = preparedStatement.executeQuery()) {
+					queryMetrics.addRows(name, displayFilteredResults(context, resultSet));
+				}
+			} catch (SQLException ex) {
+				reportFailure(context, "Failed to apply filter.", ex);
+			}
+		});
 	}
 
 	/**
 	 * Displays the filtered results in the result area of the GUI.
 	 * 
+	 * @param context   The background task the filter runs in.
 	 * @param resultSet The result set containing the filtered data.
+	 * @return The number of rows read.
 	 */
-	private void displayFilteredResults(ResultSet resultSet) {
+	private int displayFilteredResults(QueryExecutor.QueryContext context, ResultSet resultSet) {
 		StringBuilder resultBuilder = new StringBuilder();
+		int rowCount = 0;
 		try {
 			while (resultSet.next()) {
 				resultBuilder.append("Customer ID: ").append(resultSet.getString("customerID")).append("\n");
 				// Append more columns as needed
 				resultBuilder.append("\n"); // Add a newline between rows
+				flushPartialResult(context, resultBuilder, ++rowCount);
 			}
-			resultArea.setText(resultBuilder.toString());
+			appendResult(context, resultBuilder.toString());
 		} catch (SQLException ex) {
-			showErrorDialog("Failed to display filtered results.");
-			ex.printStackTrace();
+			reportFailure(context, "Failed to display filtered results.", ex);
 		}
+		return rowCount;
 	}
 
 	/**
-	 * Displays an error dialog with the given message.
+	 * Displays the customers matching a filter using the bitmap and tenure
+	 * indexes of the in-memory snapshot.
+	 * 
+	 * @param context     The background task the filter runs in.
+	 * @param index       The indexes to evaluate the filter with.
+	 * @param filterType  The type of filter to apply.
+	 * @param filterValue The value entered for the filter.
+	 */
+	private void displayIndexedFilterResults(QueryExecutor.QueryContext context, FilterIndex index,
+			String filterType, String filterValue) {
+		StringBuilder resultBuilder = new StringBuilder();
+		int[] rowCount = { 0 };
+		long start = System.nanoTime();
+		try {
+			long[] matches = index.evaluate(filterType, filterValue);
+			queryMetrics.record("filter/index/" + filterType, System.nanoTime() - start, FilterIndex.count(matches),
+					null);
+			FilterIndex.forEachRow(matches, row -> {
+				resultBuilder.append("Customer ID: ").append(index.getCustomerID(row)).append("\n");
+				resultBuilder.append("\n"); // Add a newline between rows
+				if (++rowCount[0] % ROWS_PER_FLUSH == 0) {
+					appendResult(context, resultBuilder.toString());
+					resultBuilder.setLength(0);
+				}
+			});
+			appendResult(context, resultBuilder.toString());
+		} catch (IllegalArgumentException ex) {
+			queryMetrics.record("filter/index/" + filterType, System.nanoTime() - start, 0, ex);
+			reportFailure(context, "Failed to apply filter.", ex);
+		}
+	}
+
+	/**
+	 * Displays the customers of the snapshot file matching a filter.
+	 * 
+	 * @param context     The background task the filter runs in.
+	 * @param file        The snapshot file.
+	 * @param filterType  The type of filter to apply.
+	 * @param filterValue The value entered for the filter.
+	 */
+	private void displayFileFilterResults(QueryExecutor.QueryContext context, SnapshotFile file, String filterType,
+			String filterValue) {
+		StringBuilder resultBuilder = new StringBuilder();
+		int[] rowCount = { 0 };
+		long start = System.nanoTime();
+		try {
+			file.forEachMatch(filterType, filterValue, row -> {
+				resultBuilder.append("Customer ID: ").append(file.getCustomerID(row)).append("\n");
+				resultBuilder.append("\n"); // Add a newline between rows
+				if (++rowCount[0] % ROWS_PER_FLUSH == 0) {
+					appendResult(context, resultBuilder.toString());
+					resultBuilder.setLength(0);
+				}
+			});
+			queryMetrics.record("filter/file/" + filterType, System.nanoTime() - start, rowCount[0], null);
+			appendResult(context, resultBuilder.toString());
+		} catch (IllegalArgumentException ex) {
+			queryMetrics.record("filter/file/" + filterType, System.nanoTime() - start, 0, ex);
+			reportFailure(context, "Failed to apply filter.", ex);
+		}
+	}
+
+	/**
+	 * Displays an error dialog with the given message. May be called from any
+	 * thread; the dialog is always shown on the event dispatch thread.
 	 * 
 	 * @param message The error message to display.
 	 */
 	private void showErrorDialog(String message) {
+		if (!SwingUtilities.isEventDispatchThread()) {
+			SwingUtilities.invokeLater(() -> showErrorDialog(message));
+			return;
+		}
 		JOptionPane.showMessageDialog(this, message, "Error", JOptionPane.ERROR_MESSAGE);
 	}
 
 	// Individual statistics
-	// Method to calculate customer lifetime value
-	private void calculateCLV(String searchTerm) {
-	    // Check if searchTerm is empty, if so, return without executing the method
-	    if (searchTerm.isEmpty()) {
-	        return;
-	    }
-
-	    // Fetch MonthlyCharges from 'service' table and tenure from 'customer' table
-	    String query_charge = "SELECT MonthlyCharges FROM MonthlyCharges WHERE customerID = ?";
-	    String query_tenure = "SELECT tenure FROM Customer WHERE customerID = ?";
-	    double averageMonthlyCharges = 0;
-	    int tenure = 0;
-
-	    try (PreparedStatement serviceStatement = connection.prepareStatement(query_charge)) {
-	        serviceStatement.setString(1, searchTerm);
-	        try (ResultSet serviceResultSet = serviceStatement.executeQuery()) {
-	            if (serviceResultSet.next()) {
-	                averageMonthlyCharges = serviceResultSet.getDouble("MonthlyCharges");
-	            }
-	        }
-	    } catch (SQLException e) {
-	        showErrorDialog("Failed to fetch MonthlyCharges.");
-	        e.printStackTrace();
-	    }
-
-	    try (PreparedStatement customerStatement = connection.prepareStatement(query_tenure)) {
-	        customerStatement.setString(1, searchTerm);
-	        try (ResultSet customerResultSet = customerStatement.executeQuery()) {
-	            if (customerResultSet.next()) {
-	                tenure = customerResultSet.getInt("tenure");
-	            }
-	        }
-	    } catch (SQLException e) {
-	        showErrorDialog("Failed to fetch tenure.");
-	        e.printStackTrace();
-	    }
-
-	    // Insert CLV into the InsightsStatistics table if not already present
-	    if (!isStatisticAlreadyPresent(searchTerm, "Customer Lifetime Value")) {
-	        String insertCLVQuery = "INSERT INTO InsightsStatistics (customerID, statisticName, statisticValue) VALUES (?, ?, ?)";
-	        try (PreparedStatement preparedStatement = connection.prepareStatement(insertCLVQuery)) {
-	            preparedStatement.setString(1, searchTerm);
-	            preparedStatement.setString(2, "Customer Lifetime Value");
-	            preparedStatement.setDouble(3, averageMonthlyCharges * tenure);
-	            preparedStatement.executeUpdate();
-	        } catch (SQLException e) {
-	            showErrorDialog("Failed to insert CLV into the InsightsStatistics table.");
-	            e.printStackTrace();
-	        }
-	    }
-	}
-
-	// Method to determine discount eligibility
-	private void isDiscountEligible(String searchTerm) {
-	    // Check if searchTerm is empty, if so, return without executing the method
-	    if (searchTerm.isEmpty()) {
-	        return;
-	    }
-
-	    // Fetch tenure from 'customer' table
-	    int tenure = 0;
-	    try (PreparedStatement customerStatement = connection.prepareStatement("SELECT tenure FROM Customer WHERE customerID = ?")) {
-	        customerStatement.setString(1, searchTerm);
-	        try (ResultSet customerResultSet = customerStatement.executeQuery()) {
-	            if (customerResultSet.next()) {
-	                tenure = customerResultSet.getInt("tenure");
-	            }
-	        }
-	    } catch (SQLException e) {
-	        showErrorDialog("Failed to fetch tenure.");
-	        e.printStackTrace();
-	    }
-
-	    // Determine discount eligibility based on tenure
-	    boolean eligible = tenure >= 12;
-	    String discountEligibility = eligible ? "Yes" : "No";
-
-	    // Insert discount eligibility into the InsightsStatistics table if not already present
-	    if (!isStatisticAlreadyPresent(searchTerm, "Discount Eligibility")) {
-	        String insertDiscountQuery = "INSERT INTO InsightsStatistics (customerID, statisticName, statisticValue) VALUES (?, ?, ?)";
-	        try (PreparedStatement preparedStatement = connection.prepareStatement(insertDiscountQuery)) {
-	            preparedStatement.setString(1, searchTerm);
-	            preparedStatement.setString(2, "Discount Eligibility");
-	            preparedStatement.setString(3, discountEligibility);
-	            preparedStatement.executeUpdate();
-	        } catch (SQLException e) {
-	            showErrorDialog("Failed to insert discount eligibility into the InsightsStatistics table.");
-	            e.printStackTrace();
-	        }
-	    }
-	}
-
-	/**
-	 * Calculates the number of services subscribed by the customer and inserts it
-	 * into the InsightsStatistics table if not already present.
-	 * 
-	 * @param searchTerm The ID of the customer to retrieve services for.
-	 */
-	private void calculateNumberOfServices(String searchTerm) {
-	    // Check if searchTerm is empty, if so, return without executing the method
-	    if (searchTerm.isEmpty()) {
-	        return;
-	    }
-
-	    // Fetch services from 'service' table
-	    int numberOfServices = 0;
-	    try (PreparedStatement serviceStatement = connection.prepareStatement(
-	            "SELECT PhoneService, MultipleLines, InternetService, OnlineSecurity, OnlineBackup, DeviceProtection, TechSupport, StreamingTV, StreamingMovies FROM Service WHERE customerID = ?")) {
-	        serviceStatement.setString(1, searchTerm);
-	        try (ResultSet serviceResultSet = serviceStatement.executeQuery()) {
-	            while (serviceResultSet.next()) {
-	                String[] services = { serviceResultSet.getString("PhoneService"),
-	                        serviceResultSet.getString("MultipleLines"), serviceResultSet.getString("InternetService"),
-	                        serviceResultSet.getString("OnlineSecurity"), serviceResultSet.getString("OnlineBackup"),
-	                        serviceResultSet.getString("DeviceProtection"), serviceResultSet.getString("TechSupport"),
-	                        serviceResultSet.getString("StreamingTV"), serviceResultSet.getString("StreamingMovies") };
-	                numberOfServices += calculateNumberOfNonNoServices(services);
-	            }
-	        }
-	    } catch (SQLException e) {
-	        showErrorDialog("Failed to fetch services.");
-	        e.printStackTrace();
-	    }
-
-	    // Insert the number of services into the InsightsStatistics table if not already present
-	    if (!isStatisticAlreadyPresent(searchTerm, "Number of Services")) {
-	        String insertNumberOfServicesQuery = "INSERT INTO InsightsStatistics (customerID, statisticName, statisticValue) VALUES (?, ?, ?)";
-	        try (PreparedStatement preparedStatement = connection.prepareStatement(insertNumberOfServicesQuery)) {
-	            preparedStatement.setString(1, searchTerm);
-	            preparedStatement.setString(2, "Number of Services");
-	            preparedStatement.setString(3, String.valueOf(numberOfServices));
-	            preparedStatement.executeUpdate();
-	        } catch (SQLException e) {
-	            showErrorDialog("Failed to insert the number of services into the InsightsStatistics table.");
-	            e.printStackTrace();
-	        }
-	    }
-	}
-
-	/**
-	 * Calculates the number of non-'No' services subscribed by the customer.
+	/**
+	 * Calculates the customer lifetime value, discount eligibility and number
+	 * of services of the customer and upserts them into the InsightsStatistics
+	 * table, refreshing values that changed since they were last stored.
 	 * 
-	 * @param services An array containing the service subscriptions.
-	 * @return The number of non-'No' services.
+	 * @param context    The background task the queries run in.
+	 * @param searchTerm The ID of the customer to calculate statistics for.
 	 */
-	private int calculateNumberOfNonNoServices(String[] services) {
-		int numberOfNonNoServices = 0;
-		for (String service : services) {
-			if (!service.equalsIgnoreCase("No") && !service.equalsIgnoreCase("No phone service")) {
-				numberOfNonNoServices++;
+	private void storeCustomerStatistics(QueryExecutor.QueryContext context, String searchTerm) {
+		// Check if searchTerm is empty, if so, return without executing the method
+		if (searchTerm.isEmpty()) {
+			return;
+		}
+
+		// Fetch tenure, charges and services in one query
+		CustomerStatistics statistics = null;
+		try (PreparedStatement lookupStatement = prepare(context, "statistics/lookup", CustomerStatistics.LOOKUP_QUERY)) {
+			lookupStatement.setString(1, searchTerm);
+			try (ResultSet lookupResultSet = lookupStatement.executeQuery()) {
+				if (lookupResultSet.next()) {
+					queryMetrics.addRows("statistics/lookup", 1);
+					statistics = CustomerStatistics.fromResultSet(lookupResultSet);
+				}
 			}
+		} catch (SQLException e) {
+			reportFailure(context, "Failed to fetch customer statistics.", e);
+			return;
+		}
+		if (statistics == null) {
+			return;
+		}
+
+		// Unchanged statistics were already written by an earlier search
+		if (recordCache.updateStatistics(statistics)) {
+			return;
+		}
+
+		// Upsert the statistics into the InsightsStatistics table in one batch
+		try (PreparedStatement upsertStatement = prepare(context, "statistics/upsert", CustomerStatistics.UPSERT_QUERY)) {
+			statistics.addTo(upsertStatement);
+			upsertStatement.executeBatch();
+		} catch (SQLException e) {
+			// Forget the statistics so the next search writes them again
+			recordCache.invalidate(searchTerm);
+			reportFailure(context, "Failed to store statistics in the InsightsStatistics table.", e);
 		}
-		return numberOfNonNoServices;
 	}
 
 	// Churn Analysis
 	/**
-	 * Calculates the percentage of customers who churned.
+	 * Calculates the percentage of customers who churned. The counts are read
+	 * from the ChurnSummary table, which triggers on MonthlyCharges keep
+	 * current, instead of scanning MonthlyCharges on every search.
+	 * 
+	 * @param context The background task the query runs in.
 	 */
-	private void calculateChurnPercentage() {
+	private void calculateChurnPercentage(QueryExecutor.QueryContext context) {
 		double churnPercentage = 0;
+		if (useMemoryEngine && snapshot.isLoaded()) {
+			churnPercentage = snapshot.getChurnPercentage();
+			churnAnalysisResult = "Churned Customer (%): \n" + churnPercentage + "%\n";
+			return;
+		}
 		try {
-			String query = "SELECT COUNT(*) AS totalCustomers, SUM(CASE WHEN Churn = 'Yes' THEN 1 ELSE 0 END) AS churnedCustomers FROM MonthlyCharges";
-			try (PreparedStatement preparedStatement = connection.prepareStatement(query)) {
+			String query = CustomerStatistics.CHURN_SUMMARY_QUERY;
+			try (PreparedStatement preparedStatement = prepare(context, "churn/summary", query)) {
 				try (ResultSet resultSet = preparedStatement.executeQuery()) {
 					if (resultSet.next()) {
 						int totalCustomers = resultSet.getInt("totalCustomers");
@@ -577,77 +1094,168 @@ public class ChurnCustomerApplication extends JFrame {
 				}
 			}
 		} catch (SQLException e) {
-			showErrorDialog("Failed to calculate churn percentage.");
+			reportFailure(context, "Failed to calculate churn percentage.", e);
+		}
+
+	}
+
+	/**
+	 * Writes the loaded snapshot to the snapshot file, if one is configured,
+	 * so the next start can serve it before connecting. A failed export is
+	 * reported but does not affect the loaded snapshot.
+	 */
+	private void exportSnapshot() {
+		if (snapshotFilePath == null) {
+			return;
+		}
+		long start = System.nanoTime();
+		try {
+			SnapshotFile.write(snapshot, Paths.get(snapshotFilePath));
+			queryMetrics.record("snapshot/file/export", System.nanoTime() - start, snapshot.getRowCount(), null);
+		} catch (IOException e) {
+			queryMetrics.record("snapshot/file/export", System.nanoTime() - start, 0, e);
+			showErrorDialog("Failed to write the snapshot file " + snapshotFilePath + ".");
 			e.printStackTrace();
 		}
+	}
 
+	/**
+	 * Asks for a file and exports every customer with its insights statistics
+	 * to it in the background: as CSV if the name ends in .csv, in the
+	 * compressed columnar format otherwise.
+	 */
+	private void exportCustomers() {
+		JFileChooser chooser = new JFileChooser();
+		chooser.setSelectedFile(new File("customers.csv"));
+		if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+			return;
+		}
+		Path path = chooser.getSelectedFile().toPath();
+		CustomerExport.Format format = CustomerExport.formatOf(path);
+		exportButton.setEnabled(false);
+		exportButton.setText("Exporting...");
+		// The export streams every customer, so it gets its own thread rather than holding a
+		// query worker or a background worker for as long as it runs
+		Thread exportThread = new Thread(() -> {
+			String name = "export/" + format.name().toLowerCase();
+			long start = System.nanoTime();
+			try {
+				long rows = new CustomerExport(connectionPool, format, 4096).run(path);
+				queryMetrics.record(name, System.nanoTime() - start, rows, null);
+				SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(this,
+						String.format("Exported %d customers to %s.", rows, path), "Export",
+						JOptionPane.INFORMATION_MESSAGE));
+			} catch (SQLException | IOException e) {
+				queryMetrics.record(name, System.nanoTime() - start, 0, e);
+				showErrorDialog("Failed to export customers to " + path + ".");
+				e.printStackTrace();
+			} finally {
+				SwingUtilities.invokeLater(() -> {
+					exportButton.setText("Export...");
+					exportButton.setEnabled(true);
+				});
+			}
+		}, "customer-export");
+		exportThread.setDaemon(true);
+		exportThread.start();
+	}
+
+	/**
+	 * Displays churn broken down by cohort. The cohorts are computed from the
+	 * in-memory snapshot, which is loaded first if needed and reloaded if the
+	 * change version shows that CustomerProfile has changed since it was
+	 * loaded.
+	 * The result is reused until the snapshot changes.
+	 * 
+	 * @param context The background task the cohorts are computed in.
+	 */
+	private void displayCohorts(QueryExecutor.QueryContext context) {
+		try {
+			boolean current = false;
+			try (PreparedStatement preparedStatement = prepare(context, "snapshot/version",
+					ColumnarSnapshot.CHANGE_VERSION_QUERY)) {
+				try (ResultSet resultSet = preparedStatement.executeQuery()) {
+					if (resultSet.next()) {
+						current = snapshot.isCurrent(resultSet.getLong(1));
+					}
+				}
+			}
+			if (!current) {
+				loadSnapshot(context);
+			}
+		} catch (SQLException e) {
+			reportFailure(context, "Failed to load the data for the cohorts.", e);
+			return;
+		}
+
+		CohortAnalytics cohorts = cohortAnalytics;
+		if (cohorts == null || !cohorts.isComputedFrom(snapshot)) {
+			long start = System.nanoTime();
+			cohorts = CohortAnalytics.compute(snapshot);
+			queryMetrics.record("cohorts/compute", System.nanoTime() - start, snapshot.getRowCount(), null);
+			cohortAnalytics = cohorts;
+		}
+		appendResult(context, cohorts.format());
 	}
 
 	/**
 	 * Displays insights statistics for the given customer.
 	 * 
+	 * @param context    The background task the query runs in.
 	 * @param searchTerm The customer ID for which insights statistics are
 	 *                   displayed.
 	 */
-	private void displayInsightsStatistics(String searchTerm) {
+	private void displayInsightsStatistics(QueryExecutor.QueryContext context, String searchTerm) {
 		StringBuilder resultBuilder = new StringBuilder("Insights Statistics:\n");
 		// Check if searchTerm is empty, if so, return without executing the method
 		if (searchTerm.isEmpty()) {
 			return;
 		}
 
+		// The churn percentage is global, so only the customer's statistics are cached
+		String cached = recordCache.get(searchTerm, "InsightsStatistics");
+		if (cached != null) {
+			appendResult(context, cached + churnAnalysisResult);
+			return;
+		}
+
 		// Query to retrieve insights statistics for the given customer
 		String query = "SELECT * FROM InsightsStatistics WHERE customerID = ?";
 
-		try (PreparedStatement insightStatement = connection.prepareStatement(query)) {
+		try (PreparedStatement insightStatement = prepare(context, "search/InsightsStatistics", query)) {
 			insightStatement.setString(1, searchTerm);
 			try (ResultSet statsResultSet = insightStatement.executeQuery()) {
+				int rowCount = 0;
 				while (statsResultSet.next()) {
+					rowCount++;
 					resultBuilder.append("Customer ID: ").append(statsResultSet.getString("customerID")).append("\n");
 					resultBuilder.append("Statistics Name: ").append(statsResultSet.getString("statisticName"))
 							.append("\n");
 					resultBuilder.append("Statistics Value: ").append(statsResultSet.getString("statisticValue"))
 							.append("\n\n");
 				}
+				queryMetrics.addRows("search/InsightsStatistics", rowCount);
+			}
+			if (!context.isCancelled()) {
+				recordCache.put(searchTerm, "InsightsStatistics", resultBuilder.toString());
 			}
 			resultBuilder.append(churnAnalysisResult);
 		} catch (SQLException e) {
-			showErrorDialog("Failed to fetch insights statistics.");
-			e.printStackTrace();
+			reportFailure(context, "Failed to fetch insights statistics.", e);
 		}
-		resultArea.append(resultBuilder.toString());
+		appendResult(context, resultBuilder.toString());
 	}
-	
+
 	/**
-	 * Checks if a statistic with the given name already exists for the specified customer.
-	 * 
-	 * @param customerID     The ID of the customer.
-	 * @param statisticName  The name of the statistic to check.
-	 * @return               True if the statistic already exists, otherwise false.
-	 */
-	private boolean isStatisticAlreadyPresent(String customerID, String statisticName) {
-	    String query = "SELECT COUNT(*) AS count FROM InsightsStatistics WHERE customerID = ? AND statisticName = ?";
-	    try (PreparedStatement preparedStatement = connection.prepareStatement(query)) {
-	        preparedStatement.setString(1, customerID);
-	        preparedStatement.setString(2, statisticName);
-	        try (ResultSet resultSet = preparedStatement.executeQuery()) {
-	            if (resultSet.next()) {
-	                int count = resultSet.getInt("count");
-	                return count > 0;
-	            }
-	        }
-	    } catch (SQLException e) {
-	        showErrorDialog("Failed to check if statistic already exists.");
-	        e.printStackTrace();
-	    }
-	    return false;
-	}
-
-	/**
-	 * Main method
+	 * Main method. With --batch as the first argument, the remaining arguments
+	 * are handed to {@link ChurnBatch} and no window is created.
 	 * @param args
 	 */
 	public static void main(String[] args) {
+		if (args.length > 0 && args[0].equals("--batch")) {
+			ChurnBatch.main(Arrays.copyOfRange(args, 1, args.length));
+			return;
+		}
 		SwingUtilities.invokeLater(() -> {
 			ChurnCustomerApplication gui = new ChurnCustomerApplication();
 			gui.setVisible(true);
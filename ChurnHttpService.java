@@ -0,0 +1,341 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * ChurnHttpService exposes the customer search, the filters and the insights
+ * statistics of the application as JSON over HTTP on the local machine:
+ * <ul>
+ * <li>{@code GET /customers/<id>} returns the customer record with its
+ * statistics, like a search does.</li>
+ * <li>{@code GET /filter?type=<type>&value=<value>[&limit=n]} returns the IDs
+ * of the customers matching one of the filters of the application.</li>
+ * <li>{@code GET /insights/<id>} returns the stored InsightsStatistics of a
+ * customer and the churn percentage.</li>
+ * <li>{@code GET /metrics} returns the query metrics as text.</li>
+ * </ul>
+ * Requests are handled by a fixed pool of workers sharing a connection pool.
+ * At most {@code workers + queueCapacity} requests are accepted at a time;
+ * further requests are rejected at once with 503 and a Retry-After header
+ * instead of piling up, so the service stays responsive under load.
+ */
+public class ChurnHttpService {
+
+	/**
+	 * Handles an admitted request on a worker thread.
+	 */
+	private interface RequestHandler {
+		void handle(HttpExchange exchange) throws Exception;
+	}
+
+	// Largest number of customer IDs a filter returns
+	private static final int MAX_FILTER_LIMIT = 10_000;
+	private static final int DEFAULT_FILTER_LIMIT = 1000;
+	private static final int QUERY_TIMEOUT_SECONDS = 10;
+
+	private final ConnectionPool pool;
+	private final QueryMetrics metrics;
+	private final HttpServer server;
+	private final ExecutorService workers;
+	private final Semaphore admitted;
+
+	/**
+	 * Creates a new ChurnHttpService. The service does not accept requests
+	 * until {@link #start()} is called.
+	 *
+	 * @param pool          The pool to borrow connections from. It should allow
+	 *                      as many connections as there are workers.
+	 * @param metrics       The metrics requests and queries are recorded in.
+	 * @param port          The local port to listen on.
+	 * @param workerCount   The number of threads handling requests.
+	 * @param queueCapacity The number of accepted requests that may wait for a
+	 *                      worker.
+	 * @throws IOException If the port cannot be bound.
+	 */
+	public ChurnHttpService(ConnectionPool pool, QueryMetrics metrics, int port, int workerCount, int queueCapacity)
+			throws IOException {
+		this.pool = pool;
+		this.metrics = metrics;
+		this.admitted = new Semaphore(workerCount + queueCapacity);
+		AtomicInteger counter = new AtomicInteger();
+		this.workers = new ThreadPoolExecutor(workerCount, workerCount, 30, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<>(), runnable -> {
+					Thread thread = new Thread(runnable, "http-worker-" + counter.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				});
+		((ThreadPoolExecutor) workers).allowCoreThreadTimeOut(true);
+		this.server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+		server.createContext("/customers/", admit("http/customers", this::handleCustomer));
+		server.createContext("/filter", admit("http/filter", this::handleFilter));
+		server.createContext("/insights/", admit("http/insights", this::handleInsights));
+		server.createContext("/metrics", admit("http/metrics", exchange -> respond(exchange, 200,
+				"text/plain; charset=utf-8", metrics.format())));
+	}
+
+	/**
+	 * Starts accepting requests.
+	 */
+	public void start() {
+		server.start();
+	}
+
+	/**
+	 * Stops accepting requests, waiting up to a second for running requests.
+	 */
+	public void stop() {
+		server.stop(1);
+		workers.shutdownNow();
+	}
+
+	/**
+	 * @return The port the service listens on.
+	 */
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * Wraps a handler so it runs on a worker if the service has capacity left,
+	 * and is rejected with 503 on the accepting thread otherwise. The exchange
+	 * is completed by the worker after the wrapper returns.
+	 */
+	private HttpHandler admit(String name, RequestHandler handler) {
+		return exchange -> {
+			if (!admitted.tryAcquire()) {
+				metrics.record(name + "/rejected", 0, 0, null);
+				exchange.getResponseHeaders().set("Retry-After", "1");
+				respond(exchange, 503, "application/json", "{\"error\": \"Too many requests\"}");
+				return;
+			}
+			workers.execute(() -> {
+				long start = System.nanoTime();
+				Exception failure = null;
+				try {
+					if (!exchange.getRequestMethod().equals("GET")) {
+						respond(exchange, 405, "application/json", "{\"error\": \"Only GET is supported\"}");
+					} else {
+						handler.handle(exchange);
+					}
+				} catch (Exception e) {
+					failure = e;
+					handleFailure(exchange, e);
+				} finally {
+					admitted.release();
+					exchange.close();
+					metrics.record(name, System.nanoTime() - start, 0, failure);
+				}
+			});
+		};
+	}
+
+	private void handleFailure(HttpExchange exchange, Exception e) {
+		int status = e instanceof IllegalArgumentException ? 400 : 500;
+		if (status == 500) {
+			System.err.println("Failed to handle " + exchange.getRequestURI());
+			e.printStackTrace();
+		}
+		try {
+			respond(exchange, status, "application/json", "{\"error\": " + json(e.getMessage()) + "}");
+		} catch (IOException ex) {
+			// The client has gone away
+		}
+	}
+
+	private void handleCustomer(HttpExchange exchange) throws IOException, SQLException {
+		String customerID = pathParameter(exchange, "/customers/");
+		List<String[]> records;
+		try (Connection connection = pool.getConnection()) {
+			records = ChurnBatch.lookUp(connection, Collections.singletonList(customerID), false,
+					QUERY_TIMEOUT_SECONDS);
+		}
+		if (records.isEmpty()) {
+			respond(exchange, 404, "application/json", "{\"error\": \"Customer not found\"}");
+			return;
+		}
+		StringWriter body = new StringWriter();
+		ChurnBatch.writeJson(body, records.get(0));
+		respond(exchange, 200, "application/json", body.toString().trim());
+	}
+
+	private void handleFilter(HttpExchange exchange) throws IOException, SQLException {
+		Map<String, String> parameters = queryParameters(exchange);
+		String filterType = parameters.get("type");
+		String filterValue = parameters.get("value");
+		if (filterType == null || filterValue == null) {
+			throw new IllegalArgumentException("The type and value parameters are required.");
+		}
+		int limit = Math.max(1, Math.min(MAX_FILTER_LIMIT,
+				Integer.parseInt(parameters.getOrDefault("limit", String.valueOf(DEFAULT_FILTER_LIMIT)))));
+
+		String query = ChurnBatch.filterQuery(filterType);
+
+		StringWriter body = new StringWriter();
+		body.write("{\"type\": " + json(filterType) + ", \"value\": " + json(filterValue) + ", \"customerIDs\": [");
+		int count = 0;
+		try (Connection connection = pool.getConnection();
+				PreparedStatement statement = metrics.instrument("http/filter/" + filterType,
+						connection.prepareStatement(query))) {
+			statement.setQueryTimeout(QUERY_TIMEOUT_SECONDS);
+			statement.setMaxRows(limit + 1);
+			statement.setString(1, filterValue);
+			try (ResultSet resultSet = statement.executeQuery()) {
+				while (count < limit && resultSet.next()) {
+					body.write(count++ == 0 ? "" : ", ");
+					ChurnBatch.writeJsonString(body, resultSet.getString("customerID"));
+				}
+				body.write("], \"truncated\": " + resultSet.next() + "}");
+			}
+			metrics.addRows("http/filter/" + filterType, count);
+		}
+		respond(exchange, 200, "application/json", body.toString());
+	}
+
+	private void handleInsights(HttpExchange exchange) throws IOException, SQLException {
+		String customerID = pathParameter(exchange, "/insights/");
+		StringWriter body = new StringWriter();
+		body.write("{\"customerID\": " + json(customerID) + ", \"statistics\": {");
+		try (Connection connection = pool.getConnection()) {
+			try (PreparedStatement statement = metrics.instrument("http/insights/statistics", connection
+					.prepareStatement("SELECT statisticName, statisticValue FROM InsightsStatistics WHERE customerID = ?"))) {
+				statement.setQueryTimeout(QUERY_TIMEOUT_SECONDS);
+				statement.setString(1, customerID);
+				try (ResultSet resultSet = statement.executeQuery()) {
+					int rowCount = 0;
+					while (resultSet.next()) {
+						body.write(rowCount++ == 0 ? "" : ", ");
+						ChurnBatch.writeJsonString(body, resultSet.getString("statisticName"));
+						body.write(": ");
+						ChurnBatch.writeJsonString(body, resultSet.getString("statisticValue"));
+					}
+					metrics.addRows("http/insights/statistics", rowCount);
+				}
+			}
+			body.write("}");
+			try (PreparedStatement statement = metrics.instrument("http/insights/churn", connection
+					.prepareStatement(CustomerStatistics.CHURN_SUMMARY_QUERY))) {
+				statement.setQueryTimeout(QUERY_TIMEOUT_SECONDS);
+				try (ResultSet resultSet = statement.executeQuery()) {
+					if (resultSet.next()) {
+						body.write(", \"churnPercentage\": "
+								+ (double) resultSet.getInt("churnedCustomers") / resultSet.getInt("totalCustomers") * 100);
+					}
+				}
+			}
+		}
+		body.write("}");
+		respond(exchange, 200, "application/json", body.toString());
+	}
+
+	private static String pathParameter(HttpExchange exchange, String prefix) {
+		String value = URLDecoder.decode(exchange.getRequestURI().getRawPath().substring(prefix.length()),
+				StandardCharsets.UTF_8);
+		if (value.isEmpty() || value.contains("/")) {
+			throw new IllegalArgumentException("Expected " + prefix + "<customer ID>");
+		}
+		return value;
+	}
+
+	private static Map<String, String> queryParameters(HttpExchange exchange) {
+		Map<String, String> parameters = new HashMap<>();
+		String query = exchange.getRequestURI().getRawQuery();
+		if (query == null) {
+			return parameters;
+		}
+		for (String parameter : query.split("&")) {
+			int separator = parameter.indexOf('=');
+			if (separator > 0) {
+				parameters.put(URLDecoder.decode(parameter.substring(0, separator), StandardCharsets.UTF_8),
+						URLDecoder.decode(parameter.substring(separator + 1), StandardCharsets.UTF_8));
+			}
+		}
+		return parameters;
+	}
+
+	private static String json(String value) {
+		StringWriter writer = new StringWriter();
+		try {
+			ChurnBatch.writeJsonString(writer, value);
+		} catch (IOException e) {
+			// StringWriter does not throw
+		}
+		return writer.toString();
+	}
+
+	private static void respond(HttpExchange exchange, int status, String contentType, String body)
+			throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", contentType);
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream output = exchange.getResponseBody()) {
+			output.write(bytes);
+		}
+	}
+
+	/**
+	 * Runs the service until the process is stopped. Options: --port N
+	 * (default 8080), --workers N (default 16) and --queue N (default 256).
+	 *
+	 * @param args The command line options.
+	 */
+	public static void main(String[] args) {
+		System.setProperty("java.awt.headless", "true");
+		int port = 8080;
+		int workerCount = 16;
+		int queueCapacity = 256;
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			switch (args[i]) {
+			case "--port":
+				port = Integer.parseInt(args[i + 1]);
+				break;
+			case "--workers":
+				workerCount = Integer.parseInt(args[i + 1]);
+				break;
+			case "--queue":
+				queueCapacity = Integer.parseInt(args[i + 1]);
+				break;
+			default:
+				System.err.println("Unknown option: " + args[i]);
+				System.exit(2);
+			}
+		}
+
+		ConnectionPool pool = ConnectionPool.createDefault(1, workerCount, 60_000);
+		try {
+			ChurnHttpService service = new ChurnHttpService(pool, new QueryMetrics(), port, workerCount,
+					queueCapacity);
+			Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+				service.stop();
+				pool.close();
+			}));
+			service.start();
+			System.out.println("Listening on http://localhost:" + service.getPort());
+		} catch (IOException e) {
+			System.err.println("Failed to start the HTTP service on port " + port);
+			e.printStackTrace();
+			pool.close();
+			System.exit(1);
+		}
+	}
+}
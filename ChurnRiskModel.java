@@ -0,0 +1,491 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * ChurnRiskModel is a logistic regression model of the probability that a
+ * customer churns, trained on the labelled Churn column of a
+ * {@link ColumnarSnapshot}.
+ * <p>
+ * The features are read straight from the primitive columns of the
+ * snapshot: senior citizen status, tenure, monthly and total charges
+ * (standardized), and every categorical column except Churn with one weight
+ * per dictionary code, so no feature matrix is built. Training runs
+ * mini-batch gradient descent; the gradient of each batch is summed in
+ * parallel by fork/join tasks. Scoring works a block of rows at a time and a
+ * feature column at a time, so the inner loops run over plain arrays.
+ * <p>
+ * {@link #main(String[])} trains the model on the churn database, scores
+ * every customer and upserts the scores into InsightsStatistics.
+ */
+public class ChurnRiskModel {
+
+	// Numeric features, in the order of their weights after the bias
+	private static final int SENIOR_CITIZEN = 0;
+	private static final int TENURE = 1;
+	private static final int MONTHLY_CHARGES = 2;
+	private static final int TOTAL_CHARGES = 3;
+	private static final int NUMERIC_FEATURES = 4;
+
+	// Rows whose gradient or score is computed by one task without splitting further
+	private static final int SPLIT_THRESHOLD = 2048;
+	// Rows scored together, one feature column at a time
+	private static final int SCORE_BLOCK = 4096;
+	// Penalty on the weights, keeping rare categories from growing large weights
+	private static final double L2_PENALTY = 1e-4;
+
+	private final ColumnarSnapshot.Columns data;
+	private final double[] means = new double[NUMERIC_FEATURES];
+	private final double[] scales = new double[NUMERIC_FEATURES];
+	// Index of the first weight of each categorical column, -1 for Churn
+	private final int[] offsets;
+	// Bias, numeric weights, then one weight per code of each categorical column
+	private final double[] weights;
+
+	private ChurnRiskModel(ColumnarSnapshot.Columns data) {
+		this.data = data;
+		offsets = new int[data.categories.length];
+		int weightCount = 1 + NUMERIC_FEATURES;
+		for (int column = 0; column < offsets.length; column++) {
+			if (column == ColumnarSnapshot.CHURN) {
+				offsets[column] = -1;
+			} else {
+				offsets[column] = weightCount;
+				weightCount += data.dictionaries[column].size();
+			}
+		}
+		weights = new double[weightCount];
+	}
+
+	/**
+	 * Trains a model on the customers of a snapshot that have a Churn value.
+	 *
+	 * @param snapshot     A loaded snapshot.
+	 * @param epochs       The number of passes over the labelled customers.
+	 * @param batchSize    The number of customers per gradient step.
+	 * @param learningRate The step size of gradient descent.
+	 * @param seed         The seed of the shuffling of the customers.
+	 * @return The trained model.
+	 * @throws IllegalStateException If no customer has a Churn value.
+	 */
+	public static ChurnRiskModel train(ColumnarSnapshot snapshot, int epochs, int batchSize, double learningRate,
+			long seed) {
+		ChurnRiskModel model = new ChurnRiskModel(snapshot.getColumns());
+		int[] labelled = model.labelledRows();
+		if (labelled.length == 0) {
+			throw new IllegalStateException("No customer has a Churn value to train on.");
+		}
+		model.standardize(labelled);
+
+		SplittableRandom random = new SplittableRandom(seed);
+		ForkJoinPool pool = ForkJoinPool.commonPool();
+		for (int epoch = 0; epoch < epochs; epoch++) {
+			// Fisher-Yates shuffle so every batch is a random sample
+			for (int i = labelled.length - 1; i > 0; i--) {
+				int j = random.nextInt(i + 1);
+				int swap = labelled[i];
+				labelled[i] = labelled[j];
+				labelled[j] = swap;
+			}
+			for (int from = 0; from < labelled.length; from += batchSize) {
+				int to = Math.min(labelled.length, from + batchSize);
+				double[] gradient = pool.invoke(model.new Gradient(labelled, from, to));
+				double step = learningRate / (to - from);
+				for (int weight = 0; weight < model.weights.length; weight++) {
+					double penalty = weight == 0 ? 0 : L2_PENALTY * model.weights[weight];
+					model.weights[weight] -= step * gradient[weight] + learningRate * penalty;
+				}
+			}
+		}
+		return model;
+	}
+
+	private int[] labelledRows() {
+		byte[] churn = data.categories[ColumnarSnapshot.CHURN];
+		int count = 0;
+		for (int row = 0; row < data.rowCount; row++) {
+			if (churn[row] != 0) {
+				count++;
+			}
+		}
+		int[] rows = new int[count];
+		count = 0;
+		for (int row = 0; row < data.rowCount; row++) {
+			if (churn[row] != 0) {
+				rows[count++] = row;
+			}
+		}
+		return rows;
+	}
+
+	/**
+	 * Computes the mean and standard deviation of the numeric features over
+	 * the labelled customers.
+	 */
+	private void standardize(int[] rows) {
+		double[] sums = new double[NUMERIC_FEATURES];
+		double[] squares = new double[NUMERIC_FEATURES];
+		for (int row : rows) {
+			for (int feature = 0; feature < NUMERIC_FEATURES; feature++) {
+				double value = rawFeature(feature, row);
+				sums[feature] += value;
+				squares[feature] += value * value;
+			}
+		}
+		for (int feature = 0; feature < NUMERIC_FEATURES; feature++) {
+			means[feature] = sums[feature] / rows.length;
+			double variance = squares[feature] / rows.length - means[feature] * means[feature];
+			scales[feature] = variance > 0 ? 1 / Math.sqrt(variance) : 0;
+		}
+	}
+
+	private double rawFeature(int feature, int row) {
+		switch (feature) {
+		case SENIOR_CITIZEN:
+			return data.seniorCitizen[row];
+		case TENURE:
+			return data.tenure[row];
+		case MONTHLY_CHARGES:
+			return data.monthlyCharges[row];
+		default:
+			return data.totalCharges[row];
+		}
+	}
+
+	/**
+	 * Sums the log-loss gradient of a range of a batch of rows, splitting it
+	 * while it is large.
+	 */
+	private final class Gradient extends RecursiveTask<double[]> {
+		private static final long serialVersionUID = 1L;
+
+		private final int[] rows;
+		private final int from;
+		private final int to;
+
+		Gradient(int[] rows, int from, int to) {
+			this.rows = rows;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected double[] compute() {
+			if (to - from > SPLIT_THRESHOLD) {
+				int middle = (from + to) >>> 1;
+				Gradient right = new Gradient(rows, middle, to);
+				right.fork();
+				double[] gradient = new Gradient(rows, from, middle).compute();
+				double[] other = right.join();
+				for (int weight = 0; weight < gradient.length; weight++) {
+					gradient[weight] += other[weight];
+				}
+				return gradient;
+			}
+			double[] gradient = new double[weights.length];
+			byte[] churn = data.categories[ColumnarSnapshot.CHURN];
+			for (int i = from; i < to; i++) {
+				int row = rows[i];
+				double error = score(row) - (churn[row] == data.churnYesCode ? 1 : 0);
+				gradient[0] += error;
+				for (int feature = 0; feature < NUMERIC_FEATURES; feature++) {
+					gradient[1 + feature] += error * (rawFeature(feature, row) - means[feature]) * scales[feature];
+				}
+				for (int column = 0; column < offsets.length; column++) {
+					if (offsets[column] >= 0) {
+						gradient[offsets[column] + data.categories[column][row]] += error;
+					}
+				}
+			}
+			return gradient;
+		}
+	}
+
+	/**
+	 * @param row A row of the snapshot the model was trained on.
+	 * @return The probability that the customer churns.
+	 */
+	public double score(int row) {
+		double logit = weights[0];
+		for (int feature = 0; feature < NUMERIC_FEATURES; feature++) {
+			logit += weights[1 + feature] * (rawFeature(feature, row) - means[feature]) * scales[feature];
+		}
+		for (int column = 0; column < offsets.length; column++) {
+			if (offsets[column] >= 0) {
+				logit += weights[offsets[column] + data.categories[column][row]];
+			}
+		}
+		return 1 / (1 + Math.exp(-logit));
+	}
+
+	/**
+	 * Scores every customer of the snapshot the model was trained on, in
+	 * parallel blocks of rows.
+	 *
+	 * @return The churn probability of each row.
+	 */
+	public double[] scoreAll() {
+		double[] scores = new double[data.rowCount];
+		ForkJoinPool.commonPool().invoke(new ScoreBlocks(scores, 0, data.rowCount));
+		return scores;
+	}
+
+	/**
+	 * Scores a range of rows, splitting it into blocks.
+	 */
+	private final class ScoreBlocks extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final double[] scores;
+		private final int from;
+		private final int to;
+
+		ScoreBlocks(double[] scores, int from, int to) {
+			this.scores = scores;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > SCORE_BLOCK) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new ScoreBlocks(scores, from, middle), new ScoreBlocks(scores, middle, to));
+				return;
+			}
+			// The logits are accumulated one feature column at a time over the block
+			double bias = weights[0];
+			for (int row = from; row < to; row++) {
+				scores[row] = bias;
+			}
+			addNumeric(SENIOR_CITIZEN, data.seniorCitizen);
+			addNumeric(TENURE, data.tenure);
+			addNumeric(MONTHLY_CHARGES, data.monthlyCharges);
+			addNumeric(TOTAL_CHARGES, data.totalCharges);
+			for (int column = 0; column < offsets.length; column++) {
+				if (offsets[column] >= 0) {
+					byte[] codes = data.categories[column];
+					int offset = offsets[column];
+					for (int row = from; row < to; row++) {
+						scores[row] += weights[offset + codes[row]];
+					}
+				}
+			}
+			for (int row = from; row < to; row++) {
+				scores[row] = 1 / (1 + Math.exp(-scores[row]));
+			}
+		}
+
+		private void addNumeric(int feature, byte[] values) {
+			double weight = weights[1 + feature] * scales[feature];
+			double shift = -means[feature] * weight;
+			for (int row = from; row < to; row++) {
+				scores[row] += values[row] * weight + shift;
+			}
+		}
+
+		private void addNumeric(int feature, int[] values) {
+			double weight = weights[1 + feature] * scales[feature];
+			double shift = -means[feature] * weight;
+			for (int row = from; row < to; row++) {
+				scores[row] += values[row] * weight + shift;
+			}
+		}
+
+		private void addNumeric(int feature, double[] values) {
+			double weight = weights[1 + feature] * scales[feature];
+			double shift = -means[feature] * weight;
+			for (int row = from; row < to; row++) {
+				scores[row] += values[row] * weight + shift;
+			}
+		}
+	}
+
+	/**
+	 * Measures how well scores predict the labelled customers.
+	 *
+	 * @param scores The scores returned by {@link #scoreAll()}.
+	 * @return The accuracy at a 0.5 threshold and the mean log loss.
+	 */
+	public double[] evaluate(double[] scores) {
+		byte[] churn = data.categories[ColumnarSnapshot.CHURN];
+		long labelled = 0;
+		long correct = 0;
+		double logLoss = 0;
+		for (int row = 0; row < data.rowCount; row++) {
+			if (churn[row] == 0) {
+				continue;
+			}
+			boolean churned = churn[row] == data.churnYesCode;
+			double probability = Math.min(Math.max(scores[row], 1e-15), 1 - 1e-15);
+			labelled++;
+			if (churned == probability >= 0.5) {
+				correct++;
+			}
+			logLoss -= Math.log(churned ? probability : 1 - probability);
+		}
+		return new double[] { (double) correct / labelled, logLoss / labelled };
+	}
+
+	/**
+	 * Upserts the scores as the churn risk statistic of every customer. The
+	 * rows are split between writer threads, each writing JDBC batches on its
+	 * own connection and committing every {@code commitInterval} customers.
+	 *
+	 * @param pool           The pool to borrow connections from. It must allow
+	 *                       at least {@code workerCount} connections.
+	 * @param scores         The scores returned by {@link #scoreAll()}.
+	 * @param workerCount    The number of writer threads.
+	 * @param batchSize      The number of customers per JDBC batch.
+	 * @param commitInterval The number of customers per transaction.
+	 * @throws SQLException If writing fails.
+	 */
+	public void store(ConnectionPool pool, double[] scores, int workerCount, int batchSize, int commitInterval)
+			throws SQLException {
+		ExecutorService workers = Executors.newFixedThreadPool(workerCount);
+		List<Future<?>> results = new ArrayList<>();
+		int share = (data.rowCount + workerCount - 1) / workerCount;
+		for (int i = 0; i < workerCount; i++) {
+			int from = i * share;
+			int to = Math.min(data.rowCount, from + share);
+			results.add(workers.submit(() -> {
+				storeRange(pool, scores, from, to, batchSize, commitInterval);
+				return null;
+			}));
+		}
+		try {
+			for (Future<?> result : results) {
+				result.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while storing churn risk scores.", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			throw cause instanceof SQLException ? (SQLException) cause
+					: new SQLException("Failed to store churn risk scores.", cause);
+		} finally {
+			workers.shutdownNow();
+		}
+	}
+
+	private void storeRange(ConnectionPool pool, double[] scores, int from, int to, int batchSize,
+			int commitInterval) throws SQLException {
+		try (Connection connection = pool.getConnection();
+				PreparedStatement upsertStatement = connection.prepareStatement(CustomerStatistics.UPSERT_QUERY)) {
+			connection.setAutoCommit(false);
+			int batched = 0;
+			int uncommitted = 0;
+			for (int row = from; row < to; row++) {
+				upsertStatement.setString(1, data.customerIDs[row]);
+				upsertStatement.setString(2, CustomerStatistics.CHURN_RISK);
+				upsertStatement.setString(3, String.format("%.4f", scores[row]));
+				upsertStatement.addBatch();
+				if (++batched == batchSize) {
+					upsertStatement.executeBatch();
+					batched = 0;
+				}
+				if (++uncommitted == commitInterval) {
+					if (batched > 0) {
+						upsertStatement.executeBatch();
+						batched = 0;
+					}
+					connection.commit();
+					uncommitted = 0;
+				}
+			}
+			if (batched > 0) {
+				upsertStatement.executeBatch();
+			}
+			connection.commit();
+		}
+	}
+
+	/**
+	 * Trains the model on the churn database, scores every customer and stores
+	 * the scores, reporting the time of each step. Options: --epochs N,
+	 * --batch-size N (customers per gradient step), --learning-rate X,
+	 * --workers N, --write-batch-size N, --commit-interval N.
+	 *
+	 * @param args The command line options.
+	 */
+	public static void main(String[] args) {
+		int epochs = 20;
+		int batchSize = 4096;
+		double learningRate = 0.5;
+		int workerCount = Runtime.getRuntime().availableProcessors();
+		int writeBatchSize = 500;
+		int commitInterval = 5000;
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			switch (args[i]) {
+			case "--epochs":
+				epochs = Integer.parseInt(args[i + 1]);
+				break;
+			case "--batch-size":
+				batchSize = Integer.parseInt(args[i + 1]);
+				break;
+			case "--learning-rate":
+				learningRate = Double.parseDouble(args[i + 1]);
+				break;
+			case "--workers":
+				workerCount = Integer.parseInt(args[i + 1]);
+				break;
+			case "--write-batch-size":
+				writeBatchSize = Integer.parseInt(args[i + 1]);
+				break;
+			case "--commit-interval":
+				commitInterval = Integer.parseInt(args[i + 1]);
+				break;
+			default:
+				System.err.println("Unknown option: " + args[i]);
+				System.exit(2);
+			}
+		}
+
+		ConnectionPool pool = ConnectionPool.createDefault(0, workerCount, Long.MAX_VALUE);
+		try {
+			ColumnarSnapshot snapshot = new ColumnarSnapshot();
+			long start = System.nanoTime();
+			try (Connection connection = pool.getConnection()) {
+				snapshot.refresh(connection);
+			}
+			printTime("Load", snapshot.getRowCount(), start);
+
+			start = System.nanoTime();
+			ChurnRiskModel model = train(snapshot, epochs, batchSize, learningRate, 42);
+			printTime("Train", snapshot.getRowCount(), start);
+
+			start = System.nanoTime();
+			double[] scores = model.scoreAll();
+			printTime("Score", scores.length, start);
+			double[] quality = model.evaluate(scores);
+			System.out.printf("Accuracy %.2f%%, log loss %.4f%n", quality[0] * 100, quality[1]);
+
+			start = System.nanoTime();
+			model.store(pool, scores, workerCount, writeBatchSize, commitInterval);
+			printTime("Store", scores.length, start);
+		} catch (SQLException | IllegalStateException e) {
+			System.err.println("Failed to score churn risk.");
+			e.printStackTrace();
+			System.exit(1);
+		} finally {
+			pool.close();
+		}
+	}
+
+	private static void printTime(String label, int customers, long start) {
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.printf("%s: %d customers in %.2f s, %.0f customers/s%n", label, customers, seconds,
+				customers / seconds);
+	}
+}
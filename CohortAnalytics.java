@@ -0,0 +1,330 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * CohortAnalytics breaks churn down by cohort: the churn rate, average
+ * monthly charges and average customer lifetime value of every combination of
+ * contract, payment method, internet service, senior citizen status and
+ * tenure bucket.
+ * <p>
+ * The full five-dimension cube is aggregated from a {@link ColumnarSnapshot}
+ * in one parallel pass: the rows are split into ranges summed by fork/join
+ * tasks into their own cube, and the partial cubes are added together. Any
+ * breakdown over fewer dimensions is rolled up from the full cube without
+ * reading the rows again. Like the snapshot's churn percentage, only
+ * customers with a MonthlyCharges row are counted.
+ * <p>
+ * The result is immutable and tied to the snapshot data it was computed
+ * from, so it can be cached until the snapshot is refreshed.
+ */
+public class CohortAnalytics {
+
+	// Dimensions, in the order of DIMENSION_NAMES
+	public static final int CONTRACT = 0;
+	public static final int PAYMENT_METHOD = 1;
+	public static final int INTERNET_SERVICE = 2;
+	public static final int SENIOR_CITIZEN = 3;
+	public static final int TENURE = 4;
+
+	static final String[] DIMENSION_NAMES = { "Contract", "Payment Method", "Internet Service", "Senior Citizen",
+			"Tenure" };
+
+	// Width of a tenure bucket in months; the last bucket holds every longer tenure
+	private static final int TENURE_BUCKET_MONTHS = 12;
+	private static final int TENURE_BUCKETS = 7;
+	// Rows summed by one task without splitting further
+	private static final int SPLIT_THRESHOLD = 1 << 15;
+
+	/**
+	 * The figures of one cohort.
+	 */
+	public static class Cohort {
+		private final String[] values;
+		private final long customers;
+		private final long churned;
+		private final double averageMonthlyCharges;
+		private final double averageLifetimeValue;
+
+		Cohort(String[] values, long customers, long churned, double sumMonthlyCharges, double sumLifetimeValue) {
+			this.values = values;
+			this.customers = customers;
+			this.churned = churned;
+			this.averageMonthlyCharges = sumMonthlyCharges / customers;
+			this.averageLifetimeValue = sumLifetimeValue / customers;
+		}
+
+		/**
+		 * @param dimension One of the dimension constants.
+		 * @return The value of the dimension for this cohort, or null if the
+		 *         cohort is not broken down by it.
+		 */
+		public String getValue(int dimension) {
+			return values[dimension];
+		}
+
+		public long getCustomers() {
+			return customers;
+		}
+
+		public long getChurned() {
+			return churned;
+		}
+
+		/**
+		 * @return The percentage of customers of the cohort who churned.
+		 */
+		public double getChurnRate() {
+			return (double) churned / customers * 100;
+		}
+
+		public double getAverageMonthlyCharges() {
+			return averageMonthlyCharges;
+		}
+
+		public double getAverageLifetimeValue() {
+			return averageLifetimeValue;
+		}
+	}
+
+	/**
+	 * Sums of one cube, one cell per combination of dimension codes.
+	 */
+	private static final class Cube {
+		final long[] customers;
+		final long[] churned;
+		final double[] sumMonthlyCharges;
+		final double[] sumLifetimeValue;
+
+		Cube(int cells) {
+			customers = new long[cells];
+			churned = new long[cells];
+			sumMonthlyCharges = new double[cells];
+			sumLifetimeValue = new double[cells];
+		}
+
+		void add(Cube other) {
+			for (int cell = 0; cell < customers.length; cell++) {
+				customers[cell] += other.customers[cell];
+				churned[cell] += other.churned[cell];
+				sumMonthlyCharges[cell] += other.sumMonthlyCharges[cell];
+				sumLifetimeValue[cell] += other.sumLifetimeValue[cell];
+			}
+		}
+	}
+
+	/**
+	 * Sums a range of rows into a cube, splitting it while it is large.
+	 */
+	private static final class Aggregate extends RecursiveTask<Cube> {
+		private static final long serialVersionUID = 1L;
+
+		private final CohortAnalytics analytics;
+		private final int from;
+		private final int to;
+
+		Aggregate(CohortAnalytics analytics, int from, int to) {
+			this.analytics = analytics;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected Cube compute() {
+			if (to - from > SPLIT_THRESHOLD) {
+				int middle = (from + to) >>> 1;
+				Aggregate right = new Aggregate(analytics, middle, to);
+				right.fork();
+				Cube cube = new Aggregate(analytics, from, middle).compute();
+				cube.add(right.join());
+				return cube;
+			}
+			return analytics.sum(from, to);
+		}
+	}
+
+	private final ColumnarSnapshot.Columns data;
+	// Number of codes of each dimension, and the stride of each in a cell index
+	private final int[] sizes = new int[DIMENSION_NAMES.length];
+	private final int[] strides = new int[DIMENSION_NAMES.length];
+	private final Cube cube;
+
+	private CohortAnalytics(ColumnarSnapshot.Columns data) {
+		this.data = data;
+		sizes[CONTRACT] = data.dictionaries[ColumnarSnapshot.CONTRACT].size();
+		sizes[PAYMENT_METHOD] = data.dictionaries[ColumnarSnapshot.PAYMENT_METHOD].size();
+		sizes[INTERNET_SERVICE] = data.dictionaries[ColumnarSnapshot.INTERNET_SERVICE].size();
+		sizes[SENIOR_CITIZEN] = 2;
+		sizes[TENURE] = TENURE_BUCKETS;
+		int stride = 1;
+		for (int dimension = 0; dimension < sizes.length; dimension++) {
+			strides[dimension] = stride;
+			stride *= sizes[dimension];
+		}
+		this.cube = ForkJoinPool.commonPool().invoke(new Aggregate(this, 0, data.rowCount));
+	}
+
+	/**
+	 * Computes the cohorts of the data currently loaded in a snapshot.
+	 *
+	 * @param snapshot A loaded snapshot.
+	 * @return The cohorts of its data.
+	 */
+	public static CohortAnalytics compute(ColumnarSnapshot snapshot) {
+		return new CohortAnalytics(snapshot.getColumns());
+	}
+
+	/**
+	 * @param snapshot A snapshot.
+	 * @return True if these cohorts were computed from the data the snapshot
+	 *         currently holds.
+	 */
+	public boolean isComputedFrom(ColumnarSnapshot snapshot) {
+		return snapshot.getColumns() == data;
+	}
+
+	/**
+	 * Sums the rows of a range into a new cube.
+	 */
+	private Cube sum(int from, int to) {
+		Cube partial = new Cube(strides[TENURE] * sizes[TENURE]);
+		byte[] contract = data.categories[ColumnarSnapshot.CONTRACT];
+		byte[] paymentMethod = data.categories[ColumnarSnapshot.PAYMENT_METHOD];
+		byte[] internetService = data.categories[ColumnarSnapshot.INTERNET_SERVICE];
+		byte[] churn = data.categories[ColumnarSnapshot.CHURN];
+		byte[] seniorCitizen = data.seniorCitizen;
+		int[] tenure = data.tenure;
+		double[] monthlyCharges = data.monthlyCharges;
+		int churnYesCode = data.churnYesCode;
+		for (int row = from; row < to; row++) {
+			if (churn[row] == 0) {
+				continue;
+			}
+			int cell = contract[row] * strides[CONTRACT] + paymentMethod[row] * strides[PAYMENT_METHOD]
+					+ internetService[row] * strides[INTERNET_SERVICE]
+					+ (seniorCitizen[row] != 0 ? strides[SENIOR_CITIZEN] : 0)
+					+ tenureBucket(tenure[row]) * strides[TENURE];
+			partial.customers[cell]++;
+			if (churn[row] == churnYesCode) {
+				partial.churned[cell]++;
+			}
+			partial.sumMonthlyCharges[cell] += monthlyCharges[row];
+			// Same formula as CustomerStatistics.getCustomerLifetimeValue()
+			partial.sumLifetimeValue[cell] += monthlyCharges[row] * tenure[row];
+		}
+		return partial;
+	}
+
+	private static int tenureBucket(int tenure) {
+		return Math.min(Math.max(tenure, 0) / TENURE_BUCKET_MONTHS, TENURE_BUCKETS - 1);
+	}
+
+	/**
+	 * Rolls the cube up to a breakdown over some of the dimensions.
+	 *
+	 * @param dimensions The dimension constants to break down by. None gives a
+	 *                   single cohort of every customer.
+	 * @return The non-empty cohorts, ordered by the first dimension, then the
+	 *         next.
+	 */
+	public List<Cohort> rollUp(int... dimensions) {
+		int groups = 1;
+		for (int dimension : dimensions) {
+			groups *= sizes[dimension];
+		}
+		Cube rolledUp = new Cube(groups);
+		for (int cell = 0; cell < cube.customers.length; cell++) {
+			if (cube.customers[cell] == 0) {
+				continue;
+			}
+			int group = groupOf(cell, dimensions);
+			rolledUp.customers[group] += cube.customers[cell];
+			rolledUp.churned[group] += cube.churned[cell];
+			rolledUp.sumMonthlyCharges[group] += cube.sumMonthlyCharges[cell];
+			rolledUp.sumLifetimeValue[group] += cube.sumLifetimeValue[cell];
+		}
+		List<Cohort> cohorts = new ArrayList<>();
+		for (int group = 0; group < groups; group++) {
+			if (rolledUp.customers[group] == 0) {
+				continue;
+			}
+			String[] values = new String[DIMENSION_NAMES.length];
+			int remainder = group;
+			for (int i = dimensions.length - 1; i >= 0; i--) {
+				values[dimensions[i]] = label(dimensions[i], remainder % sizes[dimensions[i]]);
+				remainder /= sizes[dimensions[i]];
+			}
+			cohorts.add(new Cohort(values, rolledUp.customers[group], rolledUp.churned[group],
+					rolledUp.sumMonthlyCharges[group], rolledUp.sumLifetimeValue[group]));
+		}
+		return cohorts;
+	}
+
+	/**
+	 * Maps a cell of the full cube to its group in a breakdown, with the first
+	 * dimension of the breakdown varying slowest.
+	 */
+	private int groupOf(int cell, int[] dimensions) {
+		int group = 0;
+		for (int dimension : dimensions) {
+			group = group * sizes[dimension] + cell / strides[dimension] % sizes[dimension];
+		}
+		return group;
+	}
+
+	private String label(int dimension, int code) {
+		switch (dimension) {
+		case SENIOR_CITIZEN:
+			return code == 0 ? "No" : "Yes";
+		case TENURE:
+			return code == TENURE_BUCKETS - 1 ? code * TENURE_BUCKET_MONTHS + "+ months"
+					: code * TENURE_BUCKET_MONTHS + "-" + ((code + 1) * TENURE_BUCKET_MONTHS - 1) + " months";
+		default:
+			int column = dimension == CONTRACT ? ColumnarSnapshot.CONTRACT
+					: dimension == PAYMENT_METHOD ? ColumnarSnapshot.PAYMENT_METHOD
+							: ColumnarSnapshot.INTERNET_SERVICE;
+			String value = data.dictionaries[column].decode((byte) code);
+			return value == null ? "(none)" : value;
+		}
+	}
+
+	/**
+	 * Formats the breakdowns by each dimension and by each pair of dimensions
+	 * as text tables.
+	 *
+	 * @return The formatted breakdowns.
+	 */
+	public String format() {
+		StringBuilder out = new StringBuilder();
+		out.append("Churn by cohort\n\n");
+		appendTable(out, rollUp(), new int[0]);
+		for (int first = 0; first < DIMENSION_NAMES.length; first++) {
+			appendTable(out, rollUp(first), new int[] { first });
+		}
+		for (int first = 0; first < DIMENSION_NAMES.length; first++) {
+			for (int second = first + 1; second < DIMENSION_NAMES.length; second++) {
+				appendTable(out, rollUp(first, second), new int[] { first, second });
+			}
+		}
+		return out.toString();
+	}
+
+	private static void appendTable(StringBuilder out, List<Cohort> cohorts, int[] dimensions) {
+		StringBuilder heading = new StringBuilder();
+		for (int dimension : dimensions) {
+			heading.append(heading.length() == 0 ? "" : " x ").append(DIMENSION_NAMES[dimension]);
+		}
+		out.append(dimensions.length == 0 ? "All customers" : heading).append(":\n");
+		for (Cohort cohort : cohorts) {
+			StringBuilder key = new StringBuilder();
+			for (int dimension : dimensions) {
+				key.append(key.length() == 0 ? "" : " / ").append(cohort.getValue(dimension));
+			}
+			out.append(String.format("  %-50s %7d customers  churn %6.2f%%  avg monthly %8.2f  avg CLV %10.2f%n",
+					dimensions.length == 0 ? "All" : key, cohort.getCustomers(), cohort.getChurnRate(),
+					cohort.getAverageMonthlyCharges(), cohort.getAverageLifetimeValue()));
+		}
+		out.append('\n');
+	}
+}
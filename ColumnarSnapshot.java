@@ -0,0 +1,393 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+/**
+ * ColumnarSnapshot is an in-memory copy of the CustomerProfile table, which
+ * triggers keep in step with the Customer, Service and MonthlyCharges
+ * tables, held in primitive columns, one array element per customer.
+ * Categorical columns are dictionary-encoded into byte codes, so filters and
+ * the churn percentage are answered with tight loops over primitive arrays
+ * and no allocation per query.
+ * <p>
+ * The snapshot is loaded on {@link #refresh(Connection)} and replaced
+ * atomically, so queries running during a refresh see either the old or the
+ * new data.
+ */
+public class ColumnarSnapshot {
+
+	/**
+	 * Dictionary maps the distinct values of a categorical column to byte
+	 * codes. Code 0 is reserved for NULL.
+	 */
+	public static class Dictionary {
+		private final List<String> values = new ArrayList<>();
+
+		Dictionary() {
+			values.add(null);
+		}
+
+		/**
+		 * Returns the code of a value, adding it to the dictionary if needed.
+		 */
+		byte encode(String value) {
+			if (value == null) {
+				return 0;
+			}
+			int code = values.indexOf(value);
+			if (code < 0) {
+				if (values.size() > Byte.MAX_VALUE) {
+					throw new IllegalStateException("Too many distinct values for a dictionary column: " + value);
+				}
+				values.add(value);
+				code = values.size() - 1;
+			}
+			return (byte) code;
+		}
+
+		/**
+		 * Returns the code of a value, ignoring case the way the MySQL default
+		 * collation does, or -1 if no row has that value.
+		 *
+		 * @param value The value to look up.
+		 * @return The code of the value, or -1.
+		 */
+		public int codeOf(String value) {
+			for (int code = 1; code < values.size(); code++) {
+				if (values.get(code).equalsIgnoreCase(value)) {
+					return code;
+				}
+			}
+			return -1;
+		}
+
+		/**
+		 * @param code A code of this dictionary.
+		 * @return The value encoded by the code, or null for code 0.
+		 */
+		public String decode(byte code) {
+			return values.get(code);
+		}
+
+		/**
+		 * @return The number of codes, including the NULL code.
+		 */
+		public int size() {
+			return values.size();
+		}
+	}
+
+	// Categorical columns, in the order of CATEGORICAL_COLUMNS
+	public static final int GENDER = 0;
+	public static final int PARTNER = 1;
+	public static final int DEPENDENTS = 2;
+	public static final int PHONE_SERVICE = 3;
+	public static final int MULTIPLE_LINES = 4;
+	public static final int INTERNET_SERVICE = 5;
+	public static final int ONLINE_SECURITY = 6;
+	public static final int ONLINE_BACKUP = 7;
+	public static final int DEVICE_PROTECTION = 8;
+	public static final int TECH_SUPPORT = 9;
+	public static final int STREAMING_TV = 10;
+	public static final int STREAMING_MOVIES = 11;
+	public static final int PAPERLESS_BILLING = 12;
+	public static final int PAYMENT_METHOD = 13;
+	public static final int CHURN = 14;
+	public static final int CONTRACT = 15;
+
+	static final String[] CATEGORICAL_COLUMNS = { "gender", "Partner", "Dependents", "PhoneService",
+			"MultipleLines", "InternetService", "OnlineSecurity", "OnlineBackup", "DeviceProtection", "TechSupport",
+			"StreamingTV", "StreamingMovies", "PaperlessBilling", "PaymentMethod", "Churn", "Contract" };
+
+	/**
+	 * Reads the number of changes made to the CustomerProfile table so far,
+	 * counted by its triggers.
+	 */
+	public static final String CHANGE_VERSION_QUERY = "SELECT SUM(version) FROM ChangeVersion";
+
+	private static final String LOAD_QUERY = "SELECT customerID, SeniorCitizen, tenure, MonthlyCharges, TotalCharges, "
+			+ String.join(", ", CATEGORICAL_COLUMNS) + " FROM CustomerProfile";
+
+	/**
+	 * The loaded columns. Never modified after loading, so a reference to it
+	 * is a consistent view of the data.
+	 */
+	static class Columns {
+		int rowCount;
+		String[] customerIDs;
+		byte[] seniorCitizen;
+		int[] tenure;
+		double[] monthlyCharges;
+		double[] totalCharges;
+		byte[][] categories;
+		Dictionary[] dictionaries;
+		int churnYesCode;
+		// Churn counters computed once per load, since the columns never change afterwards
+		int customersWithCharges;
+		int churnedCustomers;
+		// The change version read before loading, or -1 if unknown
+		long version = -1;
+	}
+
+	private volatile Columns columns;
+
+	/**
+	 * Loads the CustomerProfile table, replacing the current data once loading
+	 * has finished.
+	 *
+	 * @param connection The connection to load the data with.
+	 * @throws SQLException If the tables cannot be read.
+	 */
+	public void refresh(Connection connection) throws SQLException {
+		Loader loader = new Loader();
+		// Read first, so a change made while loading makes the snapshot look out of date
+		try (PreparedStatement statement = connection.prepareStatement(CHANGE_VERSION_QUERY);
+				ResultSet resultSet = statement.executeQuery()) {
+			if (resultSet.next()) {
+				loader.loaded.version = resultSet.getLong(1);
+			}
+		}
+		// Stream rows instead of buffering the whole result set in the driver
+		try (PreparedStatement statement = ConnectionPool.prepareStreaming(connection, LOAD_QUERY)) {
+			try (ResultSet resultSet = statement.executeQuery()) {
+				String[] categories = new String[CATEGORICAL_COLUMNS.length];
+				while (resultSet.next()) {
+					for (int column = 0; column < categories.length; column++) {
+						categories[column] = resultSet.getString(6 + column);
+					}
+					loader.add(resultSet.getString(1), resultSet.getInt(2), resultSet.getInt(3), resultSet.getDouble(4),
+							resultSet.getDouble(5), categories);
+				}
+			}
+		}
+		replace(loader.finish());
+	}
+
+	/**
+	 * Loader builds the columns of a snapshot one customer at a time.
+	 */
+	static class Loader {
+		private final Columns loaded = new Columns();
+		private int capacity = 8192;
+
+		Loader() {
+			loaded.customerIDs = new String[capacity];
+			loaded.seniorCitizen = new byte[capacity];
+			loaded.tenure = new int[capacity];
+			loaded.monthlyCharges = new double[capacity];
+			loaded.totalCharges = new double[capacity];
+			loaded.categories = new byte[CATEGORICAL_COLUMNS.length][capacity];
+			loaded.dictionaries = new Dictionary[CATEGORICAL_COLUMNS.length];
+			for (int i = 0; i < loaded.dictionaries.length; i++) {
+				loaded.dictionaries[i] = new Dictionary();
+			}
+		}
+
+		/**
+		 * Adds a customer.
+		 *
+		 * @param categories The values of the categorical columns, in the order
+		 *                   of CATEGORICAL_COLUMNS. Null values are allowed.
+		 */
+		void add(String customerID, int seniorCitizen, int tenure, double monthlyCharges, double totalCharges,
+				String[] categories) {
+			int row = loaded.rowCount;
+			if (row == capacity) {
+				capacity *= 2;
+				grow(loaded, capacity);
+			}
+			loaded.customerIDs[row] = customerID;
+			loaded.seniorCitizen[row] = (byte) seniorCitizen;
+			loaded.tenure[row] = tenure;
+			loaded.monthlyCharges[row] = monthlyCharges;
+			loaded.totalCharges[row] = totalCharges;
+			for (int column = 0; column < CATEGORICAL_COLUMNS.length; column++) {
+				loaded.categories[column][row] = loaded.dictionaries[column].encode(categories[column]);
+			}
+			loaded.rowCount++;
+		}
+
+		/**
+		 * Trims the columns and computes the churn counters.
+		 *
+		 * @return The loaded columns.
+		 */
+		Columns finish() {
+			grow(loaded, loaded.rowCount);
+			loaded.churnYesCode = loaded.dictionaries[CHURN].codeOf("Yes");
+			byte[] churn = loaded.categories[CHURN];
+			for (int row = 0; row < loaded.rowCount; row++) {
+				if (churn[row] != 0) {
+					loaded.customersWithCharges++;
+					if (churn[row] == loaded.churnYesCode) {
+						loaded.churnedCustomers++;
+					}
+				}
+			}
+			return loaded;
+		}
+	}
+
+	private static void grow(Columns loaded, int capacity) {
+		loaded.customerIDs = Arrays.copyOf(loaded.customerIDs, capacity);
+		loaded.seniorCitizen = Arrays.copyOf(loaded.seniorCitizen, capacity);
+		loaded.tenure = Arrays.copyOf(loaded.tenure, capacity);
+		loaded.monthlyCharges = Arrays.copyOf(loaded.monthlyCharges, capacity);
+		loaded.totalCharges = Arrays.copyOf(loaded.totalCharges, capacity);
+		for (int column = 0; column < loaded.categories.length; column++) {
+			loaded.categories[column] = Arrays.copyOf(loaded.categories[column], capacity);
+		}
+	}
+
+	/**
+	 * Replaces the current data with columns built by a {@link Loader}.
+	 *
+	 * @param loaded The new columns.
+	 */
+	void replace(Columns loaded) {
+		columns = loaded;
+	}
+
+	/**
+	 * @return The currently loaded columns, for building indexes over them.
+	 */
+	Columns getColumns() {
+		return columns;
+	}
+
+	/**
+	 * @return True once the snapshot has been loaded.
+	 */
+	public boolean isLoaded() {
+		return columns != null;
+	}
+
+	/**
+	 * Calls the consumer with the row of every customer matching one of the
+	 * filters of the application, with the same semantics as the SQL filter.
+	 *
+	 * @param filterType  "Senior Citizen", "Tenure" or "Paperless Billing".
+	 * @param filterValue The value entered for the filter.
+	 * @param consumer    Receives the row numbers of the matching customers.
+	 * @throws IllegalArgumentException If the filter type is unknown or the
+	 *                                  value is not a number where one is
+	 *                                  required.
+	 */
+	public void forEachMatch(String filterType, String filterValue, IntConsumer consumer) {
+		Columns data = columns;
+		switch (filterType) {
+		case "Senior Citizen": {
+			int senior = Integer.parseInt(filterValue);
+			byte[] seniorCitizen = data.seniorCitizen;
+			for (int row = 0; row < data.rowCount; row++) {
+				if (seniorCitizen[row] == senior) {
+					consumer.accept(row);
+				}
+			}
+			break;
+		}
+		case "Tenure": {
+			int minimum = Integer.parseInt(filterValue);
+			int[] tenure = data.tenure;
+			for (int row = 0; row < data.rowCount; row++) {
+				if (tenure[row] >= minimum) {
+					consumer.accept(row);
+				}
+			}
+			break;
+		}
+		case "Paperless Billing": {
+			int code = data.dictionaries[PAPERLESS_BILLING].codeOf(filterValue);
+			if (code < 0) {
+				return;
+			}
+			byte[] paperlessBilling = data.categories[PAPERLESS_BILLING];
+			for (int row = 0; row < data.rowCount; row++) {
+				if (paperlessBilling[row] == code) {
+					consumer.accept(row);
+				}
+			}
+			break;
+		}
+		default:
+			throw new IllegalArgumentException("Invalid filter type: " + filterType);
+		}
+	}
+
+	/**
+	 * Returns the percentage of customers who churned, counting customers with
+	 * a MonthlyCharges row like the SQL query does. The counts are computed
+	 * when the snapshot is loaded.
+	 *
+	 * @return The churn percentage.
+	 */
+	public double getChurnPercentage() {
+		Columns data = columns;
+		return (double) data.churnedCustomers / data.customersWithCharges * 100;
+	}
+
+	/**
+	 * Compares the change version the snapshot was loaded at with one read
+	 * with {@link #CHANGE_VERSION_QUERY}, to tell whether the snapshot is out
+	 * of date.
+	 *
+	 * @param version The current change version.
+	 * @return True if the snapshot was loaded from the database at that
+	 *         version.
+	 */
+	public boolean isCurrent(long version) {
+		Columns data = columns;
+		return data != null && data.version >= 0 && data.version == version;
+	}
+
+	/**
+	 * @param row A row number.
+	 * @return The customer ID of the row.
+	 */
+	public String getCustomerID(int row) {
+		return columns.customerIDs[row];
+	}
+
+	/**
+	 * @return The number of customers in the snapshot.
+	 */
+	public int getRowCount() {
+		Columns data = columns;
+		return data == null ? 0 : data.rowCount;
+	}
+
+	/**
+	 * Estimates the heap used by the snapshot: the primitive columns, the
+	 * customer ID strings and the dictionaries.
+	 *
+	 * @return The estimated footprint in bytes.
+	 */
+	public long getMemoryFootprint() {
+		Columns data = columns;
+		if (data == null) {
+			return 0;
+		}
+		long bytes = 0;
+		// Array headers are 16 bytes, references 4 bytes with compressed oops
+		bytes += 16 + 4L * data.rowCount;
+		for (int row = 0; row < data.rowCount; row++) {
+			// String object plus its Latin-1 byte array
+			bytes += 24 + 16 + data.customerIDs[row].length();
+		}
+		bytes += 16 + data.rowCount; // seniorCitizen
+		bytes += 16 + 4L * data.rowCount; // tenure
+		bytes += 2 * (16 + 8L * data.rowCount); // monthlyCharges, totalCharges
+		bytes += data.categories.length * (16 + (long) data.rowCount);
+		for (Dictionary dictionary : data.dictionaries) {
+			for (int code = 1; code < dictionary.size(); code++) {
+				bytes += 24 + 16 + dictionary.decode((byte) code).length();
+			}
+		}
+		return bytes;
+	}
+}
@@ -0,0 +1,628 @@
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * ConnectionPool keeps a bounded set of JDBC connections to the churn
+ * database. Connections handed out by {@link #getConnection()} return to the
+ * pool when closed. Idle connections are validated before reuse, broken ones
+ * are replaced with reconnect backoff, and connections held longer than the
+ * leak threshold are reported together with the code that borrowed them.
+ */
+public class ConnectionPool implements AutoCloseable {
+
+	/**
+	 * A point-in-time view of the pool, used to size it.
+	 */
+	public static class PoolStats {
+		public final int active;
+		public final int idle;
+		public final int waiting;
+		public final long borrowCount;
+		public final double averageWaitMillis;
+		public final double maxWaitMillis;
+		public final long leaksDetected;
+		public final long reconnects;
+
+		PoolStats(int active, int idle, int waiting, long borrowCount, double averageWaitMillis, double maxWaitMillis,
+				long leaksDetected, long reconnects) {
+			this.active = active;
+			this.idle = idle;
+			this.waiting = waiting;
+			this.borrowCount = borrowCount;
+			this.averageWaitMillis = averageWaitMillis;
+			this.maxWaitMillis = maxWaitMillis;
+			this.leaksDetected = leaksDetected;
+			this.reconnects = reconnects;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("Pool: %d active, %d idle, %d waiting, avg wait %.2f ms, max wait %.2f ms, %d leaks",
+					active, idle, waiting, averageWaitMillis, maxWaitMillis, leaksDetected);
+		}
+	}
+
+	/**
+	 * A physical connection together with its bookkeeping.
+	 */
+	private static class PooledEntry {
+		final Connection physical;
+		long lastReturned = System.nanoTime();
+		long borrowedAt;
+		Throwable borrowSite;
+		boolean leakReported;
+		// Statements created by the current borrower, closed when the connection is returned
+		final List<Statement> statements = new ArrayList<>();
+		// Session state changed by the current borrower, restored when the connection is returned
+		boolean readOnlyChanged;
+		int defaultIsolation = -1;
+		String defaultCatalog;
+
+		PooledEntry(Connection physical) {
+			this.physical = physical;
+		}
+	}
+
+	// Connection settings, overridable with -Dchurn.db.url, -Dchurn.db.user and -Dchurn.db.password.
+	// Rewritten batches send a whole JDBC batch to MySQL as one multi-row statement.
+	// Server-side prepared statements are cached per connection, so re-preparing a query reuses its statement.
+	private static final String DEFAULT_URL = "jdbc:mysql://localhost/churndata?rewriteBatchedStatements=true"
+			+ "&useServerPrepStmts=true&cachePrepStmts=true&prepStmtCacheSize=250&prepStmtCacheSqlLimit=2048";
+	private static final String DEFAULT_USER = "root";
+	private static final String DEFAULT_PASSWORD = "";
+	// Rows fetched per round trip by streaming reads; Integer.MIN_VALUE makes the MySQL driver stream row by row
+	private static final int STREAMING_FETCH_SIZE = Integer.getInteger("churn.db.fetchSize", Integer.MIN_VALUE);
+
+	private final String url;
+	private final String username;
+	private final String password;
+	private final int minSize;
+	private final int maxSize;
+	private final long maxWaitMillis;
+	private final long validateAfterIdleMillis;
+	private final long leakThresholdMillis;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition available = lock.newCondition();
+	private final Deque<PooledEntry> idle = new ArrayDeque<>();
+	private final Set<PooledEntry> borrowed = ConcurrentHashMap.newKeySet();
+	private final ScheduledExecutorService maintenance;
+	private int totalConnections;
+	private int waiting;
+	private boolean closed;
+
+	private long borrowCount;
+	private long totalWaitNanos;
+	private long maxWaitNanos;
+	private long leaksDetected;
+	private long reconnects;
+	private long nextConnectAttempt;
+	private long reconnectBackoffMillis;
+
+	// Statements kept by a borrower before the closed ones are dropped from the list
+	private static final int STATEMENT_PRUNE_SIZE = 64;
+
+	// Reconnect backoff grows from the initial delay up to the maximum while the database is unreachable
+	private static final long INITIAL_BACKOFF_MILLIS = 250;
+	private static final long MAX_BACKOFF_MILLIS = 10_000;
+
+	/**
+	 * Creates a new pool. No connection is opened until one is needed or the
+	 * maintenance task tops the pool up to its minimum size.
+	 *
+	 * @param url                     The JDBC URL.
+	 * @param username                The database user.
+	 * @param password                The database password.
+	 * @param minSize                 The number of connections kept open while
+	 *                                the database is reachable.
+	 * @param maxSize                 The maximum number of open connections.
+	 * @param maxWaitMillis           How long a caller waits for a connection
+	 *                                before failing.
+	 * @param validateAfterIdleMillis Idle time after which a connection is
+	 *                                validated before it is handed out.
+	 * @param leakThresholdMillis     Borrow time after which a connection is
+	 *                                reported as leaked.
+	 */
+	public ConnectionPool(String url, String username, String password, int minSize, int maxSize, long maxWaitMillis,
+			long validateAfterIdleMillis, long leakThresholdMillis) {
+		if (minSize < 0 || maxSize < 1 || minSize > maxSize) {
+			throw new IllegalArgumentException("Invalid pool size: min " + minSize + ", max " + maxSize);
+		}
+		this.url = url;
+		this.username = username;
+		this.password = password;
+		this.minSize = minSize;
+		this.maxSize = maxSize;
+		this.maxWaitMillis = maxWaitMillis;
+		this.validateAfterIdleMillis = validateAfterIdleMillis;
+		this.leakThresholdMillis = leakThresholdMillis;
+		this.maintenance = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "connection-pool-maintenance");
+			thread.setDaemon(true);
+			return thread;
+		});
+		maintenance.scheduleWithFixedDelay(this::maintain, 0, 5, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Prepares a statement whose result set is read incrementally instead of
+	 * being buffered in full by the driver, for reads that scan whole tables.
+	 * By default the MySQL driver then streams rows one at a time; the
+	 * connection cannot run other statements until the result set is closed.
+	 * With -Dchurn.db.fetchSize=N and useCursorFetch=true in the URL, the
+	 * server keeps a cursor and rows are fetched N at a time instead.
+	 *
+	 * @param connection The connection to prepare the statement on.
+	 * @param query      The SQL query to prepare.
+	 * @return The prepared statement.
+	 * @throws SQLException If the statement cannot be prepared.
+	 */
+	public static PreparedStatement prepareStreaming(Connection connection, String query) throws SQLException {
+		PreparedStatement statement = connection.prepareStatement(query, ResultSet.TYPE_FORWARD_ONLY,
+				ResultSet.CONCUR_READ_ONLY);
+		statement.setFetchSize(STREAMING_FETCH_SIZE);
+		return statement;
+	}
+
+	/**
+	 * Creates a pool for the churn database using the default settings, which
+	 * can be overridden with system properties.
+	 *
+	 * @return The new pool.
+	 */
+	public static ConnectionPool createDefault() {
+		return createDefault(Integer.getInteger("churn.pool.min", 1), Integer.getInteger("churn.pool.max", 8), 60_000);
+	}
+
+	/**
+	 * Creates a pool for the churn database with the given size, for batch
+	 * jobs that know how many connections they need and hold them for long.
+	 *
+	 * @param minSize             The number of connections kept open.
+	 * @param maxSize             The maximum number of open connections.
+	 * @param leakThresholdMillis Borrow time after which a connection is
+	 *                            reported as leaked.
+	 * @return The new pool.
+	 */
+	public static ConnectionPool createDefault(int minSize, int maxSize, long leakThresholdMillis) {
+		return new ConnectionPool(System.getProperty("churn.db.url", DEFAULT_URL),
+				System.getProperty("churn.db.user", DEFAULT_USER),
+				System.getProperty("churn.db.password", DEFAULT_PASSWORD), minSize, maxSize,
+				Long.getLong("churn.pool.maxWaitMillis", 10_000), 30_000, leakThresholdMillis);
+	}
+
+	/**
+	 * Borrows a connection from the pool, opening a new one if none is idle
+	 * and the pool is below its maximum size. Closing the returned connection
+	 * hands it back to the pool.
+	 *
+	 * @return A connection that is returned to the pool when closed.
+	 * @throws SQLException If no connection becomes available within the
+	 *                      configured wait time or the database cannot be
+	 *                      reached.
+	 */
+	public Connection getConnection() throws SQLException {
+		long start = System.nanoTime();
+		long deadline = start + TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+		while (true) {
+			PooledEntry entry = null;
+			boolean create = false;
+			lock.lock();
+			try {
+				while (!closed && idle.isEmpty() && totalConnections >= maxSize) {
+					long remaining = deadline - System.nanoTime();
+					if (remaining <= 0) {
+						throw new SQLException("Timed out waiting for a database connection (" + maxSize + " in use).");
+					}
+					waiting++;
+					try {
+						available.awaitNanos(remaining);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new SQLException("Interrupted while waiting for a database connection.", e);
+					} finally {
+						waiting--;
+					}
+				}
+				if (closed) {
+					throw new SQLException("Connection pool is closed.");
+				}
+				if (!idle.isEmpty()) {
+					entry = idle.pollLast();
+				} else {
+					totalConnections++;
+					create = true;
+				}
+			} finally {
+				lock.unlock();
+			}
+
+			if (create) {
+				try {
+					entry = new PooledEntry(openConnection());
+				} catch (SQLException e) {
+					discard();
+					throw e;
+				}
+			} else if (!isUsable(entry)) {
+				closeQuietly(entry.physical);
+				discard();
+				continue;
+			}
+			return borrow(entry, start);
+		}
+	}
+
+	/**
+	 * Borrows a connection and checks that the database answers on it.
+	 *
+	 * @throws SQLException If no connection can be borrowed or it does not
+	 *                      validate.
+	 */
+	public void validate() throws SQLException {
+		try (Connection connection = getConnection()) {
+			if (!connection.isValid(2)) {
+				throw new SQLException("The database did not answer the validation query.");
+			}
+		}
+	}
+
+	/**
+	 * @return The current pool statistics.
+	 */
+	public PoolStats getStats() {
+		lock.lock();
+		try {
+			double averageWait = borrowCount == 0 ? 0 : totalWaitNanos / 1e6 / borrowCount;
+			return new PoolStats(borrowed.size(), idle.size(), waiting, borrowCount, averageWait, maxWaitNanos / 1e6,
+					leaksDetected, reconnects);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Closes all idle connections and stops the maintenance task. Borrowed
+	 * connections are closed when they are returned.
+	 */
+	@Override
+	public void close() {
+		maintenance.shutdownNow();
+		lock.lock();
+		try {
+			closed = true;
+			for (PooledEntry entry : idle) {
+				closeQuietly(entry.physical);
+			}
+			totalConnections -= idle.size();
+			idle.clear();
+			available.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Opens a physical connection, honouring the reconnect backoff while the
+	 * database is unreachable.
+	 */
+	private Connection openConnection() throws SQLException {
+		long now = System.currentTimeMillis();
+		lock.lock();
+		try {
+			if (now < nextConnectAttempt) {
+				throw new SQLException("Database unavailable, retrying in " + (nextConnectAttempt - now) + " ms.");
+			}
+		} finally {
+			lock.unlock();
+		}
+		try {
+			Connection connection = DriverManager.getConnection(url, username, password);
+			lock.lock();
+			try {
+				if (reconnectBackoffMillis > 0) {
+					reconnects++;
+				}
+				reconnectBackoffMillis = 0;
+				nextConnectAttempt = 0;
+			} finally {
+				lock.unlock();
+			}
+			return connection;
+		} catch (SQLException e) {
+			lock.lock();
+			try {
+				reconnectBackoffMillis = reconnectBackoffMillis == 0 ? INITIAL_BACKOFF_MILLIS
+						: Math.min(reconnectBackoffMillis * 2, MAX_BACKOFF_MILLIS);
+				nextConnectAttempt = System.currentTimeMillis() + reconnectBackoffMillis;
+			} finally {
+				lock.unlock();
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Checks an idle connection before it is reused. Connections idle for less
+	 * than the validation interval are trusted without a round trip.
+	 */
+	private boolean isUsable(PooledEntry entry) {
+		try {
+			if (entry.physical.isClosed()) {
+				return false;
+			}
+			long idleMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - entry.lastReturned);
+			return idleMillis < validateAfterIdleMillis || entry.physical.isValid(2);
+		} catch (SQLException e) {
+			return false;
+		}
+	}
+
+	private Connection borrow(PooledEntry entry, long requestedAt) {
+		long now = System.nanoTime();
+		entry.borrowedAt = now;
+		// Capturing the stack trace is only worth it when leaks are reported
+		entry.borrowSite = leakThresholdMillis == Long.MAX_VALUE ? null : new Throwable("Connection borrowed here");
+		entry.leakReported = false;
+		borrowed.add(entry);
+		lock.lock();
+		try {
+			long waited = now - requestedAt;
+			borrowCount++;
+			totalWaitNanos += waited;
+			maxWaitNanos = Math.max(maxWaitNanos, waited);
+		} finally {
+			lock.unlock();
+		}
+		return (Connection) Proxy.newProxyInstance(ConnectionPool.class.getClassLoader(),
+				new Class<?>[] { Connection.class }, new PooledHandler(entry));
+	}
+
+	/**
+	 * Returns a borrowed connection to the pool, closing the statements the
+	 * borrower left open and restoring the defaults it may have changed.
+	 */
+	private void release(PooledEntry entry) {
+		borrowed.remove(entry);
+		boolean reusable;
+		try {
+			// Closing a statement closes its result set, which also ends an unfinished streaming read
+			for (Statement statement : entry.statements) {
+				statement.close();
+			}
+			entry.statements.clear();
+			if (!entry.physical.getAutoCommit()) {
+				entry.physical.rollback();
+				entry.physical.setAutoCommit(true);
+			}
+			if (entry.readOnlyChanged) {
+				entry.physical.setReadOnly(false);
+				entry.readOnlyChanged = false;
+			}
+			if (entry.defaultIsolation != -1) {
+				entry.physical.setTransactionIsolation(entry.defaultIsolation);
+				entry.defaultIsolation = -1;
+			}
+			if (entry.defaultCatalog != null) {
+				entry.physical.setCatalog(entry.defaultCatalog);
+				entry.defaultCatalog = null;
+			}
+			reusable = !entry.physical.isClosed();
+		} catch (SQLException e) {
+			reusable = false;
+		}
+		lock.lock();
+		try {
+			if (reusable && !closed) {
+				entry.lastReturned = System.nanoTime();
+				idle.addLast(entry);
+				available.signal();
+				return;
+			}
+		} finally {
+			lock.unlock();
+		}
+		closeQuietly(entry.physical);
+		discard();
+	}
+
+	/**
+	 * Forgets a connection that was closed or never opened, freeing its slot.
+	 */
+	private void discard() {
+		lock.lock();
+		try {
+			totalConnections--;
+			available.signal();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Reports leaked connections, evicts idle connections that no longer
+	 * validate and tops the pool up to its minimum size.
+	 */
+	private void maintain() {
+		long now = System.nanoTime();
+		for (PooledEntry entry : borrowed) {
+			if (!entry.leakReported
+					&& TimeUnit.NANOSECONDS.toMillis(now - entry.borrowedAt) > leakThresholdMillis) {
+				entry.leakReported = true;
+				lock.lock();
+				try {
+					leaksDetected++;
+				} finally {
+					lock.unlock();
+				}
+				System.err.println("Possible connection leak: connection held for more than " + leakThresholdMillis
+						+ " ms.");
+				if (entry.borrowSite != null) {
+					entry.borrowSite.printStackTrace();
+				}
+			}
+		}
+
+		PooledEntry stale = null;
+		lock.lock();
+		try {
+			if (!idle.isEmpty() && TimeUnit.NANOSECONDS
+					.toMillis(now - idle.peekFirst().lastReturned) >= validateAfterIdleMillis) {
+				stale = idle.pollFirst();
+			}
+		} finally {
+			lock.unlock();
+		}
+		if (stale != null) {
+			if (isUsable(stale)) {
+				stale.lastReturned = System.nanoTime();
+				lock.lock();
+				try {
+					idle.addLast(stale);
+				} finally {
+					lock.unlock();
+				}
+			} else {
+				closeQuietly(stale.physical);
+				discard();
+			}
+		}
+
+		while (true) {
+			lock.lock();
+			try {
+				if (closed || totalConnections >= minSize) {
+					return;
+				}
+				totalConnections++;
+			} finally {
+				lock.unlock();
+			}
+			try {
+				PooledEntry entry = new PooledEntry(openConnection());
+				lock.lock();
+				try {
+					idle.addLast(entry);
+					available.signal();
+				} finally {
+					lock.unlock();
+				}
+			} catch (SQLException e) {
+				discard();
+				return;
+			}
+		}
+	}
+
+	private static void closeQuietly(Connection connection) {
+		try {
+			connection.close();
+		} catch (SQLException e) {
+			// The connection is being discarded anyway
+		}
+	}
+
+	/**
+	 * Forwards calls to the physical connection until the borrower closes it,
+	 * at which point the connection goes back to the pool.
+	 */
+	private class PooledHandler implements InvocationHandler {
+		private final PooledEntry entry;
+		private boolean returned;
+
+		PooledHandler(PooledEntry entry) {
+			this.entry = entry;
+		}
+
+		@Override
+		public synchronized Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			switch (method.getName()) {
+			case "close":
+				if (!returned) {
+					returned = true;
+					release(entry);
+				}
+				return null;
+			case "isClosed":
+				return returned || entry.physical.isClosed();
+			case "equals":
+				return proxy == args[0];
+			case "hashCode":
+				return System.identityHashCode(proxy);
+			case "toString":
+				return "Pooled" + entry.physical;
+			default:
+				if (returned) {
+					throw new SQLException("Connection has already been returned to the pool.");
+				}
+				rememberDefaults(method.getName());
+				Object result;
+				try {
+					result = method.invoke(entry.physical, args);
+				} catch (InvocationTargetException e) {
+					throw e.getCause();
+				}
+				if (result instanceof Statement) {
+					track((Statement) result);
+				}
+				return result;
+			}
+		}
+
+		/**
+		 * Records the session state a call is about to change, the first time
+		 * it changes during this borrow.
+		 */
+		private void rememberDefaults(String methodName) throws SQLException {
+			switch (methodName) {
+			case "setReadOnly":
+				entry.readOnlyChanged = true;
+				break;
+			case "setTransactionIsolation":
+				if (entry.defaultIsolation == -1) {
+					entry.defaultIsolation = entry.physical.getTransactionIsolation();
+				}
+				break;
+			case "setCatalog":
+				if (entry.defaultCatalog == null) {
+					entry.defaultCatalog = entry.physical.getCatalog();
+				}
+				break;
+			default:
+				break;
+			}
+		}
+
+		private void track(Statement statement) throws SQLException {
+			if (entry.statements.size() >= STATEMENT_PRUNE_SIZE) {
+				entry.statements.removeIf(tracked -> {
+					try {
+						return tracked.isClosed();
+					} catch (SQLException e) {
+						return true;
+					}
+				});
+			}
+			entry.statements.add(statement);
+		}
+	}
+}
@@ -0,0 +1,470 @@
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * CsvIngestor loads the wide Customer-Churn.csv export into the normalized
+ * Customer, Service, MonthlyCharges, SeniorCitizen and PartnerDependents
+ * tables.
+ * <p>
+ * The file is split into chunks of roughly {@code chunkBytes} ending on line
+ * boundaries. Each chunk is memory-mapped, parsed and written with batched
+ * inserts by one of the worker threads, in a single transaction that also
+ * records the chunk in the IngestCheckpoint table. A rerun after a failure
+ * skips the chunks already recorded, so the load can be restarted safely.
+ * <p>
+ * The chunk transaction sets {@code @churn_bulk_load}, which turns off the
+ * per-row triggers that rebuild a customer's profile and log the customer
+ * for a statistics refresh. Both are done for the whole chunk afterwards,
+ * with one statement per {@link InList#MAX_SIZE} customers.
+ */
+public class CsvIngestor {
+
+	// Column positions in Customer-Churn.csv
+	private static final int CUSTOMER_ID = 0;
+	private static final int GENDER = 1;
+	private static final int SENIOR_CITIZEN = 2;
+	private static final int PARTNER = 3;
+	private static final int DEPENDENTS = 4;
+	private static final int TENURE = 5;
+	private static final int PHONE_SERVICE = 6;
+	private static final int CONTRACT = 15;
+	private static final int PAPERLESS_BILLING = 16;
+	private static final int PAYMENT_METHOD = 17;
+	private static final int MONTHLY_CHARGES = 18;
+	private static final int TOTAL_CHARGES = 19;
+	private static final int CHURN = 20;
+	private static final int COLUMN_COUNT = 21;
+
+	private static final String INSERT_CUSTOMER = "INSERT INTO Customer (customerID, gender, SeniorCitizen, Partner, Dependents, tenure) VALUES (?, ?, ?, ?, ?, ?)";
+	private static final String INSERT_SERVICE = "INSERT INTO Service (customerID, PhoneService, MultipleLines, InternetService, OnlineSecurity, OnlineBackup, DeviceProtection, TechSupport, StreamingTV, StreamingMovies, Contract, PaperlessBilling, PaymentMethod) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+	private static final String INSERT_CHARGES = "INSERT INTO MonthlyCharges (customerID, MonthlyCharges, TotalCharges, Churn) VALUES (?, ?, ?, ?)";
+	private static final String INSERT_SENIOR = "INSERT INTO SeniorCitizen (customerID, SeniorCitizen) VALUES (?, ?)";
+	private static final String INSERT_PARTNER_DEPENDENTS = "INSERT INTO PartnerDependents (customerID, Partner, Dependents) VALUES (?, ?, ?)";
+	private static final String INSERT_CHECKPOINT = "INSERT INTO IngestCheckpoint (sourceFile, startOffset, endOffset, rowCount) VALUES (?, ?, ?, ?)";
+	private static final String START_BULK_LOAD = "SET @churn_bulk_load = 1";
+	private static final String END_BULK_LOAD = "SET @churn_bulk_load = NULL";
+	// Same columns as the RefreshCustomerProfile procedure; followed by an IN list of customer IDs
+	private static final String REBUILD_PROFILES = "REPLACE INTO CustomerProfile "
+			+ "SELECT c.customerID, c.gender, c.SeniorCitizen, c.Partner, c.Dependents, c.tenure, "
+			+ "s.PhoneService, s.MultipleLines, s.InternetService, s.OnlineSecurity, s.OnlineBackup, s.DeviceProtection, "
+			+ "s.TechSupport, s.StreamingTV, s.StreamingMovies, s.Contract, s.PaperlessBilling, s.PaymentMethod, "
+			+ "m.MonthlyCharges, m.TotalCharges, m.Churn "
+			+ "FROM Customer c "
+			+ "LEFT JOIN Service s ON s.customerID = c.customerID "
+			+ "LEFT JOIN MonthlyCharges m ON m.customerID = c.customerID "
+			+ "WHERE c.customerID IN ";
+	private static final String LOG_CHANGES = "INSERT INTO StatisticsChangeLog (customerID) "
+			+ "SELECT customerID FROM Customer WHERE customerID IN ";
+
+	/**
+	 * A byte range of the file made of whole lines.
+	 */
+	private static class Chunk {
+		final long start;
+		final long end;
+
+		Chunk(long start, long end) {
+			this.start = start;
+			this.end = end;
+		}
+	}
+
+	private final ConnectionPool pool;
+	private final Path csvFile;
+	private final int threadCount;
+	private final int batchSize;
+	private final long chunkBytes;
+	private final AtomicLong rowsWritten = new AtomicLong();
+
+	/**
+	 * Creates a new CsvIngestor.
+	 *
+	 * @param pool        The pool to borrow connections from. It must allow at
+	 *                    least {@code threadCount} connections.
+	 * @param csvFile     The Customer-Churn.csv file to load.
+	 * @param threadCount The number of threads parsing and writing chunks.
+	 * @param batchSize   The number of rows per JDBC batch.
+	 * @param chunkBytes  The approximate size of a chunk in bytes.
+	 */
+	public CsvIngestor(ConnectionPool pool, Path csvFile, int threadCount, int batchSize, long chunkBytes) {
+		this.pool = pool;
+		this.csvFile = csvFile;
+		this.threadCount = threadCount;
+		this.batchSize = batchSize;
+		this.chunkBytes = chunkBytes;
+	}
+
+	/**
+	 * Loads every chunk of the file that has not been loaded yet.
+	 *
+	 * @return The number of CSV rows loaded by this run.
+	 * @throws IOException  If the file cannot be read.
+	 * @throws SQLException If writing to the database fails, or the checkpoint
+	 *                      was recorded with a different chunk size.
+	 */
+	public long run() throws IOException, SQLException {
+		List<Chunk> chunks = splitIntoChunks();
+		Map<Long, Long> loaded = readCheckpoint();
+		List<Chunk> pending = new ArrayList<>();
+		for (Chunk chunk : chunks) {
+			Long end = loaded.remove(chunk.start);
+			if (end == null) {
+				pending.add(chunk);
+			} else if (end != chunk.end) {
+				throw new SQLException("Checkpoint of " + sourceName()
+						+ " was recorded with a different chunk size; rerun with the same --chunk-mb or clear IngestCheckpoint.");
+			}
+		}
+		if (!loaded.isEmpty()) {
+			throw new SQLException("Checkpoint of " + sourceName()
+					+ " was recorded with a different chunk size; rerun with the same --chunk-mb or clear IngestCheckpoint.");
+		}
+
+		ExecutorService workers = Executors.newFixedThreadPool(threadCount);
+		try (FileChannel channel = FileChannel.open(csvFile, StandardOpenOption.READ)) {
+			List<Future<?>> results = new ArrayList<>();
+			for (Chunk chunk : pending) {
+				results.add(workers.submit(() -> {
+					loadChunk(channel, chunk);
+					return null;
+				}));
+			}
+			for (Future<?> result : results) {
+				result.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while loading " + sourceName() + ".", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof SQLException) {
+				throw (SQLException) cause;
+			}
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			throw new SQLException("Failed to load " + sourceName() + ".", cause);
+		} finally {
+			workers.shutdownNow();
+		}
+		return rowsWritten.get();
+	}
+
+	/**
+	 * @return The number of CSV rows committed so far.
+	 */
+	public long getRowsWritten() {
+		return rowsWritten.get();
+	}
+
+	/**
+	 * Splits the file after the header line into chunks that end on line
+	 * boundaries. Only the bytes around each boundary are read.
+	 */
+	private List<Chunk> splitIntoChunks() throws IOException {
+		List<Chunk> chunks = new ArrayList<>();
+		try (FileChannel channel = FileChannel.open(csvFile, StandardOpenOption.READ)) {
+			long size = channel.size();
+			long start = nextLineStart(channel, 0, size);
+			while (start < size) {
+				long end = start + chunkBytes >= size ? size : nextLineStart(channel, start + chunkBytes, size);
+				chunks.add(new Chunk(start, end));
+				start = end;
+			}
+		}
+		return chunks;
+	}
+
+	/**
+	 * Returns the offset of the first line starting after the given position.
+	 */
+	private static long nextLineStart(FileChannel channel, long position, long size) throws IOException {
+		while (position < size) {
+			long length = Math.min(64 * 1024, size - position);
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+			for (int i = 0; i < length; i++) {
+				if (buffer.get(i) == '\n') {
+					return position + i + 1;
+				}
+			}
+			position += length;
+		}
+		return size;
+	}
+
+	/**
+	 * Returns the chunks of this file already loaded, by start offset.
+	 */
+	private Map<Long, Long> readCheckpoint() throws SQLException {
+		Map<Long, Long> loaded = new HashMap<>();
+		try (Connection connection = pool.getConnection();
+				PreparedStatement statement = connection
+						.prepareStatement("SELECT startOffset, endOffset FROM IngestCheckpoint WHERE sourceFile = ?")) {
+			statement.setString(1, sourceName());
+			try (ResultSet resultSet = statement.executeQuery()) {
+				while (resultSet.next()) {
+					loaded.put(resultSet.getLong("startOffset"), resultSet.getLong("endOffset"));
+				}
+			}
+		}
+		return loaded;
+	}
+
+	/**
+	 * Parses one chunk and writes it, together with its profiles, change log
+	 * entries and checkpoint row, in one transaction.
+	 */
+	private void loadChunk(FileChannel channel, Chunk chunk) throws IOException, SQLException {
+		List<String[]> rows = parseChunk(
+				channel.map(FileChannel.MapMode.READ_ONLY, chunk.start, chunk.end - chunk.start));
+		try (Connection connection = pool.getConnection()) {
+			connection.setAutoCommit(false);
+			execute(connection, START_BULK_LOAD);
+			Exception failure = null;
+			try (PreparedStatement customerStatement = connection.prepareStatement(INSERT_CUSTOMER);
+					PreparedStatement serviceStatement = connection.prepareStatement(INSERT_SERVICE);
+					PreparedStatement chargesStatement = connection.prepareStatement(INSERT_CHARGES);
+					PreparedStatement seniorStatement = connection.prepareStatement(INSERT_SENIOR);
+					PreparedStatement partnerDependentsStatement = connection.prepareStatement(INSERT_PARTNER_DEPENDENTS);
+					PreparedStatement checkpointStatement = connection.prepareStatement(INSERT_CHECKPOINT)) {
+				// Customers go first so the other tables' foreign keys are satisfied
+				for (int from = 0; from < rows.size(); from += batchSize) {
+					int to = Math.min(rows.size(), from + batchSize);
+					for (int i = from; i < to; i++) {
+						addCustomer(customerStatement, rows.get(i));
+					}
+					customerStatement.executeBatch();
+				}
+				for (int from = 0; from < rows.size(); from += batchSize) {
+					int to = Math.min(rows.size(), from + batchSize);
+					for (int i = from; i < to; i++) {
+						String[] row = rows.get(i);
+						addService(serviceStatement, row);
+						addCharges(chargesStatement, row);
+						addSenior(seniorStatement, row);
+						addPartnerDependents(partnerDependentsStatement, row);
+					}
+					serviceStatement.executeBatch();
+					chargesStatement.executeBatch();
+					seniorStatement.executeBatch();
+					partnerDependentsStatement.executeBatch();
+				}
+				List<String> customerIDs = new ArrayList<>(rows.size());
+				for (String[] row : rows) {
+					customerIDs.add(row[CUSTOMER_ID]);
+				}
+				for (int from = 0; from < customerIDs.size(); from += InList.MAX_SIZE) {
+					List<String> ids = customerIDs.subList(from, Math.min(customerIDs.size(), from + InList.MAX_SIZE));
+					String list = InList.placeholders(ids.size());
+					try (PreparedStatement profileStatement = connection.prepareStatement(REBUILD_PROFILES + list);
+							PreparedStatement logStatement = connection.prepareStatement(LOG_CHANGES + list)) {
+						InList.bind(profileStatement, 1, ids);
+						profileStatement.executeUpdate();
+						InList.bind(logStatement, 1, ids);
+						logStatement.executeUpdate();
+					}
+				}
+				checkpointStatement.setString(1, sourceName());
+				checkpointStatement.setLong(2, chunk.start);
+				checkpointStatement.setLong(3, chunk.end);
+				checkpointStatement.setInt(4, rows.size());
+				checkpointStatement.executeUpdate();
+				connection.commit();
+				rowsWritten.addAndGet(rows.size());
+			} catch (SQLException | RuntimeException e) {
+				failure = e;
+				try {
+					connection.rollback();
+				} catch (SQLException ex) {
+					e.addSuppressed(ex);
+				}
+				throw e;
+			} finally {
+				// The variable lives as long as the session, which outlives this pooled borrow
+				try {
+					execute(connection, END_BULK_LOAD);
+				} catch (SQLException e) {
+					// A broken connection fails here too; keep the failure of the chunk as the cause
+					if (failure == null) {
+						throw e;
+					}
+					failure.addSuppressed(e);
+				}
+			}
+		}
+	}
+
+	private static void execute(Connection connection, String sql) throws SQLException {
+		try (PreparedStatement statement = connection.prepareStatement(sql)) {
+			statement.execute();
+		}
+	}
+
+	/**
+	 * Splits the mapped lines of a chunk into their fields. The file has no
+	 * quoted fields, so a comma always separates two fields.
+	 */
+	private static List<String[]> parseChunk(MappedByteBuffer buffer) throws IOException {
+		List<String[]> rows = new ArrayList<>();
+		byte[] line = new byte[256];
+		int length = 0;
+		int limit = buffer.limit();
+		for (int i = 0; i <= limit; i++) {
+			byte b = i < limit ? buffer.get(i) : (byte) '\n';
+			if (b == '\n') {
+				if (length > 0 && line[length - 1] == '\r') {
+					length--;
+				}
+				if (length > 0) {
+					rows.add(splitLine(line, length));
+				}
+				length = 0;
+			} else {
+				if (length == line.length) {
+					line = Arrays.copyOf(line, length * 2);
+				}
+				line[length++] = b;
+			}
+		}
+		return rows;
+	}
+
+	private static String[] splitLine(byte[] line, int length) throws IOException {
+		String[] fields = new String[COLUMN_COUNT];
+		int field = 0;
+		int start = 0;
+		for (int i = 0; i <= length; i++) {
+			if (i == length || line[i] == ',') {
+				if (field == COLUMN_COUNT) {
+					throw new IOException("Too many columns in line: " + new String(line, 0, length, StandardCharsets.UTF_8));
+				}
+				fields[field++] = new String(line, start, i - start, StandardCharsets.UTF_8).trim();
+				start = i + 1;
+			}
+		}
+		if (field != COLUMN_COUNT) {
+			throw new IOException("Expected " + COLUMN_COUNT + " columns in line: "
+					+ new String(line, 0, length, StandardCharsets.UTF_8));
+		}
+		return fields;
+	}
+
+	private static void addCustomer(PreparedStatement statement, String[] row) throws SQLException {
+		statement.setString(1, row[CUSTOMER_ID]);
+		statement.setString(2, row[GENDER]);
+		statement.setInt(3, Integer.parseInt(row[SENIOR_CITIZEN]));
+		statement.setString(4, row[PARTNER]);
+		statement.setString(5, row[DEPENDENTS]);
+		statement.setInt(6, Integer.parseInt(row[TENURE]));
+		statement.addBatch();
+	}
+
+	private static void addService(PreparedStatement statement, String[] row) throws SQLException {
+		statement.setString(1, row[CUSTOMER_ID]);
+		// PhoneService through StreamingMovies are contiguous in the file
+		for (int i = 0; i < CustomerStatistics.SERVICE_COLUMNS.length; i++) {
+			statement.setString(2 + i, row[PHONE_SERVICE + i]);
+		}
+		statement.setString(11, row[CONTRACT]);
+		statement.setString(12, row[PAPERLESS_BILLING]);
+		statement.setString(13, row[PAYMENT_METHOD]);
+		statement.addBatch();
+	}
+
+	private static void addCharges(PreparedStatement statement, String[] row) throws SQLException {
+		statement.setString(1, row[CUSTOMER_ID]);
+		statement.setBigDecimal(2, new BigDecimal(row[MONTHLY_CHARGES]));
+		// New customers have a blank TotalCharges
+		if (row[TOTAL_CHARGES].isEmpty()) {
+			statement.setNull(3, Types.DECIMAL);
+		} else {
+			statement.setBigDecimal(3, new BigDecimal(row[TOTAL_CHARGES]));
+		}
+		statement.setString(4, row[CHURN]);
+		statement.addBatch();
+	}
+
+	private static void addSenior(PreparedStatement statement, String[] row) throws SQLException {
+		statement.setString(1, row[CUSTOMER_ID]);
+		statement.setInt(2, Integer.parseInt(row[SENIOR_CITIZEN]));
+		statement.addBatch();
+	}
+
+	private static void addPartnerDependents(PreparedStatement statement, String[] row) throws SQLException {
+		statement.setString(1, row[CUSTOMER_ID]);
+		statement.setString(2, row[PARTNER]);
+		statement.setString(3, row[DEPENDENTS]);
+		statement.addBatch();
+	}
+
+	private String sourceName() {
+		return csvFile.getFileName().toString();
+	}
+
+	/**
+	 * Loads a CSV file into the churn database and reports the throughput.
+	 * Usage: CsvIngestor [file] [--threads N] [--batch-size N] [--chunk-mb N].
+	 * The file defaults to Customer-Churn.csv.
+	 *
+	 * @param args The command line arguments.
+	 */
+	public static void main(String[] args) {
+		Path csvFile = Paths.get("Customer-Churn.csv");
+		int threadCount = Runtime.getRuntime().availableProcessors();
+		int batchSize = 1000;
+		long chunkBytes = 8L * 1024 * 1024;
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+			case "--threads":
+				threadCount = Integer.parseInt(args[++i]);
+				break;
+			case "--batch-size":
+				batchSize = Integer.parseInt(args[++i]);
+				break;
+			case "--chunk-mb":
+				chunkBytes = Long.parseLong(args[++i]) * 1024 * 1024;
+				break;
+			default:
+				csvFile = Paths.get(args[i]);
+			}
+		}
+
+		ConnectionPool pool = ConnectionPool.createDefault(0, threadCount, Long.MAX_VALUE);
+		CsvIngestor ingestor = new CsvIngestor(pool, csvFile, threadCount, batchSize, chunkBytes);
+		long start = System.nanoTime();
+		try {
+			long rows = ingestor.run();
+			double seconds = (System.nanoTime() - start) / 1e9;
+			System.out.printf("Loaded %d rows from %s in %.1f s, %.0f rows/s%n", rows, csvFile, seconds,
+					rows / seconds);
+		} catch (IOException | SQLException e) {
+			System.err.println("Failed to load " + csvFile + " after " + ingestor.getRowsWritten()
+					+ " rows; rerun to resume.");
+			e.printStackTrace();
+			System.exit(1);
+		} finally {
+			pool.close();
+		}
+	}
+}
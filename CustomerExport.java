@@ -0,0 +1,606 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.Deflater;
+
+/**
+ * CustomerExport writes every customer profile together with its insights
+ * statistics to a file, either as CSV or in a compressed columnar format.
+ * <p>
+ * The reader streams the rows with a server-side cursor and fills blocks of
+ * {@code blockSize} rows, which a writer thread encodes into a direct buffer
+ * and writes to a file channel. Blocks are recycled through a bounded pool,
+ * so memory use does not depend on the number of customers and the reader
+ * waits whenever the disk falls behind. The file is written under a
+ * temporary name and moved into place once complete.
+ * <p>
+ * The columnar format is little-endian: a header with {@link #MAGIC},
+ * {@link #VERSION}, the column count and each column's kind and name, then
+ * one record per block holding its row count and, for every column, the
+ * encoded and the deflated length followed by the deflated values. A block
+ * of zero rows followed by the total row count ends the file. Text values
+ * are written as a varint of their UTF-8 length plus one, 0 meaning NULL;
+ * integers as 4 bytes, {@link Integer#MIN_VALUE} meaning NULL; decimals as
+ * 8-byte doubles, NaN meaning NULL.
+ */
+public class CustomerExport {
+
+	/**
+	 * The file format of an export.
+	 */
+	public enum Format {
+		CSV, COLUMNAR
+	}
+
+	public static final int MAGIC = 0x50584843; // "CHXP"
+	public static final int VERSION = 1;
+
+	// Column kinds, as written to the columnar header
+	static final byte TEXT = 0;
+	static final byte INT = 1;
+	static final byte DECIMAL = 2;
+
+	static final String[] COLUMNS = { "customerID", "gender", "SeniorCitizen", "Partner", "Dependents", "tenure",
+			"PhoneService", "MultipleLines", "InternetService", "OnlineSecurity", "OnlineBackup", "DeviceProtection",
+			"TechSupport", "StreamingTV", "StreamingMovies", "Contract", "PaperlessBilling", "PaymentMethod",
+			"MonthlyCharges", "TotalCharges", "Churn", "CustomerLifetimeValue", "DiscountEligibility",
+			"NumberOfServices", "ChurnRisk" };
+	static final byte[] KINDS = { TEXT, TEXT, INT, TEXT, TEXT, INT, TEXT, TEXT, TEXT, TEXT, TEXT, TEXT, TEXT, TEXT,
+			TEXT, TEXT, TEXT, TEXT, DECIMAL, DECIMAL, TEXT, DECIMAL, TEXT, INT, DECIMAL };
+
+	// The statistics, one indexed join each on the unique (customerID, statisticName) key
+	private static final String[] STATISTICS = { CustomerStatistics.CUSTOMER_LIFETIME_VALUE,
+			CustomerStatistics.DISCOUNT_ELIGIBILITY, CustomerStatistics.NUMBER_OF_SERVICES,
+			CustomerStatistics.CHURN_RISK };
+
+	static final String EXPORT_QUERY = exportQuery();
+
+	// Blocks queued for the writer; two more are being filled and written
+	private static final int QUEUE_CAPACITY = 4;
+	private static final int OUTPUT_BUFFER_SIZE = 1 << 20;
+
+	/**
+	 * The values of a block of rows, column by column. Each column lives in
+	 * the array of its kind, at the position counted among the columns of
+	 * that kind.
+	 */
+	private static class Block {
+		final String[][] texts;
+		final int[][] ints;
+		final double[][] decimals;
+		int size;
+
+		Block(int blockSize) {
+			texts = new String[countKind(TEXT)][blockSize];
+			ints = new int[countKind(INT)][blockSize];
+			decimals = new double[countKind(DECIMAL)][blockSize];
+		}
+	}
+
+	// Position of each column in the arrays of its kind
+	private static final int[] SLOTS = new int[COLUMNS.length];
+
+	static {
+		int[] counts = new int[3];
+		for (int column = 0; column < COLUMNS.length; column++) {
+			SLOTS[column] = counts[KINDS[column]]++;
+		}
+	}
+
+	// Marks the end of the rows for the writer
+	private static final Block END = new Block(0);
+
+	private final ConnectionPool pool;
+	private final Format format;
+	private final int blockSize;
+	private final AtomicLong rowsWritten = new AtomicLong();
+	private final AtomicReference<Exception> failure = new AtomicReference<>();
+
+	/**
+	 * Creates a new CustomerExport.
+	 *
+	 * @param pool      The pool to borrow the reading connection from.
+	 * @param format    The format of the file.
+	 * @param blockSize The number of rows handed to the writer at a time.
+	 */
+	public CustomerExport(ConnectionPool pool, Format format, int blockSize) {
+		this.pool = pool;
+		this.format = format;
+		this.blockSize = blockSize;
+	}
+
+	/**
+	 * @param path A file name.
+	 * @return CSV for names ending in .csv, the columnar format otherwise.
+	 */
+	public static Format formatOf(Path path) {
+		return path.getFileName().toString().toLowerCase().endsWith(".csv") ? Format.CSV : Format.COLUMNAR;
+	}
+
+	private static String exportQuery() {
+		StringBuilder query = new StringBuilder("SELECT ");
+		for (int column = 0; column < COLUMNS.length - STATISTICS.length; column++) {
+			query.append("p.").append(COLUMNS[column]).append(", ");
+		}
+		for (int i = 0; i < STATISTICS.length; i++) {
+			query.append(i == 0 ? "" : ", ").append("i").append(i).append(".statisticValue");
+		}
+		query.append(" FROM CustomerProfile p");
+		for (int i = 0; i < STATISTICS.length; i++) {
+			query.append(" LEFT JOIN InsightsStatistics i").append(i).append(" ON i").append(i)
+					.append(".customerID = p.customerID AND i").append(i).append(".statisticName = '")
+					.append(STATISTICS[i]).append("'");
+		}
+		return query.toString();
+	}
+
+	private static int countKind(byte kind) {
+		int count = 0;
+		for (byte columnKind : KINDS) {
+			if (columnKind == kind) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Exports every customer to a file, replacing it once the export is
+	 * complete.
+	 *
+	 * @param path The file to write.
+	 * @return The number of customers exported.
+	 * @throws SQLException If the customers cannot be read.
+	 * @throws IOException  If the file cannot be written.
+	 */
+	public long run(Path path) throws SQLException, IOException {
+		try (Connection connection = pool.getConnection();
+				PreparedStatement statement = ConnectionPool.prepareStreaming(connection, EXPORT_QUERY);
+				ResultSet resultSet = statement.executeQuery()) {
+			return export(resultSet, path);
+		}
+	}
+
+	/**
+	 * Exports the rows of a result set with the columns of
+	 * {@link #EXPORT_QUERY} to a file.
+	 */
+	long export(ResultSet resultSet, Path path) throws SQLException, IOException {
+		BlockingQueue<Block> full = new ArrayBlockingQueue<>(QUEUE_CAPACITY + 1);
+		BlockingQueue<Block> free = new ArrayBlockingQueue<>(QUEUE_CAPACITY + 2);
+		for (int i = 0; i < QUEUE_CAPACITY + 2; i++) {
+			free.add(new Block(blockSize));
+		}
+		Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+		Thread writer = new Thread(() -> {
+			try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+					StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+				writeBlocks(channel, full, free);
+			} catch (InterruptedException e) {
+				// The export was interrupted
+				failure.compareAndSet(null, e);
+			} catch (Exception e) {
+				// Stop the reader and keep recycling blocks so it never blocks on an empty pool
+				failure.compareAndSet(null, e);
+				try {
+					for (Block block = full.take(); block != END; block = full.take()) {
+						free.put(block);
+					}
+				} catch (InterruptedException interrupted) {
+					// The export was interrupted
+				}
+			}
+		}, "customer-export-writer");
+		writer.start();
+
+		try {
+			try {
+				readRows(resultSet, full, free);
+			} finally {
+				full.put(END);
+				writer.join();
+			}
+		} catch (InterruptedException e) {
+			writer.interrupt();
+			Thread.currentThread().interrupt();
+			Files.deleteIfExists(temporary);
+			throw new IOException("Interrupted while exporting customers.", e);
+		} catch (SQLException | RuntimeException e) {
+			Files.deleteIfExists(temporary);
+			throw e;
+		}
+		Exception error = failure.get();
+		if (error != null) {
+			Files.deleteIfExists(temporary);
+			throw error instanceof IOException ? (IOException) error
+					: new IOException("Failed to export customers.", error);
+		}
+		Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		return rowsWritten.get();
+	}
+
+	/**
+	 * @return The number of customers written so far.
+	 */
+	public long getRowsWritten() {
+		return rowsWritten.get();
+	}
+
+	/**
+	 * Reads the rows into blocks taken from the pool and queues them for the
+	 * writer.
+	 */
+	private void readRows(ResultSet resultSet, BlockingQueue<Block> full, BlockingQueue<Block> free)
+			throws SQLException, InterruptedException {
+		Block block = free.take();
+		block.size = 0;
+		while (resultSet.next()) {
+			int row = block.size++;
+			for (int column = 0; column < COLUMNS.length; column++) {
+				switch (KINDS[column]) {
+				case INT:
+					int value = resultSet.getInt(column + 1);
+					block.ints[SLOTS[column]][row] = resultSet.wasNull() ? Integer.MIN_VALUE : value;
+					break;
+				case DECIMAL:
+					double decimal = resultSet.getDouble(column + 1);
+					block.decimals[SLOTS[column]][row] = resultSet.wasNull() ? Double.NaN : decimal;
+					break;
+				default:
+					block.texts[SLOTS[column]][row] = resultSet.getString(column + 1);
+				}
+			}
+			if (block.size == blockSize) {
+				full.put(block);
+				if (failure.get() != null) {
+					return;
+				}
+				block = free.take();
+				block.size = 0;
+			}
+		}
+		if (block.size > 0) {
+			full.put(block);
+		}
+	}
+
+	/**
+	 * Encodes and writes queued blocks until the end marker is reached.
+	 */
+	private void writeBlocks(FileChannel channel, BlockingQueue<Block> full, BlockingQueue<Block> free)
+			throws IOException, InterruptedException {
+		Output out = new Output(channel);
+		ColumnEncoder encoder = format == Format.COLUMNAR ? new ColumnEncoder() : null;
+		if (encoder != null) {
+			encoder.writeHeader(out);
+		} else {
+			for (int column = 0; column < COLUMNS.length; column++) {
+				out.reserve(COLUMNS[column].length() + 1);
+				putUtf8(out.buffer, COLUMNS[column]);
+				out.buffer.put((byte) (column == COLUMNS.length - 1 ? '\n' : ','));
+			}
+		}
+		long rows = 0;
+		for (Block block = full.take(); block != END; block = full.take()) {
+			if (encoder != null) {
+				encoder.writeBlock(out, block);
+			} else {
+				writeCsv(out, block);
+			}
+			rows += block.size;
+			rowsWritten.addAndGet(block.size);
+			free.put(block);
+		}
+		if (encoder != null) {
+			out.reserve(12);
+			out.buffer.putInt(0).putLong(rows);
+		}
+		out.flush();
+		channel.force(false);
+	}
+
+	/**
+	 * Writes the rows of a block as CSV lines.
+	 */
+	private static void writeCsv(Output out, Block block) throws IOException {
+		for (int row = 0; row < block.size; row++) {
+			for (int column = 0; column < COLUMNS.length; column++) {
+				if (column > 0) {
+					out.reserve(1);
+					out.buffer.put((byte) ',');
+				}
+				switch (KINDS[column]) {
+				case INT:
+					int value = block.ints[SLOTS[column]][row];
+					if (value != Integer.MIN_VALUE) {
+						putAscii(out, Integer.toString(value));
+					}
+					break;
+				case DECIMAL:
+					double decimal = block.decimals[SLOTS[column]][row];
+					if (!Double.isNaN(decimal)) {
+						putAscii(out, Double.toString(decimal));
+					}
+					break;
+				default:
+					putCsvText(out, block.texts[SLOTS[column]][row]);
+				}
+			}
+			out.reserve(1);
+			out.buffer.put((byte) '\n');
+		}
+	}
+
+	private static void putAscii(Output out, String value) throws IOException {
+		out.reserve(value.length());
+		for (int i = 0; i < value.length(); i++) {
+			out.buffer.put((byte) value.charAt(i));
+		}
+	}
+
+	/**
+	 * Writes a text value, quoted if it contains a separator, a quote or a
+	 * line break. NULL is written as an empty field.
+	 */
+	private static void putCsvText(Output out, String value) throws IOException {
+		if (value == null) {
+			return;
+		}
+		boolean quote = false;
+		for (int i = 0; i < value.length() && !quote; i++) {
+			char c = value.charAt(i);
+			quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+		}
+		if (!quote) {
+			out.reserve(3 * value.length());
+			putUtf8(out.buffer, value);
+			return;
+		}
+		String escaped = '"' + value.replace("\"", "\"\"") + '"';
+		out.reserve(3 * escaped.length());
+		putUtf8(out.buffer, escaped);
+	}
+
+	/**
+	 * Appends a string as UTF-8. The buffer must have room for three bytes per
+	 * character.
+	 */
+	static void putUtf8(ByteBuffer buffer, String value) {
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c >= 0x80) {
+				// Rare in this data set; encode the rest of the string at once
+				buffer.put(value.substring(i).getBytes(StandardCharsets.UTF_8));
+				return;
+			}
+			buffer.put((byte) c);
+		}
+	}
+
+	/**
+	 * A direct buffer in front of the file channel, written out whenever a
+	 * value does not fit.
+	 */
+	private static class Output {
+		final FileChannel channel;
+		final ByteBuffer buffer = ByteBuffer.allocateDirect(OUTPUT_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+		Output(FileChannel channel) {
+			this.channel = channel;
+		}
+
+		/**
+		 * Makes room for at least the given number of bytes, at most the
+		 * buffer size.
+		 */
+		void reserve(int bytes) throws IOException {
+			if (buffer.remaining() < bytes) {
+				flush();
+			}
+		}
+
+		void put(byte[] bytes, int length) throws IOException {
+			int offset = 0;
+			while (offset < length) {
+				if (!buffer.hasRemaining()) {
+					flush();
+				}
+				int count = Math.min(length - offset, buffer.remaining());
+				buffer.put(bytes, offset, count);
+				offset += count;
+			}
+		}
+
+		void flush() throws IOException {
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			buffer.clear();
+		}
+	}
+
+	/**
+	 * Encodes the columns of a block one at a time and deflates them. The
+	 * buffers are reused across blocks and grow to the largest column.
+	 */
+	private static class ColumnEncoder {
+		private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		private ByteBuffer encoded = ByteBuffer.allocate(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+		private byte[] deflated = new byte[64 * 1024];
+
+		void writeHeader(Output out) throws IOException {
+			out.reserve(12);
+			out.buffer.putInt(MAGIC).putInt(VERSION).putInt(COLUMNS.length);
+			for (int column = 0; column < COLUMNS.length; column++) {
+				byte[] name = COLUMNS[column].getBytes(StandardCharsets.UTF_8);
+				out.reserve(3 + name.length);
+				out.buffer.put(KINDS[column]).putShort((short) name.length).put(name);
+			}
+		}
+
+		void writeBlock(Output out, Block block) throws IOException {
+			out.reserve(4);
+			out.buffer.putInt(block.size);
+			for (int column = 0; column < COLUMNS.length; column++) {
+				encoded.clear();
+				encode(block, column);
+				int length = deflate();
+				out.reserve(8);
+				out.buffer.putInt(encoded.position()).putInt(length);
+				out.put(deflated, length);
+			}
+		}
+
+		private void encode(Block block, int column) {
+			int slot = SLOTS[column];
+			switch (KINDS[column]) {
+			case INT:
+				ensure(4 * block.size);
+				for (int row = 0; row < block.size; row++) {
+					encoded.putInt(block.ints[slot][row]);
+				}
+				break;
+			case DECIMAL:
+				ensure(8 * block.size);
+				for (int row = 0; row < block.size; row++) {
+					encoded.putDouble(block.decimals[slot][row]);
+				}
+				break;
+			default:
+				for (int row = 0; row < block.size; row++) {
+					String value = block.texts[slot][row];
+					if (value == null) {
+						ensure(1);
+						encoded.put((byte) 0);
+						continue;
+					}
+					ensure(5 + 3 * value.length());
+					// Reserve the varint for the longest encoding, then move the bytes if it is shorter
+					int start = encoded.position();
+					encoded.position(start + 5);
+					putUtf8(encoded, value);
+					int length = encoded.position() - start - 5;
+					int varintEnd = putVarint(start, length + 1);
+					System.arraycopy(encoded.array(), start + 5, encoded.array(), varintEnd, length);
+					encoded.position(varintEnd + length);
+				}
+			}
+		}
+
+		/**
+		 * Writes a varint at a position and returns the position after it.
+		 */
+		private int putVarint(int position, int value) {
+			while ((value & ~0x7F) != 0) {
+				encoded.put(position++, (byte) ((value & 0x7F) | 0x80));
+				value >>>= 7;
+			}
+			encoded.put(position++, (byte) value);
+			return position;
+		}
+
+		private void ensure(int bytes) {
+			if (encoded.remaining() < bytes) {
+				ByteBuffer larger = ByteBuffer.allocate(Math.max(encoded.capacity() * 2, encoded.position() + bytes))
+						.order(ByteOrder.LITTLE_ENDIAN);
+				encoded.flip();
+				larger.put(encoded);
+				encoded = larger;
+			}
+		}
+
+		/**
+		 * Deflates the encoded column into {@code deflated}.
+		 *
+		 * @return The deflated length.
+		 */
+		private int deflate() {
+			deflater.reset();
+			deflater.setInput(encoded.array(), 0, encoded.position());
+			deflater.finish();
+			int length = 0;
+			while (!deflater.finished()) {
+				if (length == deflated.length) {
+					deflated = Arrays.copyOf(deflated, deflated.length * 2);
+				}
+				length += deflater.deflate(deflated, length, deflated.length - length);
+			}
+			return length;
+		}
+	}
+
+	/**
+	 * Exports the churn database and reports its throughput. The format
+	 * follows the file name: CSV for .csv, columnar otherwise. Options:
+	 * --output FILE, --block-size N.
+	 *
+	 * @param args The command line options.
+	 */
+	public static void main(String[] args) {
+		Path output = Path.of("customers.csv");
+		int blockSize = 4096;
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			switch (args[i]) {
+			case "--output":
+				output = Path.of(args[i + 1]);
+				break;
+			case "--block-size":
+				blockSize = Integer.parseInt(args[i + 1]);
+				break;
+			default:
+				System.err.println("Unknown option: " + args[i]);
+				System.exit(2);
+			}
+		}
+
+		ConnectionPool pool = ConnectionPool.createDefault(0, 1, Long.MAX_VALUE);
+		CustomerExport export = new CustomerExport(pool, formatOf(output), blockSize);
+		long start = System.nanoTime();
+		Thread progress = new Thread(() -> {
+			try {
+				while (true) {
+					TimeUnit.SECONDS.sleep(5);
+					printThroughput("Progress", export.getRowsWritten(), start);
+				}
+			} catch (InterruptedException e) {
+				// Export finished
+			}
+		});
+		progress.setDaemon(true);
+		progress.start();
+		try {
+			export.run(output);
+			printThroughput("Done", export.getRowsWritten(), start);
+			System.out.printf("Wrote %s (%.1f MB)%n", output, Files.size(output) / (1024.0 * 1024.0));
+		} catch (SQLException | IOException e) {
+			System.err.println("Failed to export customers.");
+			e.printStackTrace();
+			System.exit(1);
+		} finally {
+			progress.interrupt();
+			pool.close();
+		}
+	}
+
+	private static void printThroughput(String label, long customers, long start) {
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.printf("%s: %d customers in %.1f s, %.0f rows/s%n", label, customers, seconds, customers / seconds);
+	}
+}
@@ -0,0 +1,133 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * CustomerIdIndex holds every customer ID in a sorted array, so the IDs
+ * starting with a prefix are found with one binary search and then read in
+ * order. Matching ignores case, like the MySQL default collation.
+ * <p>
+ * The array is replaced, never modified, when customers are added, so
+ * lookups need no locking and always see a complete index. Each index
+ * remembers the customer version of the ChangeVersion table it was loaded
+ * at, so {@link #sync(Connection)} can poll for added or removed customers
+ * without consuming anything other clients rely on.
+ */
+public class CustomerIdIndex {
+
+	private static final String LOAD_QUERY = "SELECT customerID FROM Customer";
+	private static final String VERSION_QUERY = "SELECT SUM(customers) FROM ChangeVersion";
+
+	private volatile String[] ids = new String[0];
+	// The customer version the IDs were loaded at, or -1 before the first load
+	private long version = -1;
+
+	/**
+	 * Replaces the index with every customer ID of the Customer table.
+	 *
+	 * @param connection The connection to read the IDs with.
+	 * @throws SQLException If the IDs cannot be read.
+	 */
+	public synchronized void load(Connection connection) throws SQLException {
+		// Read first, so a customer added while loading triggers the next sync
+		long loadedVersion = readVersion(connection);
+		List<String> loaded = new ArrayList<>();
+		try (PreparedStatement statement = ConnectionPool.prepareStreaming(connection, LOAD_QUERY);
+				ResultSet resultSet = statement.executeQuery()) {
+			while (resultSet.next()) {
+				loaded.add(resultSet.getString(1));
+			}
+		}
+		String[] sorted = loaded.toArray(new String[0]);
+		Arrays.sort(sorted, String.CASE_INSENSITIVE_ORDER);
+		ids = sorted;
+		version = loadedVersion;
+	}
+
+	/**
+	 * Reloads the index if customers were added or removed since it was
+	 * loaded.
+	 *
+	 * @param connection The connection to read the IDs with.
+	 * @return True if the index was reloaded.
+	 * @throws SQLException If the IDs cannot be read.
+	 */
+	public synchronized boolean sync(Connection connection) throws SQLException {
+		if (version >= 0 && readVersion(connection) == version) {
+			return false;
+		}
+		load(connection);
+		return true;
+	}
+
+	private static long readVersion(Connection connection) throws SQLException {
+		try (PreparedStatement statement = connection.prepareStatement(VERSION_QUERY);
+				ResultSet resultSet = statement.executeQuery()) {
+			return resultSet.next() ? resultSet.getLong(1) : 0;
+		}
+	}
+
+	/**
+	 * Adds customer IDs that are not in the index yet.
+	 *
+	 * @param customerIDs The IDs to add. IDs already in the index are ignored.
+	 */
+	public synchronized void addAll(Collection<String> customerIDs) {
+		String[] current = ids;
+		String[] added = customerIDs.stream()
+				.filter(id -> Arrays.binarySearch(current, id, String.CASE_INSENSITIVE_ORDER) < 0)
+				.distinct()
+				.sorted(String.CASE_INSENSITIVE_ORDER)
+				.toArray(String[]::new);
+		if (added.length == 0) {
+			return;
+		}
+		// Merge the two sorted arrays
+		String[] merged = new String[current.length + added.length];
+		int i = 0;
+		int j = 0;
+		for (int k = 0; k < merged.length; k++) {
+			if (j == added.length
+					|| (i < current.length && String.CASE_INSENSITIVE_ORDER.compare(current[i], added[j]) <= 0)) {
+				merged[k] = current[i++];
+			} else {
+				merged[k] = added[j++];
+			}
+		}
+		ids = merged;
+	}
+
+	/**
+	 * Returns the first customer IDs, in order, that start with a prefix.
+	 *
+	 * @param prefix The start of a customer ID.
+	 * @param limit  The maximum number of IDs returned.
+	 * @return The matching IDs.
+	 */
+	public List<String> suggest(String prefix, int limit) {
+		String[] sorted = ids;
+		int position = Arrays.binarySearch(sorted, prefix, String.CASE_INSENSITIVE_ORDER);
+		if (position < 0) {
+			// The prefix is not an ID itself; matches start at its insertion point
+			position = -position - 1;
+		}
+		List<String> matches = new ArrayList<>(Math.min(limit, 16));
+		while (position < sorted.length && matches.size() < limit
+				&& sorted[position].regionMatches(true, 0, prefix, 0, prefix.length())) {
+			matches.add(sorted[position++]);
+		}
+		return matches;
+	}
+
+	/**
+	 * @return The number of customer IDs in the index.
+	 */
+	public int size() {
+		return ids.length;
+	}
+}
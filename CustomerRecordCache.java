@@ -0,0 +1,237 @@
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * CustomerRecordCache keeps the rendered per-table records of recently
+ * searched customers, keyed by customer ID, so repeated searches of the same
+ * customer do not go back to MySQL. IDs are matched ignoring case, as MySQL
+ * matches them. The number of customers is bounded and
+ * the least recently used customer is evicted first; each record also
+ * expires after a fixed time to live.
+ * <p>
+ * The cache also remembers the statistics last written for each customer,
+ * so a search whose statistics are unchanged can skip the write and keep the
+ * cached records. When they change, the customer is invalidated. The memo
+ * expires with the same time to live as the records, so statistics rows
+ * deleted or overwritten by another client are rewritten after at most that
+ * long, and it is dropped together with the records on invalidation.
+ */
+public class CustomerRecordCache {
+
+	/**
+	 * A point-in-time view of the cache.
+	 */
+	public static class CacheStats {
+		public final long hits;
+		public final long misses;
+		public final long evictions;
+		public final int customers;
+		public final long estimatedBytes;
+
+		CacheStats(long hits, long misses, long evictions, int customers, long estimatedBytes) {
+			this.hits = hits;
+			this.misses = misses;
+			this.evictions = evictions;
+			this.customers = customers;
+			this.estimatedBytes = estimatedBytes;
+		}
+
+		/**
+		 * @return The fraction of lookups answered from the cache.
+		 */
+		public double getHitRate() {
+			long lookups = hits + misses;
+			return lookups == 0 ? 0 : (double) hits / lookups;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("Cache: %d customers, %.0f%% hits, %d evictions, %.1f KB", customers,
+					getHitRate() * 100, evictions, estimatedBytes / 1024.0);
+		}
+	}
+
+	/**
+	 * The cached records of one customer.
+	 */
+	private static class CustomerRecord {
+		final Map<String, String> tables = new HashMap<>();
+		final Map<String, Long> loadedAt = new HashMap<>();
+		CustomerStatistics statistics;
+		long statisticsWrittenAt;
+		long bytes;
+	}
+
+	private final int maxCustomers;
+	private final long ttlNanos;
+	private final LinkedHashMap<String, CustomerRecord> records;
+	private long hits;
+	private long misses;
+	private long evictions;
+	private long estimatedBytes;
+
+	/**
+	 * Creates a new cache.
+	 *
+	 * @param maxCustomers The maximum number of customers kept.
+	 * @param ttlMillis    How long a record stays valid after it was loaded.
+	 */
+	public CustomerRecordCache(int maxCustomers, long ttlMillis) {
+		this.maxCustomers = maxCustomers;
+		this.ttlNanos = ttlMillis * 1_000_000;
+		// Access order makes iteration start at the least recently used customer
+		this.records = new LinkedHashMap<String, CustomerRecord>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CustomerRecord> eldest) {
+				if (size() > CustomerRecordCache.this.maxCustomers) {
+					estimatedBytes -= eldest.getValue().bytes;
+					evictions++;
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Returns the cached record of a customer for a table.
+	 *
+	 * @param customerID The ID of the customer.
+	 * @param table      The table the record was rendered from.
+	 * @return The rendered record, or null if it is not cached or has expired.
+	 */
+	public synchronized String get(String customerID, String table) {
+		CustomerRecord record = records.get(keyOf(customerID));
+		String rendered = record == null ? null : record.tables.get(table);
+		if (rendered != null && System.nanoTime() - record.loadedAt.get(table) > ttlNanos) {
+			record.tables.remove(table);
+			record.loadedAt.remove(table);
+			record.bytes -= sizeOf(rendered);
+			estimatedBytes -= sizeOf(rendered);
+			rendered = null;
+		}
+		if (rendered == null) {
+			misses++;
+		} else {
+			hits++;
+		}
+		return rendered;
+	}
+
+	/**
+	 * Caches the record of a customer for a table.
+	 *
+	 * @param customerID The ID of the customer.
+	 * @param table      The table the record was rendered from.
+	 * @param rendered   The rendered record.
+	 */
+	public synchronized void put(String customerID, String table, String rendered) {
+		CustomerRecord record = recordOf(customerID);
+		String previous = record.tables.put(table, rendered);
+		record.loadedAt.put(table, System.nanoTime());
+		long delta = sizeOf(rendered) - (previous == null ? 0 : sizeOf(previous));
+		record.bytes += delta;
+		estimatedBytes += delta;
+	}
+
+	/**
+	 * Records the statistics written for a customer. If they differ from the
+	 * statistics recorded before, the cached records of the customer are
+	 * dropped because they may show the old values.
+	 *
+	 * @param statistics The statistics of the customer.
+	 * @return True if the statistics are the ones already recorded, in which
+	 *         case they do not need to be written again.
+	 */
+	public synchronized boolean updateStatistics(CustomerStatistics statistics) {
+		CustomerRecord record = records.get(keyOf(statistics.getCustomerID()));
+		long now = System.nanoTime();
+		if (record != null && record.statistics != null && now - record.statisticsWrittenAt <= ttlNanos
+				&& record.statistics.hasSameValues(statistics)) {
+			return true;
+		}
+		invalidate(statistics.getCustomerID());
+		record = recordOf(statistics.getCustomerID());
+		record.statistics = statistics;
+		record.statisticsWrittenAt = now;
+		return false;
+	}
+
+	/**
+	 * Drops everything cached for a customer, including the statistics last
+	 * written for it.
+	 *
+	 * @param customerID The ID of the customer.
+	 */
+	public synchronized void invalidate(String customerID) {
+		CustomerRecord record = records.remove(keyOf(customerID));
+		if (record != null) {
+			estimatedBytes -= record.bytes;
+		}
+	}
+
+	/**
+	 * Drops expired records. Lookups drop expired records too; this only
+	 * reclaims memory of customers that are not searched again.
+	 */
+	public synchronized void evictExpired() {
+		long now = System.nanoTime();
+		Iterator<CustomerRecord> iterator = records.values().iterator();
+		while (iterator.hasNext()) {
+			CustomerRecord record = iterator.next();
+			if (record.statistics != null && now - record.statisticsWrittenAt > ttlNanos) {
+				record.statistics = null;
+			}
+			record.loadedAt.values().removeIf(loadedAt -> now - loadedAt > ttlNanos);
+			if (record.tables.keySet().retainAll(record.loadedAt.keySet())) {
+				long bytes = 0;
+				for (String rendered : record.tables.values()) {
+					bytes += sizeOf(rendered);
+				}
+				estimatedBytes -= record.bytes - bytes;
+				record.bytes = bytes;
+			}
+			if (record.tables.isEmpty() && record.statistics == null) {
+				iterator.remove();
+			}
+		}
+	}
+
+	/**
+	 * @return The current cache statistics.
+	 */
+	public synchronized CacheStats getStats() {
+		return new CacheStats(hits, misses, evictions, records.size(), estimatedBytes);
+	}
+
+	private CustomerRecord recordOf(String customerID) {
+		String key = keyOf(customerID);
+		CustomerRecord record = records.get(key);
+		if (record == null) {
+			record = new CustomerRecord();
+			records.put(key, record);
+		}
+		return record;
+	}
+
+	/**
+	 * Returns the key of a customer ID, the same for every spelling MySQL
+	 * matches to that customer.
+	 */
+	private static String keyOf(String customerID) {
+		return customerID.toUpperCase(Locale.ROOT);
+	}
+
+	/**
+	 * Estimates the heap used by a cached string: the String object, its byte
+	 * array header and one byte per Latin-1 character.
+	 */
+	private static long sizeOf(String rendered) {
+		return 24 + 16 + rendered.length();
+	}
+}
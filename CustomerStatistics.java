@@ -0,0 +1,199 @@
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * CustomerStatistics holds the inputs of the per-customer insights (tenure,
+ * monthly charges and subscribed services) as read from the customer's
+ * CustomerProfile row, and computes the statistics stored in the
+ * InsightsStatistics table.
+ */
+public class CustomerStatistics {
+
+	public static final String CUSTOMER_LIFETIME_VALUE = "Customer Lifetime Value";
+	public static final String DISCOUNT_ELIGIBILITY = "Discount Eligibility";
+	public static final String NUMBER_OF_SERVICES = "Number of Services";
+	// Written by ChurnRiskModel rather than computed here
+	public static final String CHURN_RISK = "Churn Risk";
+
+	// Service columns counted towards the number of services
+	static final String[] SERVICE_COLUMNS = { "PhoneService", "MultipleLines", "InternetService", "OnlineSecurity",
+			"OnlineBackup", "DeviceProtection", "TechSupport", "StreamingTV", "StreamingMovies" };
+
+	// Read of tenure, monthly charges and the service columns from the one-row-per-customer profile
+	private static final String PROFILE_QUERY = "SELECT customerID, tenure, MonthlyCharges, "
+			+ String.join(", ", SERVICE_COLUMNS) + " "
+			+ "FROM CustomerProfile";
+
+	/**
+	 * Reads everything the statistics need for one customer in one round trip:
+	 * tenure, monthly charges and the service columns.
+	 */
+	public static final String LOOKUP_QUERY = PROFILE_QUERY + " WHERE customerID = ?";
+
+	/**
+	 * Returns a query reading the statistics inputs of several customers in
+	 * one round trip, whose parameters are bound with
+	 * {@link InList#bind(PreparedStatement, int, java.util.List)} from index
+	 * 1. Same columns as {@link #LOOKUP_QUERY}.
+	 *
+	 * @param count The number of customers, at most {@link InList#MAX_SIZE}.
+	 * @return The query.
+	 */
+	public static String lookupQuery(int count) {
+		return PROFILE_QUERY + " WHERE customerID IN " + InList.placeholders(count);
+	}
+
+	/**
+	 * Reads the statistics inputs of every customer. Same columns as
+	 * {@link #LOOKUP_QUERY}.
+	 */
+	public static final String ALL_CUSTOMERS_QUERY = PROFILE_QUERY;
+
+	/**
+	 * Reads the churn counters kept by the MonthlyCharges triggers, summed over
+	 * the slots of the ChurnSummary table.
+	 */
+	public static final String CHURN_SUMMARY_QUERY = "SELECT SUM(totalCustomers) AS totalCustomers, "
+			+ "SUM(churnedCustomers) AS churnedCustomers FROM ChurnSummary";
+
+	/**
+	 * Inserts a statistic or, if the customer already has one with the same
+	 * name, replaces its value. Relies on the unique (customerID,
+	 * statisticName) key of the InsightsStatistics table. The new value is
+	 * read through a row alias, which needs MySQL 8.0.19 or later.
+	 */
+	public static final String UPSERT_QUERY = "INSERT INTO InsightsStatistics (customerID, statisticName, statisticValue) VALUES (?, ?, ?) "
+			+ "AS new ON DUPLICATE KEY UPDATE statisticValue = new.statisticValue";
+
+	private final String customerID;
+	private final int tenure;
+	private final double monthlyCharges;
+	private final int numberOfServices;
+
+	/**
+	 * Creates statistics from already known inputs.
+	 *
+	 * @param customerID       The ID of the customer.
+	 * @param tenure           The tenure of the customer in months.
+	 * @param monthlyCharges   The monthly charges of the customer.
+	 * @param numberOfServices The number of subscribed services.
+	 */
+	public CustomerStatistics(String customerID, int tenure, double monthlyCharges, int numberOfServices) {
+		this.customerID = customerID;
+		this.tenure = tenure;
+		this.monthlyCharges = monthlyCharges;
+		this.numberOfServices = numberOfServices;
+	}
+
+	/**
+	 * Creates statistics from the current row of a result set produced by
+	 * {@link #LOOKUP_QUERY}.
+	 *
+	 * @param resultSet The result set positioned on a row.
+	 * @return The statistics of the customer on that row.
+	 * @throws SQLException If a column cannot be read.
+	 */
+	public static CustomerStatistics fromResultSet(ResultSet resultSet) throws SQLException {
+		String[] services = new String[SERVICE_COLUMNS.length];
+		for (int i = 0; i < SERVICE_COLUMNS.length; i++) {
+			services[i] = resultSet.getString(SERVICE_COLUMNS[i]);
+		}
+		return new CustomerStatistics(resultSet.getString("customerID"), resultSet.getInt("tenure"),
+				resultSet.getDouble("MonthlyCharges"), countServices(services));
+	}
+
+	/**
+	 * Calculates the number of non-'No' services subscribed by the customer.
+	 * Missing values are not counted.
+	 *
+	 * @param services An array containing the service subscriptions.
+	 * @return The number of non-'No' services.
+	 */
+	public static int countServices(String[] services) {
+		int numberOfNonNoServices = 0;
+		for (String service : services) {
+			if (service != null && !service.equalsIgnoreCase("No") && !service.equalsIgnoreCase("No phone service")) {
+				numberOfNonNoServices++;
+			}
+		}
+		return numberOfNonNoServices;
+	}
+
+	/**
+	 * Adds an upsert of each statistic of the customer to the batch of the
+	 * given statement, which must have been prepared from
+	 * {@link #UPSERT_QUERY}.
+	 *
+	 * @param upsertStatement The statement to add the upserts to.
+	 * @throws SQLException If a parameter cannot be set.
+	 */
+	public void addTo(PreparedStatement upsertStatement) throws SQLException {
+		add(upsertStatement, CUSTOMER_LIFETIME_VALUE, getCustomerLifetimeValue());
+		add(upsertStatement, DISCOUNT_ELIGIBILITY, isDiscountEligible() ? "Yes" : "No");
+		add(upsertStatement, NUMBER_OF_SERVICES, String.valueOf(numberOfServices));
+	}
+
+	private void add(PreparedStatement upsertStatement, String statisticName, Object statisticValue)
+			throws SQLException {
+		upsertStatement.setString(1, customerID);
+		upsertStatement.setString(2, statisticName);
+		upsertStatement.setObject(3, statisticValue);
+		upsertStatement.addBatch();
+	}
+
+	/**
+	 * Compares the statistics of two customers.
+	 *
+	 * @param other The statistics to compare with.
+	 * @return True if both are for the same customer and have the same values.
+	 */
+	public boolean hasSameValues(CustomerStatistics other) {
+		return customerID.equals(other.customerID) && tenure == other.tenure
+				&& Double.compare(monthlyCharges, other.monthlyCharges) == 0
+				&& numberOfServices == other.numberOfServices;
+	}
+
+	/**
+	 * @return The ID of the customer.
+	 */
+	public String getCustomerID() {
+		return customerID;
+	}
+
+	/**
+	 * @return The tenure of the customer in months.
+	 */
+	public int getTenure() {
+		return tenure;
+	}
+
+	/**
+	 * @return The monthly charges of the customer.
+	 */
+	public double getMonthlyCharges() {
+		return monthlyCharges;
+	}
+
+	/**
+	 * @return The customer lifetime value, monthly charges times tenure.
+	 */
+	public double getCustomerLifetimeValue() {
+		return monthlyCharges * tenure;
+	}
+
+	/**
+	 * @return True if the customer has been with the company for at least a
+	 *         year.
+	 */
+	public boolean isDiscountEligible() {
+		return tenure >= 12;
+	}
+
+	/**
+	 * @return The number of subscribed services.
+	 */
+	public int getNumberOfServices() {
+		return numberOfServices;
+	}
+}
@@ -0,0 +1,317 @@
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * FilterIndex answers filters over a {@link ColumnarSnapshot} with bitmap
+ * indexes for the low-cardinality columns and a sorted index for tenure.
+ * Each bitmap holds one bit per customer row; predicates combine with
+ * word-wise AND/OR, so a filter over millions of customers touches a few
+ * hundred kilobytes of longs.
+ * <p>
+ * Filters are written as predicates joined by AND or OR, with AND binding
+ * tighter than OR as in SQL, so {@code SeniorCitizen = 1 OR tenure >= 12 AND
+ * PaperlessBilling = Yes} matches senior citizens and every customer of a
+ * year or more with paperless billing. Supported predicates are {@code tenure >= n},
+ * {@code tenure < n}, {@code tenure = n}, {@code SeniorCitizen = n} and
+ * {@code <column> = <value>} for the dictionary-encoded columns.
+ */
+public class FilterIndex {
+
+	// Column names accepted in filters, in the order of the snapshot's categorical columns
+	private static final String[] CATEGORICAL_NAMES = ColumnarSnapshot.CATEGORICAL_COLUMNS;
+
+	private static final Pattern CONNECTIVE = Pattern.compile("\\s+(AND|OR)\\s+", Pattern.CASE_INSENSITIVE);
+	// Larger tenures are sorted with a comparison sort, so the counting sort never allocates more than this
+	private static final int MAX_COUNTING_TENURE = 1 << 16;
+
+	private static final Pattern PREDICATE = Pattern.compile("\\s*(\\w+)\\s*(>=|<|=)\\s*(.*?)\\s*");
+
+	private final int rowCount;
+	private final int wordCount;
+	private final String[] customerIDs;
+	// bitmaps[column][code] has a bit set for every row with that code
+	private final long[][][] bitmaps;
+	// seniorBitmaps[value & 0xFF] has a bit set for every row with that value, null if there is none
+	private final long[][] seniorBitmaps;
+	private final ColumnarSnapshot.Dictionary[] dictionaries;
+	// Rows ordered by tenure, with the tenure of each
+	private final int[] rowsByTenure;
+	private final int[] sortedTenure;
+
+	/**
+	 * Builds the indexes of a loaded snapshot. The index reflects the snapshot
+	 * at build time and must be rebuilt after the snapshot is refreshed.
+	 *
+	 * @param snapshot The snapshot to index.
+	 */
+	public FilterIndex(ColumnarSnapshot snapshot) {
+		ColumnarSnapshot.Columns data = snapshot.getColumns();
+		rowCount = data.rowCount;
+		wordCount = (rowCount + 63) >>> 6;
+		customerIDs = data.customerIDs;
+		dictionaries = data.dictionaries;
+
+		bitmaps = new long[data.categories.length][][];
+		for (int column = 0; column < data.categories.length; column++) {
+			bitmaps[column] = new long[dictionaries[column].size()][wordCount];
+			byte[] codes = data.categories[column];
+			long[][] columnBitmaps = bitmaps[column];
+			for (int row = 0; row < rowCount; row++) {
+				columnBitmaps[codes[row]][row >>> 6] |= 1L << row;
+			}
+		}
+		seniorBitmaps = new long[256][];
+		for (int row = 0; row < rowCount; row++) {
+			int value = data.seniorCitizen[row] & 0xFF;
+			if (seniorBitmaps[value] == null) {
+				seniorBitmaps[value] = new long[wordCount];
+			}
+			seniorBitmaps[value][row >>> 6] |= 1L << row;
+		}
+
+		rowsByTenure = new int[rowCount];
+		sortedTenure = new int[rowCount];
+		int minTenure = 0;
+		int maxTenure = 0;
+		for (int row = 0; row < rowCount; row++) {
+			minTenure = Math.min(minTenure, data.tenure[row]);
+			maxTenure = Math.max(maxTenure, data.tenure[row]);
+		}
+		if (minTenure >= 0 && maxTenure <= MAX_COUNTING_TENURE) {
+			sortByTenureCounting(data.tenure, maxTenure);
+		} else {
+			sortByTenureComparing(data.tenure);
+		}
+	}
+
+	/**
+	 * Sorts the rows by tenure with a counting sort, for the usual small
+	 * non-negative numbers of months.
+	 */
+	private void sortByTenureCounting(int[] tenures, int maxTenure) {
+		int[] starts = new int[maxTenure + 2];
+		for (int row = 0; row < rowCount; row++) {
+			starts[tenures[row] + 1]++;
+		}
+		for (int tenure = 1; tenure < starts.length; tenure++) {
+			starts[tenure] += starts[tenure - 1];
+		}
+		for (int row = 0; row < rowCount; row++) {
+			int position = starts[tenures[row]]++;
+			rowsByTenure[position] = row;
+			sortedTenure[position] = tenures[row];
+		}
+	}
+
+	/**
+	 * Sorts the rows by tenure with a comparison sort, for snapshots holding
+	 * negative or very large tenures.
+	 */
+	private void sortByTenureComparing(int[] tenures) {
+		// The tenure in the high half and the row in the low half sort by tenure, then row
+		long[] keys = new long[rowCount];
+		for (int row = 0; row < rowCount; row++) {
+			keys[row] = (long) tenures[row] << 32 | row;
+		}
+		Arrays.sort(keys);
+		for (int position = 0; position < rowCount; position++) {
+			rowsByTenure[position] = (int) keys[position];
+			sortedTenure[position] = (int) (keys[position] >> 32);
+		}
+	}
+
+	/**
+	 * Evaluates a filter expression. Each run of predicates joined by AND is
+	 * evaluated first, and the runs are then joined by OR.
+	 *
+	 * @param expression Predicates joined by AND or OR.
+	 * @return A bitmap with a bit set for every matching row.
+	 * @throws IllegalArgumentException If the expression cannot be parsed.
+	 */
+	public long[] evaluate(String expression) {
+		Matcher connectives = CONNECTIVE.matcher(expression);
+		long[] result = null;
+		long[] term = null;
+		boolean and = false;
+		int start = 0;
+		while (true) {
+			boolean found = connectives.find();
+			long[] operand = evaluatePredicate(expression.substring(start, found ? connectives.start() : expression.length()));
+			if (and) {
+				for (int word = 0; word < wordCount; word++) {
+					term[word] &= operand[word];
+				}
+			} else {
+				term = operand;
+			}
+			and = found && connectives.group(1).equalsIgnoreCase("AND");
+			// The AND run ends here, so it joins the result
+			if (!and) {
+				if (result == null) {
+					result = term;
+				} else {
+					for (int word = 0; word < wordCount; word++) {
+						result[word] |= term[word];
+					}
+				}
+			}
+			if (!found) {
+				return result;
+			}
+			start = connectives.end();
+		}
+	}
+
+	/**
+	 * Returns a bitmap of the rows matching one of the filters of the
+	 * application, with the same semantics as the SQL filter.
+	 *
+	 * @param filterType  "Senior Citizen", "Tenure", "Paperless Billing" or
+	 *                    "Combined".
+	 * @param filterValue The value entered for the filter, or the expression
+	 *                    of a combined filter.
+	 * @return A bitmap with a bit set for every matching row.
+	 * @throws IllegalArgumentException If the filter type is unknown or the
+	 *                                  value is not a number where one is
+	 *                                  required.
+	 */
+	public long[] evaluate(String filterType, String filterValue) {
+		switch (filterType) {
+		case "Senior Citizen":
+			return evaluatePredicate("SeniorCitizen = " + filterValue);
+		case "Tenure":
+			return evaluatePredicate("tenure >= " + filterValue);
+		case "Paperless Billing":
+			return evaluatePredicate("PaperlessBilling = " + filterValue);
+		case "Combined":
+			return evaluate(filterValue);
+		default:
+			throw new IllegalArgumentException("Invalid filter type: " + filterType);
+		}
+	}
+
+	/**
+	 * Calls the consumer with every row set in a bitmap, in row order.
+	 *
+	 * @param bitmap   A bitmap returned by this index.
+	 * @param consumer Receives the row numbers.
+	 */
+	public static void forEachRow(long[] bitmap, IntConsumer consumer) {
+		for (int word = 0; word < bitmap.length; word++) {
+			long bits = bitmap[word];
+			while (bits != 0) {
+				consumer.accept((word << 6) + Long.numberOfTrailingZeros(bits));
+				bits &= bits - 1;
+			}
+		}
+	}
+
+	/**
+	 * @param row A row number set in a bitmap of this index.
+	 * @return The customer ID of the row.
+	 */
+	public String getCustomerID(int row) {
+		return customerIDs[row];
+	}
+
+	/**
+	 * @param bitmap A bitmap returned by this index.
+	 * @return The number of rows set in the bitmap.
+	 */
+	public static int count(long[] bitmap) {
+		int count = 0;
+		for (long bits : bitmap) {
+			count += Long.bitCount(bits);
+		}
+		return count;
+	}
+
+	private long[] evaluatePredicate(String predicate) {
+		Matcher matcher = PREDICATE.matcher(predicate);
+		if (!matcher.matches()) {
+			throw new IllegalArgumentException("Invalid filter: " + predicate);
+		}
+		String column = matcher.group(1);
+		String operator = matcher.group(2);
+		String value = matcher.group(3);
+
+		if (column.equalsIgnoreCase("tenure")) {
+			int tenure = Integer.parseInt(value);
+			switch (operator) {
+			case ">=":
+				return tenureRange(tenure, Long.MAX_VALUE);
+			case "<":
+				return tenureRange(Integer.MIN_VALUE, tenure);
+			default:
+				// A long bound, so tenure = Integer.MAX_VALUE does not overflow
+				return tenureRange(tenure, tenure + 1L);
+			}
+		}
+		if (!operator.equals("=")) {
+			throw new IllegalArgumentException("Only = is supported for " + column + ": " + predicate);
+		}
+		if (column.equalsIgnoreCase("SeniorCitizen")) {
+			// The snapshot keeps SeniorCitizen in a byte, so other values match no row
+			int senior = Integer.parseInt(value);
+			long[] bitmap = senior == (byte) senior ? seniorBitmaps[senior & 0xFF] : null;
+			return bitmap == null ? new long[wordCount] : bitmap.clone();
+		}
+		for (int i = 0; i < CATEGORICAL_NAMES.length; i++) {
+			if (CATEGORICAL_NAMES[i].equalsIgnoreCase(column)) {
+				int code = dictionaries[i].codeOf(value);
+				return code < 0 ? new long[wordCount] : bitmaps[i][code].clone();
+			}
+		}
+		throw new IllegalArgumentException("Unknown filter column: " + column + ". Supported columns: tenure, SeniorCitizen, "
+				+ String.join(", ", CATEGORICAL_NAMES));
+	}
+
+	/**
+	 * Returns a bitmap of the rows with from <= tenure < to, located with two
+	 * binary searches over the sorted tenure index.
+	 */
+	private long[] tenureRange(long from, long to) {
+		long[] result = new long[wordCount];
+		int start = lowerBound(from);
+		int end = lowerBound(to);
+		for (int position = start; position < end; position++) {
+			int row = rowsByTenure[position];
+			result[row >>> 6] |= 1L << row;
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the first position in the sorted tenure index whose tenure is at
+	 * least the given value.
+	 */
+	private int lowerBound(long tenure) {
+		int low = 0;
+		int high = rowCount;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (sortedTenure[middle] < tenure) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * @return The estimated heap used by the indexes in bytes.
+	 */
+	public long getMemoryFootprint() {
+		long bytes = 2 * (16 + 4L * rowCount);
+		for (long[][] columnBitmaps : bitmaps) {
+			bytes += columnBitmaps.length * (16 + 8L * wordCount);
+		}
+		for (long[] seniorBitmap : seniorBitmaps) {
+			bytes += seniorBitmap == null ? 0 : 16 + 8L * wordCount;
+		}
+		return bytes;
+	}
+}
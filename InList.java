@@ -0,0 +1,74 @@
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * InList builds the {@code IN (?, ?, ...)} condition of a query that looks
+ * up many customers at once. Lists are padded to a power of two by
+ * repeating their last value, which does not change the result, so a
+ * handful of statement shapes serve every list length and stay in the
+ * prepared statement cache of the driver.
+ */
+public final class InList {
+
+	/**
+	 * The longest list a query should take. Longer lists are looked up in
+	 * chunks of this size.
+	 */
+	public static final int MAX_SIZE = 256;
+
+	private InList() {
+	}
+
+	/**
+	 * @param count The number of values, at least 1.
+	 * @return The number of placeholders of a list of that many values.
+	 */
+	public static int paddedSize(int count) {
+		return count <= 1 ? 1 : Integer.highestOneBit(count - 1) << 1;
+	}
+
+	/**
+	 * @param count The number of values, at least 1.
+	 * @return The parenthesized placeholders of a list of that many values.
+	 */
+	public static String placeholders(int count) {
+		int size = paddedSize(count);
+		StringBuilder list = new StringBuilder(size * 3 + 1).append('(');
+		for (int i = 0; i < size; i++) {
+			list.append(i == 0 ? "?" : ", ?");
+		}
+		return list.append(')').toString();
+	}
+
+	/**
+	 * Sets the parameters of a list created by {@link #placeholders(int)}.
+	 *
+	 * @param statement  The statement to set the parameters of.
+	 * @param firstIndex The index of the first parameter of the list.
+	 * @param values     The values, as many as the list was created for.
+	 * @throws SQLException If a parameter cannot be set.
+	 */
+	public static void bind(PreparedStatement statement, int firstIndex, List<String> values) throws SQLException {
+		int size = paddedSize(values.size());
+		for (int i = 0; i < size; i++) {
+			statement.setString(firstIndex + i, values.get(Math.min(i, values.size() - 1)));
+		}
+	}
+
+	/**
+	 * Sets the parameters of a list of numeric IDs created by
+	 * {@link #placeholders(int)}.
+	 *
+	 * @param statement  The statement to set the parameters of.
+	 * @param firstIndex The index of the first parameter of the list.
+	 * @param values     The IDs, as many as the list was created for.
+	 * @throws SQLException If a parameter cannot be set.
+	 */
+	public static void bindIds(PreparedStatement statement, int firstIndex, List<Long> values) throws SQLException {
+		int size = paddedSize(values.size());
+		for (int i = 0; i < size; i++) {
+			statement.setLong(firstIndex + i, values.get(Math.min(i, values.size() - 1)));
+		}
+	}
+}
@@ -0,0 +1,268 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.SwingUtilities;
+import javax.swing.table.AbstractTableModel;
+
+/**
+ * PagedTableModel shows a whole database table in a JTable without loading
+ * it. Rows are fetched in pages when the table asks for them, using keyset
+ * pagination on the primary key ({@code WHERE key > ? ORDER BY key LIMIT n})
+ * so reading a page costs the same wherever it is in the table.
+ * <p>
+ * Only the pages around the last requested row are kept, plus the last key
+ * of every page seen so far so scrolling on from a page never needs an
+ * OFFSET. Jumping far ahead looks up the first key of the target page once
+ * with an index-only OFFSET query. Memory stays bounded by the number of
+ * cached pages whatever the table size.
+ * <p>
+ * Rows that are not loaded yet show as empty and are filled in when their
+ * page arrives.
+ */
+public class PagedTableModel extends AbstractTableModel {
+
+	private static final long serialVersionUID = 1L;
+
+	// Rows per page
+	private static final int PAGE_SIZE = 200;
+	// Pages kept in memory around the visible one
+	private static final int MAX_CACHED_PAGES = 8;
+
+	private final ConnectionPool pool;
+	private final QueryMetrics metrics;
+	private final String table;
+	private final String keyColumn;
+	private final ExecutorService loader;
+	private final Map<Integer, Object[][]> pages = new ConcurrentHashMap<>();
+	// Last key of each page that has been loaded
+	private final Map<Integer, Object> lastKeys = new ConcurrentHashMap<>();
+	private final Set<Integer> pending = ConcurrentHashMap.newKeySet();
+	private volatile String[] columnNames = new String[0];
+	private volatile int rowCount;
+	private volatile int currentPage;
+	private volatile QueryExecutor.ErrorHandler errorHandler;
+
+	/**
+	 * Creates a model for a table. Nothing is loaded until
+	 * {@link #open(QueryExecutor.ErrorHandler)} is called.
+	 *
+	 * @param pool      The pool to borrow connections from.
+	 * @param metrics   The metrics page reads are recorded in.
+	 * @param table     The name of the table. Must not come from user input.
+	 * @param keyColumn The unique column the table is paged by.
+	 */
+	public PagedTableModel(ConnectionPool pool, QueryMetrics metrics, String table, String keyColumn) {
+		this.pool = pool;
+		this.metrics = metrics;
+		this.table = table;
+		this.keyColumn = keyColumn;
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+				runnable -> {
+					Thread thread = new Thread(runnable, "page-loader-" + table);
+					thread.setDaemon(true);
+					return thread;
+				});
+		executor.allowCoreThreadTimeOut(true);
+		this.loader = executor;
+	}
+
+	/**
+	 * Reads the columns and row count of the table in the background. Pages
+	 * are loaded once the table asks for their rows.
+	 *
+	 * @param errorHandler Receives failures of background reads.
+	 */
+	public void open(QueryExecutor.ErrorHandler errorHandler) {
+		this.errorHandler = errorHandler;
+		loader.execute(() -> {
+			try (Connection connection = pool.getConnection()) {
+				String[] names;
+				try (PreparedStatement statement = metrics.instrument("page/" + table + "/columns",
+						connection.prepareStatement("SELECT * FROM " + table + " WHERE 1 = 0"));
+						ResultSet resultSet = statement.executeQuery()) {
+					ResultSetMetaData metaData = resultSet.getMetaData();
+					names = new String[metaData.getColumnCount()];
+					for (int column = 0; column < names.length; column++) {
+						names[column] = metaData.getColumnLabel(column + 1);
+					}
+				}
+				int count;
+				try (PreparedStatement statement = metrics.instrument("page/" + table + "/count",
+						connection.prepareStatement("SELECT COUNT(*) FROM " + table));
+						ResultSet resultSet = statement.executeQuery()) {
+					resultSet.next();
+					count = resultSet.getInt(1);
+				}
+				SwingUtilities.invokeLater(() -> {
+					columnNames = names;
+					rowCount = count;
+					fireTableStructureChanged();
+				});
+			} catch (SQLException e) {
+				errorHandler.onError(e);
+			}
+		});
+	}
+
+	/**
+	 * Stops loading pages. The model shows no more rows afterwards.
+	 */
+	public void close() {
+		loader.shutdownNow();
+		pages.clear();
+	}
+
+	@Override
+	public int getRowCount() {
+		return rowCount;
+	}
+
+	@Override
+	public int getColumnCount() {
+		return columnNames.length;
+	}
+
+	@Override
+	public String getColumnName(int column) {
+		return columnNames[column];
+	}
+
+	@Override
+	public Object getValueAt(int row, int column) {
+		int page = row / PAGE_SIZE;
+		if (page != currentPage) {
+			currentPage = page;
+			// Prefetch the neighbouring pages so scrolling does not show blank rows
+			request(page);
+			request(page + 1);
+			if (page > 0) {
+				request(page - 1);
+			}
+		}
+		Object[][] rows = pages.get(page);
+		if (rows == null) {
+			request(page);
+			return null;
+		}
+		int offset = row % PAGE_SIZE;
+		return offset < rows.length ? rows[offset][column] : null;
+	}
+
+	/**
+	 * Queues a page for loading unless it is loaded, queued or past the end.
+	 */
+	private void request(int page) {
+		if (page * PAGE_SIZE >= rowCount || pages.containsKey(page) || !pending.add(page)) {
+			return;
+		}
+		loader.execute(() -> {
+			try {
+				// Skip pages the user has scrolled away from while they were queued
+				if (Math.abs(page - currentPage) < MAX_CACHED_PAGES / 2) {
+					load(page);
+				}
+			} catch (SQLException e) {
+				QueryExecutor.ErrorHandler handler = errorHandler;
+				if (handler != null) {
+					handler.onError(e);
+				}
+			} finally {
+				pending.remove(page);
+			}
+		});
+	}
+
+	private void load(int page) throws SQLException {
+		List<Object[]> rows = new ArrayList<>(PAGE_SIZE);
+		try (Connection connection = pool.getConnection()) {
+			Object previousKey = page == 0 ? null : lastKeys.get(page - 1);
+			String condition = "";
+			if (previousKey != null) {
+				condition = " WHERE " + keyColumn + " > ?";
+			} else if (page > 0) {
+				previousKey = firstKeyOf(connection, page);
+				if (previousKey == null) {
+					return;
+				}
+				condition = " WHERE " + keyColumn + " >= ?";
+			}
+			try (PreparedStatement statement = metrics.instrument("page/" + table, connection.prepareStatement(
+					"SELECT * FROM " + table + condition + " ORDER BY " + keyColumn + " LIMIT " + PAGE_SIZE))) {
+				if (previousKey != null) {
+					statement.setObject(1, previousKey);
+				}
+				try (ResultSet resultSet = statement.executeQuery()) {
+					int columnCount = resultSet.getMetaData().getColumnCount();
+					while (resultSet.next()) {
+						Object[] row = new Object[columnCount];
+						for (int column = 0; column < columnCount; column++) {
+							row[column] = resultSet.getObject(column + 1);
+						}
+						rows.add(row);
+					}
+				}
+				metrics.addRows("page/" + table, rows.size());
+			}
+		}
+		if (rows.isEmpty()) {
+			return;
+		}
+		int keyIndex = columnIndexOf(keyColumn);
+		lastKeys.put(page, rows.get(rows.size() - 1)[keyIndex]);
+		pages.put(page, rows.toArray(new Object[0][]));
+		// Drop the pages furthest from the one being looked at
+		while (pages.size() > MAX_CACHED_PAGES) {
+			int furthest = page;
+			for (int cached : pages.keySet()) {
+				if (Math.abs(cached - currentPage) > Math.abs(furthest - currentPage)) {
+					furthest = cached;
+				}
+			}
+			if (furthest == page) {
+				break;
+			}
+			pages.remove(furthest);
+		}
+		int firstRow = page * PAGE_SIZE;
+		SwingUtilities.invokeLater(() -> {
+			if (firstRow < rowCount) {
+				fireTableRowsUpdated(firstRow, Math.min(rowCount, firstRow + PAGE_SIZE) - 1);
+			}
+		});
+	}
+
+	/**
+	 * Finds the first key of a page whose preceding page has never been
+	 * loaded, scanning only the primary key index.
+	 */
+	private Object firstKeyOf(Connection connection, int page) throws SQLException {
+		try (PreparedStatement statement = metrics.instrument("page/" + table + "/seek",
+				connection.prepareStatement("SELECT " + keyColumn + " FROM " + table + " ORDER BY " + keyColumn
+						+ " LIMIT 1 OFFSET " + (long) page * PAGE_SIZE));
+				ResultSet resultSet = statement.executeQuery()) {
+			return resultSet.next() ? resultSet.getObject(1) : null;
+		}
+	}
+
+	private int columnIndexOf(String column) {
+		String[] names = columnNames;
+		for (int i = 0; i < names.length; i++) {
+			if (names[i].equalsIgnoreCase(column)) {
+				return i;
+			}
+		}
+		throw new IllegalStateException("The key column " + column + " is not a column of " + table);
+	}
+}
@@ -0,0 +1,299 @@
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * QueryExecutor runs database work off the Swing event dispatch thread on a
+ * small bounded worker pool. Only one task is considered current at a time:
+ * submitting a new task cancels the previous one, including any JDBC
+ * statement it is still executing. Every task is also bounded by a deadline,
+ * counted from submission, after which its statements are cancelled and the
+ * timeout is reported. Each task borrows at most one connection from the
+ * pool, which is returned when the task finishes.
+ * <p>
+ * Detached tasks run on a separate background pool, so a snapshot load
+ * never keeps a search waiting for a worker.
+ */
+public class QueryExecutor {
+
+	/**
+	 * A unit of database work executed in the background.
+	 */
+	public interface QueryTask {
+		/**
+		 * Runs the task.
+		 *
+		 * @param context The context used to register statements and check for
+		 *                cancellation.
+		 * @throws Exception If the task fails.
+		 */
+		void run(QueryContext context) throws Exception;
+	}
+
+	/**
+	 * Receives failures of background tasks that were not cancelled.
+	 */
+	public interface ErrorHandler {
+		/**
+		 * Handles a failed task.
+		 *
+		 * @param error The exception thrown by the task.
+		 */
+		void onError(Exception error);
+	}
+
+	/**
+	 * QueryContext is handed to a running task. Statements registered through
+	 * {@link #track(Statement)} get the per-query timeout applied and are
+	 * cancelled when the task is superseded or its deadline passes.
+	 */
+	public static class QueryContext {
+		private final List<Statement> statements = new CopyOnWriteArrayList<>();
+		private final ConnectionPool pool;
+		private final int queryTimeoutSeconds;
+		private Connection connection;
+		private volatile boolean cancelled;
+		private boolean timedOut;
+		private boolean finished;
+
+		QueryContext(ConnectionPool pool, int queryTimeoutSeconds) {
+			this.pool = pool;
+			this.queryTimeoutSeconds = queryTimeoutSeconds;
+		}
+
+		/**
+		 * Returns the connection of this task, borrowing it from the pool on
+		 * first use.
+		 *
+		 * @return The connection of this task.
+		 * @throws SQLException If no connection is available.
+		 */
+		public Connection getConnection() throws SQLException {
+			if (connection == null) {
+				connection = pool.getConnection();
+			}
+			return connection;
+		}
+
+		/**
+		 * Registers a statement with this task so it can be cancelled.
+		 *
+		 * @param statement The statement to track.
+		 * @param <T>       The statement type.
+		 * @return The same statement, for chaining.
+		 * @throws SQLException If the task was already cancelled or the timeout
+		 *                      cannot be applied.
+		 */
+		public <T extends Statement> T track(T statement) throws SQLException {
+			if (cancelled) {
+				statement.close();
+				throw new SQLException("Query was cancelled.");
+			}
+			statement.setQueryTimeout(queryTimeoutSeconds);
+			statements.add(statement);
+			return statement;
+		}
+
+		/**
+		 * @return True if the task has been cancelled or has timed out.
+		 */
+		public boolean isCancelled() {
+			return cancelled || Thread.currentThread().isInterrupted();
+		}
+
+		/**
+		 * @return True if the task was cancelled because its deadline passed,
+		 *         rather than superseded by a newer task.
+		 */
+		public synchronized boolean isTimedOut() {
+			return timedOut;
+		}
+
+		/**
+		 * Cancels the task for passing its deadline, unless it has already
+		 * finished.
+		 */
+		synchronized void timeOut() {
+			if (!finished) {
+				timedOut = true;
+				cancel();
+			}
+		}
+
+		/**
+		 * Marks the task finished, so a deadline passing from now on is
+		 * ignored.
+		 *
+		 * @return True if the deadline passed before the task finished.
+		 */
+		synchronized boolean finish() {
+			finished = true;
+			return timedOut;
+		}
+
+		void release() {
+			if (connection != null) {
+				try {
+					connection.close();
+				} catch (SQLException e) {
+					// The pool discards connections it cannot reuse
+				}
+				connection = null;
+			}
+		}
+
+		void cancel() {
+			cancelled = true;
+			for (Statement statement : statements) {
+				try {
+					if (!statement.isClosed()) {
+						statement.cancel();
+					}
+				} catch (SQLException e) {
+					// The statement may already have completed; nothing left to cancel
+				}
+			}
+		}
+	}
+
+	private final ConnectionPool pool;
+	private final ExecutorService workers;
+	private final ExecutorService background;
+	private final ScheduledExecutorService deadlines;
+	private final int queryTimeoutSeconds;
+	private final ErrorHandler errorHandler;
+	private Future<?> currentFuture;
+	private ScheduledFuture<?> currentDeadline;
+	private QueryContext currentContext;
+
+	/**
+	 * Creates a new QueryExecutor.
+	 *
+	 * @param pool                The pool tasks borrow their connection from.
+	 * @param workerCount         The maximum number of worker threads.
+	 * @param backgroundCount     The maximum number of threads running
+	 *                            detached tasks.
+	 * @param queryTimeoutSeconds The deadline applied to each task and each of
+	 *                            its statements.
+	 * @param errorHandler        Receives failures of tasks that were not
+	 *                            superseded, including timeouts as a
+	 *                            {@link SQLTimeoutException}.
+	 */
+	public QueryExecutor(ConnectionPool pool, int workerCount, int backgroundCount, int queryTimeoutSeconds,
+			ErrorHandler errorHandler) {
+		this.pool = pool;
+		this.queryTimeoutSeconds = queryTimeoutSeconds;
+		this.errorHandler = errorHandler;
+		this.workers = new ThreadPoolExecutor(workerCount, workerCount, 30, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<>(), daemonThreads("query-worker"));
+		((ThreadPoolExecutor) workers).allowCoreThreadTimeOut(true);
+		this.background = new ThreadPoolExecutor(backgroundCount, backgroundCount, 30, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<>(), daemonThreads("query-background"));
+		((ThreadPoolExecutor) background).allowCoreThreadTimeOut(true);
+		ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, daemonThreads("query-deadline"));
+		scheduler.setRemoveOnCancelPolicy(true);
+		this.deadlines = scheduler;
+	}
+
+	/**
+	 * Cancels the current task, if any, and submits a new one. The deadline
+	 * starts now, so time spent waiting for a worker counts towards it.
+	 *
+	 * @param task The task to run in the background.
+	 */
+	public synchronized void submit(QueryTask task) {
+		cancelCurrent();
+		QueryContext context = new QueryContext(pool, queryTimeoutSeconds);
+		currentContext = context;
+		currentDeadline = deadlines.schedule(context::timeOut, queryTimeoutSeconds, TimeUnit.SECONDS);
+		currentFuture = workers.submit(() -> {
+			Exception failure = null;
+			try {
+				if (!context.isCancelled()) {
+					task.run(context);
+				}
+			} catch (Exception e) {
+				failure = e;
+			} finally {
+				context.release();
+			}
+			// Tasks return quietly once cancelled, so a timeout is reported here
+			if (context.finish()) {
+				errorHandler.onError(new SQLTimeoutException(
+						"The query did not finish within " + queryTimeoutSeconds + " seconds.", failure));
+			} else if (failure != null && !context.isCancelled()) {
+				errorHandler.onError(failure);
+			}
+		});
+	}
+
+	/**
+	 * Runs a long-lived task, such as a snapshot refresh, on the background
+	 * pool without cancelling the current task. The task is not subject to
+	 * the deadline and is not cancelled by later submissions.
+	 *
+	 * @param task The task to run in the background.
+	 */
+	public void runDetached(QueryTask task) {
+		QueryContext context = new QueryContext(pool, 0);
+		background.submit(() -> {
+			try {
+				task.run(context);
+			} catch (Exception e) {
+				errorHandler.onError(e);
+			} finally {
+				context.release();
+			}
+		});
+	}
+
+	/**
+	 * Cancels the current task and any statement it is executing.
+	 */
+	public synchronized void cancelCurrent() {
+		if (currentDeadline != null) {
+			currentDeadline.cancel(false);
+			currentDeadline = null;
+		}
+		if (currentContext != null) {
+			currentContext.cancel();
+			currentContext = null;
+		}
+		if (currentFuture != null) {
+			currentFuture.cancel(true);
+			currentFuture = null;
+		}
+	}
+
+	/**
+	 * Cancels outstanding work and stops the worker threads.
+	 */
+	public void shutdown() {
+		cancelCurrent();
+		workers.shutdownNow();
+		background.shutdownNow();
+		deadlines.shutdownNow();
+	}
+
+	private static ThreadFactory daemonThreads(String prefix) {
+		AtomicInteger counter = new AtomicInteger();
+		return runnable -> {
+			Thread thread = new Thread(runnable, prefix + "-" + counter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+}
@@ -0,0 +1,257 @@
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * RecordRenderer renders the rows of one table as "Label: value" lines, the
+ * way the result area shows them. A renderer knows its columns, so its query
+ * selects exactly those columns in order and every value is read by index;
+ * no column is looked up by name while rows are rendered. Integer and
+ * decimal columns are appended as primitives without creating strings.
+ * <p>
+ * A renderer created with {@link #ofAllColumns(String, String)} has no
+ * predefined columns and takes them from the ResultSetMetaData of its first
+ * result set, so a new table can be shown without writing any rendering
+ * code.
+ */
+public class RecordRenderer {
+
+	/**
+	 * How a column value is read and appended.
+	 */
+	private enum Kind {
+		TEXT, INT, DOUBLE
+	}
+
+	private static final class Field {
+		final String prefix;
+		final String column;
+		final Kind kind;
+
+		Field(String label, String column, Kind kind) {
+			this.prefix = label + ": ";
+			this.column = column;
+			this.kind = kind;
+		}
+	}
+
+	// Renderers of the tables the application can search, by table name
+	private static final Map<String, RecordRenderer> TABLES = Map.of(
+			"Customer", new RecordRenderer("Customer", "Customer Details")
+					.text("Customer ID", "customerID").text("Gender", "gender")
+					.integer("Senior Citizen", "SeniorCitizen").text("Partner", "Partner")
+					.text("Dependents", "Dependents").integer("Tenure", "tenure"),
+			"Service", new RecordRenderer("Service", "Service Details")
+					.integer("Service ID", "serviceID").text("Phone Service", "PhoneService")
+					.text("Multiple Lines", "MultipleLines").text("Internet Service", "InternetService")
+					.text("Online Security", "OnlineSecurity").text("Online Backup", "OnlineBackup")
+					.text("Device Protection", "DeviceProtection").text("Tech Support", "TechSupport")
+					.text("Streaming TV", "StreamingTV").text("Streaming Movies", "StreamingMovies")
+					.text("Contract", "Contract")
+					.text("Paperless Billing", "PaperlessBilling").text("Payment Method", "PaymentMethod"),
+			"MonthlyCharges", new RecordRenderer("MonthlyCharges", "Monthly Charges")
+					.integer("Charge ID", "chargeID").decimal("Monthly Charges", "MonthlyCharges")
+					.decimal("Total Charges", "TotalCharges").text("Churn", "Churn"),
+			"SeniorCitizen", new RecordRenderer("SeniorCitizen", "Senior Citizen Information")
+					.integer("Senior ID", "seniorID").integer("Senior Citizen", "SeniorCitizen"),
+			"PartnerDependents", new RecordRenderer("PartnerDependents", "Partner and Dependents Information")
+					.integer("Partner Dependent ID", "partnerDependentID").text("Partner", "Partner")
+					.text("Dependents", "Dependents"),
+			"CustomerProfile", new RecordRenderer("CustomerProfile", "Customer Profile")
+					.text("Customer ID", "customerID").text("Gender", "gender")
+					.integer("Senior Citizen", "SeniorCitizen").text("Partner", "Partner")
+					.text("Dependents", "Dependents").integer("Tenure", "tenure")
+					.text("Phone Service", "PhoneService").text("Multiple Lines", "MultipleLines")
+					.text("Internet Service", "InternetService").text("Online Security", "OnlineSecurity")
+					.text("Online Backup", "OnlineBackup").text("Device Protection", "DeviceProtection")
+					.text("Tech Support", "TechSupport").text("Streaming TV", "StreamingTV")
+					.text("Streaming Movies", "StreamingMovies").text("Contract", "Contract")
+					.text("Paperless Billing", "PaperlessBilling").text("Payment Method", "PaymentMethod")
+					.decimal("Monthly Charges", "MonthlyCharges").decimal("Total Charges", "TotalCharges")
+					.text("Churn", "Churn"));
+
+	private final String table;
+	private final String heading;
+	private final List<Field> fields = new ArrayList<>();
+	// Fields read from the first result set of a renderer without predefined columns
+	private volatile Field[] resolvedFields;
+
+	private RecordRenderer(String table, String heading) {
+		this.table = table;
+		this.heading = heading + ":\n";
+	}
+
+	/**
+	 * @param table The name of a table.
+	 * @return The renderer of the table, or null if the application does not
+	 *         show it.
+	 */
+	public static RecordRenderer forTable(String table) {
+		return TABLES.get(table);
+	}
+
+	/**
+	 * Creates a renderer that shows every column of a table, labelled with the
+	 * column names.
+	 *
+	 * @param table   The name of the table. Must not come from user input.
+	 * @param heading The heading shown above the rows.
+	 * @return The new renderer.
+	 */
+	public static RecordRenderer ofAllColumns(String table, String heading) {
+		return new RecordRenderer(table, heading);
+	}
+
+	private RecordRenderer text(String label, String column) {
+		fields.add(new Field(label, column, Kind.TEXT));
+		return this;
+	}
+
+	private RecordRenderer integer(String label, String column) {
+		fields.add(new Field(label, column, Kind.INT));
+		return this;
+	}
+
+	private RecordRenderer decimal(String label, String column) {
+		fields.add(new Field(label, column, Kind.DOUBLE));
+		return this;
+	}
+
+	/**
+	 * @return The name of the table.
+	 */
+	public String getTable() {
+		return table;
+	}
+
+	/**
+	 * @return The heading shown above the rows, with its line break.
+	 */
+	public String getHeading() {
+		return heading;
+	}
+
+	/**
+	 * Returns the query reading the rendered columns of the table.
+	 *
+	 * @param byCustomer True to select the rows of one customer, whose ID is
+	 *                   then the only parameter; false to select every row.
+	 * @return The SQL query.
+	 */
+	public String getQuery(boolean byCustomer) {
+		StringBuilder query = new StringBuilder("SELECT ");
+		if (fields.isEmpty()) {
+			query.append('*');
+		} else {
+			for (int i = 0; i < fields.size(); i++) {
+				query.append(i == 0 ? "" : ", ").append(fields.get(i).column);
+			}
+		}
+		query.append(" FROM ").append(table);
+		if (byCustomer) {
+			query.append(" WHERE customerID = ?");
+		}
+		return query.toString();
+	}
+
+	/**
+	 * Returns the query reading the rendered columns of the rows of several
+	 * customers, whose IDs are bound with
+	 * {@link InList#bind(PreparedStatement, int, List)} from index 1.
+	 *
+	 * @param count The number of customers, at most {@link InList#MAX_SIZE}.
+	 * @return The SQL query.
+	 */
+	public String getQueryForCustomers(int count) {
+		String query = getQuery(false);
+		return query + " WHERE customerID IN " + InList.placeholders(count);
+	}
+
+	/**
+	 * Appends the current row of a result set produced by
+	 * {@link #getQuery(boolean)} or {@link #getQueryForCustomers(int)},
+	 * followed by a blank line.
+	 *
+	 * @param resultSet The result set positioned on a row.
+	 * @param out       The buffer to append to.
+	 * @throws SQLException If a value cannot be read.
+	 */
+	public void renderRow(ResultSet resultSet, StringBuilder out) throws SQLException {
+		Field[] row = resolvedFields;
+		if (row == null) {
+			row = resolveFields(resultSet.getMetaData());
+		}
+		for (int i = 0; i < row.length; i++) {
+			Field field = row[i];
+			out.append(field.prefix);
+			switch (field.kind) {
+			case INT:
+				out.append(resultSet.getInt(i + 1));
+				break;
+			case DOUBLE:
+				out.append(resultSet.getDouble(i + 1));
+				break;
+			default:
+				out.append(resultSet.getString(i + 1));
+			}
+			out.append('\n');
+		}
+		out.append('\n');
+	}
+
+	/**
+	 * Appends a customer of a snapshot file, followed by a blank line. Columns
+	 * the file does not hold, such as the generated IDs of the Service and
+	 * MonthlyCharges rows, are left out.
+	 *
+	 * @param file The snapshot file.
+	 * @param row  The row of the customer in the file.
+	 * @param out  The buffer to append to.
+	 */
+	public void renderRow(SnapshotFile file, int row, StringBuilder out) {
+		for (Field field : fields) {
+			int start = out.length();
+			out.append(field.prefix);
+			if (file.appendValue(field.column, row, out)) {
+				out.append('\n');
+			} else {
+				out.setLength(start);
+			}
+		}
+		out.append('\n');
+	}
+
+	/**
+	 * Returns the predefined fields, or the fields described by the metadata
+	 * of the first result set if there are none. Done once per renderer.
+	 */
+	private Field[] resolveFields(ResultSetMetaData metaData) throws SQLException {
+		Field[] resolved;
+		if (!fields.isEmpty()) {
+			resolved = fields.toArray(new Field[0]);
+		} else {
+			resolved = new Field[metaData.getColumnCount()];
+			for (int column = 1; column <= resolved.length; column++) {
+				Kind kind;
+				switch (metaData.getColumnType(column)) {
+				case Types.INTEGER:
+				case Types.SMALLINT:
+				case Types.TINYINT:
+					kind = Kind.INT;
+					break;
+				default:
+					kind = Kind.TEXT;
+				}
+				resolved[column - 1] = new Field(metaData.getColumnLabel(column), metaData.getColumnLabel(column),
+						kind);
+			}
+		}
+		resolvedFields = resolved;
+		return resolved;
+	}
+}
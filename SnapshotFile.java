@@ -0,0 +1,431 @@
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.function.IntConsumer;
+
+/**
+ * SnapshotFile is a binary, columnar copy of a {@link ColumnarSnapshot} that
+ * is read through a memory-mapped buffer, so customer lookups and filters
+ * can be served as soon as the file is opened, without MySQL and without
+ * parsing the data or copying it onto the heap.
+ * <p>
+ * The file holds a header with the offset of every section, followed by the
+ * fixed-width columns: senior citizen (1 byte), tenure (4 bytes), monthly
+ * and total charges (8 bytes each), one byte of dictionary code per
+ * categorical column, and the customer IDs padded to a fixed width. After
+ * them come the row numbers sorted by customer ID, searched to look up a
+ * customer, and the dictionaries of the categorical columns. Numbers are
+ * little-endian.
+ * <p>
+ * Only the dictionaries are decoded when the file is opened; everything else
+ * is read from the mapping when it is used.
+ */
+public class SnapshotFile {
+
+	private static final int MAGIC = 0x4E534843; // "CHSN"
+	private static final int VERSION = 1;
+	// magic, version, rowCount, categoricalCount, idWidth, customersWithCharges, churnedCustomers,
+	// then the offsets of the 8 sections
+	private static final int HEADER_SIZE = 7 * 4 + 8 * 8;
+
+	private static final String[] CATEGORICAL_NAMES = ColumnarSnapshot.CATEGORICAL_COLUMNS;
+
+	private final MappedByteBuffer buffer;
+	private final int rowCount;
+	private final int idWidth;
+	private final int customersWithCharges;
+	private final int churnedCustomers;
+	private final int seniorOffset;
+	private final int tenureOffset;
+	private final int monthlyOffset;
+	private final int totalOffset;
+	private final int categoriesOffset;
+	private final int idsOffset;
+	private final int indexOffset;
+	private final String[][] dictionaries;
+
+	private SnapshotFile(MappedByteBuffer buffer) throws IOException {
+		this.buffer = buffer;
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+			throw new IOException("Not a snapshot file of version " + VERSION + ".");
+		}
+		rowCount = buffer.getInt(8);
+		int categoricalCount = buffer.getInt(12);
+		if (categoricalCount != CATEGORICAL_NAMES.length) {
+			throw new IOException("The snapshot file has " + categoricalCount + " categorical columns instead of "
+					+ CATEGORICAL_NAMES.length + "; export it again.");
+		}
+		idWidth = buffer.getInt(16);
+		customersWithCharges = buffer.getInt(20);
+		churnedCustomers = buffer.getInt(24);
+		seniorOffset = (int) buffer.getLong(28);
+		tenureOffset = (int) buffer.getLong(36);
+		monthlyOffset = (int) buffer.getLong(44);
+		totalOffset = (int) buffer.getLong(52);
+		categoriesOffset = (int) buffer.getLong(60);
+		idsOffset = (int) buffer.getLong(68);
+		indexOffset = (int) buffer.getLong(76);
+		int position = (int) buffer.getLong(84);
+
+		dictionaries = new String[categoricalCount][];
+		for (int column = 0; column < categoricalCount; column++) {
+			int size = buffer.getInt(position);
+			position += 4;
+			String[] values = new String[size + 1];
+			for (int code = 1; code <= size; code++) {
+				int length = buffer.getShort(position);
+				byte[] bytes = new byte[length];
+				buffer.get(position + 2, bytes);
+				values[code] = new String(bytes, StandardCharsets.UTF_8);
+				position += 2 + length;
+			}
+			dictionaries[column] = values;
+		}
+	}
+
+	/**
+	 * Maps a snapshot file.
+	 *
+	 * @param path The file written by {@link #write(ColumnarSnapshot, Path)}.
+	 * @return The opened file.
+	 * @throws IOException If the file cannot be read or is not a snapshot
+	 *                     file.
+	 */
+	public static SnapshotFile open(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("The snapshot file is larger than 2 GB.");
+			}
+			// The mapping stays valid after the channel is closed
+			return new SnapshotFile(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+	}
+
+	/**
+	 * Writes the data currently loaded in a snapshot. The file is written
+	 * under a temporary name and then moved into place, so an open mapping of
+	 * the previous file keeps reading the previous data.
+	 *
+	 * @param snapshot A loaded snapshot.
+	 * @param path     The file to write.
+	 * @throws IOException If the file cannot be written or would be larger
+	 *                     than 2 GB.
+	 */
+	public static void write(ColumnarSnapshot snapshot, Path path) throws IOException {
+		ColumnarSnapshot.Columns data = snapshot.getColumns();
+		int rows = data.rowCount;
+		byte[][] ids = new byte[rows][];
+		int idWidth = 0;
+		for (int row = 0; row < rows; row++) {
+			ids[row] = data.customerIDs[row].getBytes(StandardCharsets.UTF_8);
+			idWidth = Math.max(idWidth, ids[row].length);
+		}
+		Integer[] sorted = new Integer[rows];
+		for (int row = 0; row < rows; row++) {
+			sorted[row] = row;
+		}
+		Arrays.sort(sorted, Comparator.comparing(row -> ids[row], Arrays::compareUnsigned));
+
+		byte[][][] values = new byte[data.dictionaries.length][][];
+		long dictionaryBytes = 0;
+		for (int column = 0; column < values.length; column++) {
+			ColumnarSnapshot.Dictionary dictionary = data.dictionaries[column];
+			values[column] = new byte[dictionary.size()][];
+			dictionaryBytes += 4;
+			for (int code = 1; code < dictionary.size(); code++) {
+				values[column][code] = dictionary.decode((byte) code).getBytes(StandardCharsets.UTF_8);
+				dictionaryBytes += 2 + values[column][code].length;
+			}
+		}
+
+		// Sections start on 8-byte boundaries so every value is aligned
+		long seniorOffset = HEADER_SIZE;
+		long tenureOffset = align(seniorOffset + rows);
+		long monthlyOffset = align(tenureOffset + 4L * rows);
+		long totalOffset = monthlyOffset + 8L * rows;
+		long categoriesOffset = totalOffset + 8L * rows;
+		long idsOffset = align(categoriesOffset + (long) values.length * rows);
+		long indexOffset = align(idsOffset + (long) idWidth * rows);
+		long dictionariesOffset = indexOffset + 4L * rows;
+		long size = dictionariesOffset + dictionaryBytes;
+		if (size > Integer.MAX_VALUE) {
+			throw new IOException("The snapshot is too large for a snapshot file.");
+		}
+
+		Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			MappedByteBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+			out.order(ByteOrder.LITTLE_ENDIAN);
+			out.putInt(MAGIC).putInt(VERSION).putInt(rows).putInt(values.length).putInt(idWidth)
+					.putInt(data.customersWithCharges).putInt(data.churnedCustomers);
+			out.putLong(seniorOffset).putLong(tenureOffset).putLong(monthlyOffset).putLong(totalOffset)
+					.putLong(categoriesOffset).putLong(idsOffset).putLong(indexOffset).putLong(dictionariesOffset);
+			out.put((int) seniorOffset, data.seniorCitizen, 0, rows);
+			out.position((int) tenureOffset);
+			out.asIntBuffer().put(data.tenure, 0, rows);
+			out.position((int) monthlyOffset);
+			out.asDoubleBuffer().put(data.monthlyCharges, 0, rows);
+			out.position((int) totalOffset);
+			out.asDoubleBuffer().put(data.totalCharges, 0, rows);
+			for (int column = 0; column < values.length; column++) {
+				out.put((int) categoriesOffset + column * rows, data.categories[column], 0, rows);
+			}
+			for (int row = 0; row < rows; row++) {
+				// The mapping is zero-filled, so shorter IDs are padded with zeros
+				out.put((int) idsOffset + row * idWidth, ids[row]);
+			}
+			out.position((int) indexOffset);
+			for (int row : sorted) {
+				out.putInt(row);
+			}
+			for (byte[][] dictionary : values) {
+				out.putInt(dictionary.length - 1);
+				for (int code = 1; code < dictionary.length; code++) {
+					out.putShort((short) dictionary[code].length).put(dictionary[code]);
+				}
+			}
+			out.force();
+		}
+		Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private static long align(long offset) {
+		return (offset + 7) & ~7L;
+	}
+
+	/**
+	 * @return The number of customers in the file.
+	 */
+	public int getRowCount() {
+		return rowCount;
+	}
+
+	/**
+	 * @return The size of the mapped file in bytes.
+	 */
+	public long getSize() {
+		return buffer.capacity();
+	}
+
+	/**
+	 * Finds a customer with a binary search of the customer ID index.
+	 *
+	 * @param customerID The ID of the customer.
+	 * @return The row of the customer, or -1 if the file has no such customer.
+	 */
+	public int findRow(String customerID) {
+		byte[] key = customerID.getBytes(StandardCharsets.UTF_8);
+		if (key.length > idWidth) {
+			return -1;
+		}
+		int low = 0;
+		int high = rowCount - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int row = buffer.getInt(indexOffset + 4 * middle);
+			int comparison = compareID(row, key);
+			if (comparison < 0) {
+				low = middle + 1;
+			} else if (comparison > 0) {
+				high = middle - 1;
+			} else {
+				return row;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Compares the ID of a row with a key the way the index is sorted, reading
+	 * the ID in place.
+	 */
+	private int compareID(int row, byte[] key) {
+		int position = idsOffset + row * idWidth;
+		for (int i = 0; i < idWidth; i++) {
+			// A zero byte is padding after the end of the stored ID
+			int stored = buffer.get(position + i) & 0xFF;
+			if (i == key.length) {
+				return stored == 0 ? 0 : 1;
+			}
+			if (stored == 0) {
+				return -1;
+			}
+			if (stored != (key[i] & 0xFF)) {
+				return Integer.compare(stored, key[i] & 0xFF);
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * @param row A row number.
+	 * @return The customer ID of the row.
+	 */
+	public String getCustomerID(int row) {
+		int position = idsOffset + row * idWidth;
+		int length = 0;
+		while (length < idWidth && buffer.get(position + length) != 0) {
+			length++;
+		}
+		byte[] bytes = new byte[length];
+		buffer.get(position, bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Appends the value of a column of a row, as the database would show it.
+	 *
+	 * @param column The name of a column of the Customer, Service or
+	 *               MonthlyCharges table.
+	 * @param row    A row number.
+	 * @param out    The buffer to append to.
+	 * @return False if the file does not hold the column, in which case
+	 *         nothing is appended.
+	 */
+	public boolean appendValue(String column, int row, StringBuilder out) {
+		switch (column) {
+		case "customerID":
+			out.append(getCustomerID(row));
+			return true;
+		case "SeniorCitizen":
+			out.append(buffer.get(seniorOffset + row));
+			return true;
+		case "tenure":
+			out.append(buffer.getInt(tenureOffset + 4 * row));
+			return true;
+		case "MonthlyCharges":
+			out.append(buffer.getDouble(monthlyOffset + 8 * row));
+			return true;
+		case "TotalCharges":
+			out.append(buffer.getDouble(totalOffset + 8 * row));
+			return true;
+		default:
+			for (int categorical = 0; categorical < CATEGORICAL_NAMES.length; categorical++) {
+				if (CATEGORICAL_NAMES[categorical].equals(column)) {
+					out.append(dictionaries[categorical][code(categorical, row)]);
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	private int code(int categorical, int row) {
+		return buffer.get(categoriesOffset + categorical * rowCount + row);
+	}
+
+	/**
+	 * Calls the consumer with the row of every customer matching one of the
+	 * filters of the application, with the same semantics as
+	 * {@link ColumnarSnapshot#forEachMatch(String, String, IntConsumer)}.
+	 *
+	 * @param filterType  "Senior Citizen", "Tenure" or "Paperless Billing".
+	 * @param filterValue The value entered for the filter.
+	 * @param consumer    Receives the row numbers of the matching customers.
+	 * @throws IllegalArgumentException If the filter type is unknown or the
+	 *                                  value is not a number where one is
+	 *                                  required.
+	 */
+	public void forEachMatch(String filterType, String filterValue, IntConsumer consumer) {
+		// Only absolute reads are used, so concurrent filters do not interfere
+		switch (filterType) {
+		case "Senior Citizen": {
+			int senior = Integer.parseInt(filterValue);
+			for (int row = 0; row < rowCount; row++) {
+				if (buffer.get(seniorOffset + row) == senior) {
+					consumer.accept(row);
+				}
+			}
+			break;
+		}
+		case "Tenure": {
+			int minimum = Integer.parseInt(filterValue);
+			for (int row = 0; row < rowCount; row++) {
+				if (buffer.getInt(tenureOffset + 4 * row) >= minimum) {
+					consumer.accept(row);
+				}
+			}
+			break;
+		}
+		case "Paperless Billing": {
+			String[] dictionary = dictionaries[ColumnarSnapshot.PAPERLESS_BILLING];
+			int code = -1;
+			for (int i = 1; i < dictionary.length; i++) {
+				if (dictionary[i].equalsIgnoreCase(filterValue)) {
+					code = i;
+				}
+			}
+			if (code < 0) {
+				return;
+			}
+			int position = categoriesOffset + ColumnarSnapshot.PAPERLESS_BILLING * rowCount;
+			for (int row = 0; row < rowCount; row++) {
+				if (buffer.get(position + row) == code) {
+					consumer.accept(row);
+				}
+			}
+			break;
+		}
+		default:
+			throw new IllegalArgumentException("Invalid filter type: " + filterType);
+		}
+	}
+
+	/**
+	 * @return The percentage of customers who churned, counting customers with
+	 *         a MonthlyCharges row.
+	 */
+	public double getChurnPercentage() {
+		return (double) churnedCustomers / customersWithCharges * 100;
+	}
+
+	/**
+	 * Exports the churn database to a snapshot file. Option: --output FILE
+	 * (default churn.snapshot).
+	 *
+	 * @param args The command line options.
+	 */
+	public static void main(String[] args) {
+		Path output = Path.of("churn.snapshot");
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			switch (args[i]) {
+			case "--output":
+				output = Path.of(args[i + 1]);
+				break;
+			default:
+				System.err.println("Unknown option: " + args[i]);
+				System.exit(2);
+			}
+		}
+
+		ConnectionPool pool = ConnectionPool.createDefault(0, 1, Long.MAX_VALUE);
+		try {
+			long start = System.nanoTime();
+			ColumnarSnapshot snapshot = new ColumnarSnapshot();
+			try (Connection connection = pool.getConnection()) {
+				snapshot.refresh(connection);
+			}
+			write(snapshot, output);
+			System.out.printf("Exported %d customers to %s in %.1f s%n", snapshot.getRowCount(), output,
+					(System.nanoTime() - start) / 1e9);
+		} catch (SQLException | IOException e) {
+			System.err.println("Failed to export the snapshot.");
+			e.printStackTrace();
+			System.exit(1);
+		} finally {
+			pool.close();
+		}
+	}
+}
@@ -0,0 +1,264 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * StatisticsPrecomputer computes the customer lifetime value, discount
+ * eligibility and number of services of every customer in one pass and
+ * upserts them into the InsightsStatistics table, so the first search of a
+ * customer no longer pays the compute cost.
+ * <p>
+ * One reader streams the customer profile rows from MySQL and hands them out
+ * in chunks. Worker threads compute the statistics of each chunk and write
+ * them with JDBC batches on their own connection, committing every
+ * {@code commitInterval} customers.
+ */
+public class StatisticsPrecomputer {
+
+	// Customers handed to a worker at a time
+	private static final int CHUNK_SIZE = 1000;
+
+	/**
+	 * The raw statistics inputs of a chunk of customers, as read by the
+	 * reader thread.
+	 */
+	private static class Chunk {
+		final String[] customerIDs = new String[CHUNK_SIZE];
+		final int[] tenures = new int[CHUNK_SIZE];
+		final double[] monthlyCharges = new double[CHUNK_SIZE];
+		final String[][] services = new String[CHUNK_SIZE][];
+		int size;
+	}
+
+	// Marks the end of the input for the workers
+	private static final Chunk END = new Chunk();
+
+	private final ConnectionPool pool;
+	private final int workerCount;
+	private final int batchSize;
+	private final int commitInterval;
+	private final AtomicLong customersWritten = new AtomicLong();
+	private final AtomicReference<Exception> failure = new AtomicReference<>();
+
+	/**
+	 * Creates a new StatisticsPrecomputer.
+	 *
+	 * @param pool           The pool to borrow connections from. It must allow
+	 *                       at least {@code workerCount + 1} connections.
+	 * @param workerCount    The number of threads computing and writing
+	 *                       statistics.
+	 * @param batchSize      The number of customers per JDBC batch.
+	 * @param commitInterval The number of customers per transaction.
+	 */
+	public StatisticsPrecomputer(ConnectionPool pool, int workerCount, int batchSize, int commitInterval) {
+		this.pool = pool;
+		this.workerCount = workerCount;
+		this.batchSize = batchSize;
+		this.commitInterval = commitInterval;
+	}
+
+	/**
+	 * Computes and stores the statistics of every customer.
+	 *
+	 * @return The number of customers whose statistics were written.
+	 * @throws SQLException If reading or writing fails.
+	 */
+	public long run() throws SQLException {
+		BlockingQueue<Chunk> chunks = new ArrayBlockingQueue<>(workerCount * 2);
+		ExecutorService workers = Executors.newFixedThreadPool(workerCount);
+		List<Future<?>> results = new ArrayList<>();
+		for (int i = 0; i < workerCount; i++) {
+			results.add(workers.submit(() -> {
+				try {
+					writeChunks(chunks);
+				} catch (InterruptedException e) {
+					// Cancelled by shutdownNow; nobody waits for this worker any more
+					throw e;
+				} catch (Exception e) {
+					// Stop the reader and keep taking chunks so it never blocks on a full queue
+					failure.compareAndSet(null, e);
+					while (chunks.take() != END) {
+						// Discard
+					}
+					throw e;
+				}
+				return null;
+			}));
+		}
+		try {
+			try {
+				readCustomers(chunks);
+			} finally {
+				// Even a failed read ends the input, so the workers finish instead of waiting for chunks
+				for (int i = 0; i < workerCount; i++) {
+					chunks.put(END);
+				}
+			}
+			for (Future<?> result : results) {
+				result.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while precomputing statistics.", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			throw cause instanceof SQLException ? (SQLException) cause
+					: new SQLException("Failed to precompute statistics.", cause);
+		} finally {
+			workers.shutdownNow();
+		}
+		return customersWritten.get();
+	}
+
+	/**
+	 * @return The number of customers whose statistics have been committed so
+	 *         far.
+	 */
+	public long getCustomersWritten() {
+		return customersWritten.get();
+	}
+
+	/**
+	 * Streams the customer profile rows and queues them in chunks.
+	 */
+	private void readCustomers(BlockingQueue<Chunk> chunks) throws SQLException, InterruptedException {
+		try (Connection connection = pool.getConnection();
+				PreparedStatement statement = ConnectionPool.prepareStreaming(connection,
+						CustomerStatistics.ALL_CUSTOMERS_QUERY)) {
+			try (ResultSet resultSet = statement.executeQuery()) {
+				Chunk chunk = new Chunk();
+				while (resultSet.next()) {
+					int row = chunk.size++;
+					chunk.customerIDs[row] = resultSet.getString(1);
+					chunk.tenures[row] = resultSet.getInt(2);
+					chunk.monthlyCharges[row] = resultSet.getDouble(3);
+					String[] services = new String[CustomerStatistics.SERVICE_COLUMNS.length];
+					for (int i = 0; i < services.length; i++) {
+						services[i] = resultSet.getString(4 + i);
+					}
+					chunk.services[row] = services;
+					if (chunk.size == CHUNK_SIZE) {
+						if (failure.get() != null) {
+							return;
+						}
+						chunks.put(chunk);
+						chunk = new Chunk();
+					}
+				}
+				if (chunk.size > 0) {
+					chunks.put(chunk);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Computes and writes the statistics of queued chunks until the end marker
+	 * is reached.
+	 */
+	private void writeChunks(BlockingQueue<Chunk> chunks) throws SQLException, InterruptedException {
+		try (Connection connection = pool.getConnection();
+				PreparedStatement upsertStatement = connection.prepareStatement(CustomerStatistics.UPSERT_QUERY)) {
+			connection.setAutoCommit(false);
+			int batched = 0;
+			int uncommitted = 0;
+			for (Chunk chunk = chunks.take(); chunk != END; chunk = chunks.take()) {
+				for (int row = 0; row < chunk.size; row++) {
+					new CustomerStatistics(chunk.customerIDs[row], chunk.tenures[row], chunk.monthlyCharges[row],
+							CustomerStatistics.countServices(chunk.services[row])).addTo(upsertStatement);
+					if (++batched == batchSize) {
+						upsertStatement.executeBatch();
+						batched = 0;
+					}
+					if (++uncommitted == commitInterval) {
+						if (batched > 0) {
+							upsertStatement.executeBatch();
+							batched = 0;
+						}
+						connection.commit();
+						customersWritten.addAndGet(uncommitted);
+						uncommitted = 0;
+					}
+				}
+			}
+			if (batched > 0) {
+				upsertStatement.executeBatch();
+			}
+			connection.commit();
+			customersWritten.addAndGet(uncommitted);
+		}
+	}
+
+	/**
+	 * Runs the precomputation against the churn database and reports its
+	 * throughput. Options: --workers N, --batch-size N, --commit-interval N.
+	 *
+	 * @param args The command line options.
+	 */
+	public static void main(String[] args) {
+		int workerCount = Runtime.getRuntime().availableProcessors();
+		int batchSize = 500;
+		int commitInterval = 5000;
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			switch (args[i]) {
+			case "--workers":
+				workerCount = Integer.parseInt(args[i + 1]);
+				break;
+			case "--batch-size":
+				batchSize = Integer.parseInt(args[i + 1]);
+				break;
+			case "--commit-interval":
+				commitInterval = Integer.parseInt(args[i + 1]);
+				break;
+			default:
+				System.err.println("Unknown option: " + args[i]);
+				System.exit(2);
+			}
+		}
+
+		ConnectionPool pool = ConnectionPool.createDefault(0, workerCount + 1, Long.MAX_VALUE);
+		StatisticsPrecomputer precomputer = new StatisticsPrecomputer(pool, workerCount, batchSize, commitInterval);
+		long start = System.nanoTime();
+		Thread progress = new Thread(() -> {
+			try {
+				while (true) {
+					TimeUnit.SECONDS.sleep(5);
+					printThroughput("Progress", precomputer.getCustomersWritten(), start);
+				}
+			} catch (InterruptedException e) {
+				// Precomputation finished
+			}
+		});
+		progress.setDaemon(true);
+		progress.start();
+		try {
+			long customers = precomputer.run();
+			printThroughput("Done", customers, start);
+		} catch (SQLException e) {
+			System.err.println("Failed to precompute statistics.");
+			e.printStackTrace();
+			System.exit(1);
+		} finally {
+			progress.interrupt();
+			pool.close();
+		}
+	}
+
+	private static void printThroughput(String label, long customers, long start) {
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.printf("%s: %d customers (%d rows) in %.1f s, %.0f rows/s%n", label, customers, customers * 3,
+				seconds, customers * 3 / seconds);
+	}
+}
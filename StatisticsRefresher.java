@@ -0,0 +1,244 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * StatisticsRefresher keeps the InsightsStatistics table current by
+ * recomputing the statistics of only those customers whose tenure, monthly
+ * charges or services changed.
+ * <p>
+ * Triggers on the Customer, MonthlyCharges and Service tables append the ID
+ * of every changed customer to the StatisticsChangeLog table. Each refresh
+ * locks the oldest log entries it reads, recomputes the statistics of those
+ * customers, upserts them in JDBC batches and deletes exactly the entries it
+ * read in the same transaction, so a failed refresh leaves the log to be
+ * retried. Entries of transactions that had not committed when the log was
+ * read are not visible to it and stay for the next refresh.
+ */
+public class StatisticsRefresher {
+
+	private static final String LOG_QUERY = "SELECT id, customerID FROM StatisticsChangeLog ORDER BY id LIMIT ? FOR UPDATE";
+	private static final String DELETE_PROCESSED = "DELETE FROM StatisticsChangeLog WHERE id IN ";
+
+	private final ConnectionPool pool;
+	private final QueryMetrics metrics;
+	private final int maxChanges;
+	private final int batchSize;
+	private final Consumer<List<String>> listener;
+	private ScheduledExecutorService scheduler;
+
+	/**
+	 * Creates a new StatisticsRefresher.
+	 *
+	 * @param pool       The pool to borrow connections from.
+	 * @param metrics    The metrics refreshes are recorded in.
+	 * @param maxChanges The maximum number of log entries processed in one
+	 *                   transaction.
+	 * @param batchSize  The number of customers per JDBC batch.
+	 * @param listener   Receives the IDs of the customers whose statistics
+	 *                   were rewritten, after each committed refresh.
+	 */
+	public StatisticsRefresher(ConnectionPool pool, QueryMetrics metrics, int maxChanges, int batchSize,
+			Consumer<List<String>> listener) {
+		this.pool = pool;
+		this.metrics = metrics;
+		this.maxChanges = maxChanges;
+		this.batchSize = batchSize;
+		this.listener = listener;
+	}
+
+	/**
+	 * Refreshes in the background at a fixed delay until {@link #stop()} is
+	 * called. Failures are reported and retried at the next refresh.
+	 *
+	 * @param intervalSeconds The delay between the end of a refresh and the
+	 *                        start of the next.
+	 */
+	public synchronized void start(long intervalSeconds) {
+		if (scheduler != null) {
+			return;
+		}
+		scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "statistics-refresher");
+			thread.setDaemon(true);
+			return thread;
+		});
+		scheduler.scheduleWithFixedDelay(() -> {
+			try {
+				refresh();
+			} catch (SQLException e) {
+				System.err.println("Failed to refresh statistics.");
+				e.printStackTrace();
+			}
+		}, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Stops the background refreshes. A refresh in progress is interrupted and
+	 * rolled back.
+	 */
+	public synchronized void stop() {
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+			scheduler = null;
+		}
+	}
+
+	/**
+	 * Processes the change log until it is empty.
+	 *
+	 * @return The number of customers whose statistics were rewritten.
+	 * @throws SQLException If reading or writing fails.
+	 */
+	public long refresh() throws SQLException {
+		long customers = 0;
+		int processed;
+		do {
+			long start = System.nanoTime();
+			try {
+				List<String> changed = new ArrayList<>();
+				processed = refreshOnce(changed);
+				metrics.record("statistics/refresh", System.nanoTime() - start, changed.size(), null);
+				if (!changed.isEmpty()) {
+					listener.accept(changed);
+				}
+				customers += changed.size();
+			} catch (SQLException e) {
+				metrics.record("statistics/refresh", System.nanoTime() - start, 0, e);
+				throw e;
+			}
+		} while (processed == maxChanges);
+		return customers;
+	}
+
+	/**
+	 * Processes at most maxChanges log entries in one transaction.
+	 *
+	 * @param changed Receives the IDs of the customers whose statistics were
+	 *                rewritten.
+	 * @return The number of log entries processed.
+	 */
+	private int refreshOnce(List<String> changed) throws SQLException {
+		try (Connection connection = pool.getConnection()) {
+			// Without gap locks the triggers can keep appending while the read entries are locked
+			connection.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+			connection.setAutoCommit(false);
+			try {
+				List<Long> logIDs = new ArrayList<>();
+				Set<String> customerIDs = new LinkedHashSet<>();
+				try (PreparedStatement statement = metrics.instrument("statistics/refresh/log",
+						connection.prepareStatement(LOG_QUERY))) {
+					statement.setInt(1, maxChanges);
+					try (ResultSet resultSet = statement.executeQuery()) {
+						while (resultSet.next()) {
+							logIDs.add(resultSet.getLong(1));
+							customerIDs.add(resultSet.getString(2));
+						}
+					}
+				}
+				if (logIDs.isEmpty()) {
+					connection.commit();
+					return 0;
+				}
+
+				List<CustomerStatistics> statistics = new ArrayList<>();
+				List<String> pending = new ArrayList<>(customerIDs);
+				for (int start = 0; start < pending.size(); start += InList.MAX_SIZE) {
+					List<String> chunk = pending.subList(start, Math.min(start + InList.MAX_SIZE, pending.size()));
+					try (PreparedStatement statement = metrics.instrument("statistics/refresh/read",
+							connection.prepareStatement(CustomerStatistics.lookupQuery(chunk.size())))) {
+						InList.bind(statement, 1, chunk);
+						int rowCount = 0;
+						try (ResultSet resultSet = statement.executeQuery()) {
+							while (resultSet.next()) {
+								rowCount++;
+								statistics.add(CustomerStatistics.fromResultSet(resultSet));
+							}
+						}
+						metrics.addRows("statistics/refresh/read", rowCount);
+					}
+				}
+				try (PreparedStatement upsertStatement = metrics.instrument("statistics/refresh/upsert",
+						connection.prepareStatement(CustomerStatistics.UPSERT_QUERY))) {
+					int batched = 0;
+					for (CustomerStatistics customer : statistics) {
+						customer.addTo(upsertStatement);
+						if (++batched == batchSize) {
+							upsertStatement.executeBatch();
+							batched = 0;
+						}
+					}
+					if (batched > 0) {
+						upsertStatement.executeBatch();
+					}
+				}
+				for (int start = 0; start < logIDs.size(); start += InList.MAX_SIZE) {
+					List<Long> chunk = logIDs.subList(start, Math.min(start + InList.MAX_SIZE, logIDs.size()));
+					try (PreparedStatement statement = metrics.instrument("statistics/refresh/delete",
+							connection.prepareStatement(DELETE_PROCESSED + InList.placeholders(chunk.size())))) {
+						InList.bindIds(statement, 1, chunk);
+						statement.executeUpdate();
+					}
+				}
+				connection.commit();
+				for (CustomerStatistics customer : statistics) {
+					changed.add(customer.getCustomerID());
+				}
+				return logIDs.size();
+			} catch (SQLException e) {
+				connection.rollback();
+				throw e;
+			} finally {
+				connection.setAutoCommit(true);
+			}
+		}
+	}
+
+	/**
+	 * Drains the change log of the churn database once and reports how many
+	 * customers were refreshed. Options: --max-changes N, --batch-size N.
+	 *
+	 * @param args The command line options.
+	 */
+	public static void main(String[] args) {
+		int maxChanges = 10_000;
+		int batchSize = 500;
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			switch (args[i]) {
+			case "--max-changes":
+				maxChanges = Integer.parseInt(args[i + 1]);
+				break;
+			case "--batch-size":
+				batchSize = Integer.parseInt(args[i + 1]);
+				break;
+			default:
+				System.err.println("Unknown option: " + args[i]);
+				System.exit(2);
+			}
+		}
+
+		ConnectionPool pool = ConnectionPool.createDefault(0, 1, Long.MAX_VALUE);
+		StatisticsRefresher refresher = new StatisticsRefresher(pool, new QueryMetrics(), maxChanges, batchSize,
+				changed -> System.out.printf("Refreshed %d customers%n", changed.size()));
+		long start = System.nanoTime();
+		try {
+			long customers = refresher.refresh();
+			System.out.printf("Done: %d customers in %.1f s%n", customers, (System.nanoTime() - start) / 1e9);
+		} catch (SQLException e) {
+			System.err.println("Failed to refresh statistics.");
+			e.printStackTrace();
+			System.exit(1);
+		} finally {
+			pool.close();
+		}
+	}
+}
@@ -21,11 +21,15 @@ CREATE TABLE churndata.Service (
     TechSupport VARCHAR(20),
     StreamingTV VARCHAR(20),
     StreamingMovies VARCHAR(20),
+    Contract VARCHAR(20),
     PaperlessBilling VARCHAR(3),
     PaymentMethod VARCHAR(50),
     FOREIGN KEY (customerID) REFERENCES Customer(customerID)
 );
 
+-- Existing databases: add the contract column, then reload Service.csv or re-run CsvIngestor to fill it in
+-- ALTER TABLE churndata.Service ADD COLUMN Contract VARCHAR(20) AFTER StreamingMovies;
+
 CREATE TABLE churndata.MonthlyCharges (
     chargeID INT AUTO_INCREMENT PRIMARY KEY,
     customerID VARCHAR(20),
@@ -55,9 +59,241 @@ CREATE TABLE churndata.InsightsStatistics (
     customerID VARCHAR(255),
     statisticName VARCHAR(255),
     statisticValue VARCHAR(255),
+	UNIQUE KEY uq_customer_statistic (customerID, statisticName),
 	FOREIGN KEY (customerID) REFERENCES Customer(customerID)
 );
 
+-- Existing databases: remove duplicate statistics, keeping the newest row, then add the unique key
+-- DELETE older FROM churndata.InsightsStatistics older
+-- JOIN churndata.InsightsStatistics newer
+--   ON newer.customerID = older.customerID AND newer.statisticName = older.statisticName AND newer.id > older.id;
+-- ALTER TABLE churndata.InsightsStatistics ADD UNIQUE KEY uq_customer_statistic (customerID, statisticName);
+
+-- Chunks of a CSV file already loaded by CsvIngestor, so an interrupted load can resume
+CREATE TABLE churndata.IngestCheckpoint (
+    sourceFile VARCHAR(255),
+    startOffset BIGINT,
+    endOffset BIGINT,
+    rowCount INT,
+    PRIMARY KEY (sourceFile, startOffset)
+);
+
+-- Churn counters kept current by the MonthlyCharges triggers below, so the churn percentage is a 16-row read.
+-- Each connection updates the slot of its connection ID, so concurrent writers such as the parallel
+-- CsvIngestor chunks do not queue on one row lock until they commit; readers sum the slots.
+CREATE TABLE churndata.ChurnSummary (
+    slot INT PRIMARY KEY,
+    totalCustomers INT NOT NULL,
+    churnedCustomers INT NOT NULL
+);
+
+-- Seeds the counters; also rebuilds them after a bulk change that bypasses triggers, such as TRUNCATE
+REPLACE INTO churndata.ChurnSummary (slot, totalCustomers, churnedCustomers)
+SELECT 0, COUNT(*), COALESCE(SUM(CASE WHEN Churn = 'Yes' THEN 1 ELSE 0 END), 0)
+FROM churndata.MonthlyCharges;
+REPLACE INTO churndata.ChurnSummary (slot, totalCustomers, churnedCustomers)
+VALUES (1, 0, 0), (2, 0, 0), (3, 0, 0), (4, 0, 0), (5, 0, 0), (6, 0, 0), (7, 0, 0), (8, 0, 0),
+    (9, 0, 0), (10, 0, 0), (11, 0, 0), (12, 0, 0), (13, 0, 0), (14, 0, 0), (15, 0, 0);
+
+CREATE TRIGGER churndata.MonthlyCharges_churn_insert AFTER INSERT ON churndata.MonthlyCharges
+FOR EACH ROW
+    UPDATE churndata.ChurnSummary
+    SET totalCustomers = totalCustomers + 1,
+        churnedCustomers = churnedCustomers + IF(NEW.Churn = 'Yes', 1, 0)
+    WHERE slot = CONNECTION_ID() % 16;
+
+CREATE TRIGGER churndata.MonthlyCharges_churn_update AFTER UPDATE ON churndata.MonthlyCharges
+FOR EACH ROW
+    UPDATE churndata.ChurnSummary
+    SET churnedCustomers = churnedCustomers + IF(NEW.Churn = 'Yes', 1, 0) - IF(OLD.Churn = 'Yes', 1, 0)
+    WHERE slot = CONNECTION_ID() % 16;
+
+CREATE TRIGGER churndata.MonthlyCharges_churn_delete AFTER DELETE ON churndata.MonthlyCharges
+FOR EACH ROW
+    UPDATE churndata.ChurnSummary
+    SET totalCustomers = totalCustomers - 1,
+        churnedCustomers = churnedCustomers - IF(OLD.Churn = 'Yes', 1, 0)
+    WHERE slot = CONNECTION_ID() % 16;
+
+-- Customers whose statistics inputs changed, appended by the triggers below and drained by StatisticsRefresher.
+-- A session that sets @churn_bulk_load, such as a CsvIngestor chunk, appends the entries of the customers it
+-- inserts itself, once per chunk instead of once per row of each table.
+CREATE TABLE churndata.StatisticsChangeLog (
+    id BIGINT AUTO_INCREMENT PRIMARY KEY,
+    customerID VARCHAR(20) NOT NULL,
+    changedAt TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
+
+CREATE TRIGGER churndata.Customer_statistics_insert AFTER INSERT ON churndata.Customer
+FOR EACH ROW
+    INSERT INTO churndata.StatisticsChangeLog (customerID)
+    SELECT NEW.customerID FROM DUAL
+    WHERE @churn_bulk_load IS NULL;
+
+CREATE TRIGGER churndata.Customer_statistics_update AFTER UPDATE ON churndata.Customer
+FOR EACH ROW
+    INSERT INTO churndata.StatisticsChangeLog (customerID)
+    SELECT NEW.customerID FROM DUAL
+    WHERE NOT (NEW.tenure <=> OLD.tenure);
+
+CREATE TRIGGER churndata.MonthlyCharges_statistics_insert AFTER INSERT ON churndata.MonthlyCharges
+FOR EACH ROW
+    INSERT INTO churndata.StatisticsChangeLog (customerID)
+    SELECT NEW.customerID FROM DUAL
+    WHERE @churn_bulk_load IS NULL;
+
+CREATE TRIGGER churndata.MonthlyCharges_statistics_update AFTER UPDATE ON churndata.MonthlyCharges
+FOR EACH ROW
+    INSERT INTO churndata.StatisticsChangeLog (customerID)
+    SELECT NEW.customerID FROM DUAL
+    WHERE NOT (NEW.MonthlyCharges <=> OLD.MonthlyCharges AND NEW.customerID <=> OLD.customerID);
+
+CREATE TRIGGER churndata.MonthlyCharges_statistics_delete AFTER DELETE ON churndata.MonthlyCharges
+FOR EACH ROW
+    INSERT INTO churndata.StatisticsChangeLog (customerID) VALUES (OLD.customerID);
+
+CREATE TRIGGER churndata.Service_statistics_insert AFTER INSERT ON churndata.Service
+FOR EACH ROW
+    INSERT INTO churndata.StatisticsChangeLog (customerID)
+    SELECT NEW.customerID FROM DUAL
+    WHERE @churn_bulk_load IS NULL;
+
+CREATE TRIGGER churndata.Service_statistics_update AFTER UPDATE ON churndata.Service
+FOR EACH ROW
+    INSERT INTO churndata.StatisticsChangeLog (customerID)
+    SELECT NEW.customerID FROM DUAL
+    WHERE NOT (NEW.customerID <=> OLD.customerID
+        AND NEW.PhoneService <=> OLD.PhoneService AND NEW.MultipleLines <=> OLD.MultipleLines
+        AND NEW.InternetService <=> OLD.InternetService AND NEW.OnlineSecurity <=> OLD.OnlineSecurity
+        AND NEW.OnlineBackup <=> OLD.OnlineBackup AND NEW.DeviceProtection <=> OLD.DeviceProtection
+        AND NEW.TechSupport <=> OLD.TechSupport AND NEW.StreamingTV <=> OLD.StreamingTV
+        AND NEW.StreamingMovies <=> OLD.StreamingMovies);
+
+CREATE TRIGGER churndata.Service_statistics_delete AFTER DELETE ON churndata.Service
+FOR EACH ROW
+    INSERT INTO churndata.StatisticsChangeLog (customerID) VALUES (OLD.customerID);
+
+-- One row per customer with every column of Customer-Churn.csv, kept current by the triggers below,
+-- so a full profile or a filter is read from one table instead of joining the normalized ones
+CREATE TABLE churndata.CustomerProfile (
+    customerID VARCHAR(20) PRIMARY KEY,
+    gender VARCHAR(10),
+    SeniorCitizen INT,
+    Partner VARCHAR(3),
+    Dependents VARCHAR(3),
+    tenure INT,
+    PhoneService VARCHAR(3),
+    MultipleLines VARCHAR(20),
+    InternetService VARCHAR(20),
+    OnlineSecurity VARCHAR(20),
+    OnlineBackup VARCHAR(20),
+    DeviceProtection VARCHAR(20),
+    TechSupport VARCHAR(20),
+    StreamingTV VARCHAR(20),
+    StreamingMovies VARCHAR(20),
+    Contract VARCHAR(20),
+    PaperlessBilling VARCHAR(3),
+    PaymentMethod VARCHAR(50),
+    MonthlyCharges DECIMAL(10,2),
+    TotalCharges DECIMAL(10,2),
+    Churn VARCHAR(3),
+    INDEX idx_profile_senior (SeniorCitizen),
+    INDEX idx_profile_tenure (tenure),
+    INDEX idx_profile_paperless (PaperlessBilling)
+);
+
+-- Rewrites the profile of one customer from the normalized tables. Does nothing while the session has set
+-- @churn_bulk_load, whose loader rebuilds the profiles of a whole chunk with one statement instead.
+CREATE PROCEDURE churndata.RefreshCustomerProfile(IN id VARCHAR(20))
+    REPLACE INTO churndata.CustomerProfile
+    SELECT c.customerID, c.gender, c.SeniorCitizen, c.Partner, c.Dependents, c.tenure,
+        s.PhoneService, s.MultipleLines, s.InternetService, s.OnlineSecurity, s.OnlineBackup, s.DeviceProtection,
+        s.TechSupport, s.StreamingTV, s.StreamingMovies, s.Contract, s.PaperlessBilling, s.PaymentMethod,
+        m.MonthlyCharges, m.TotalCharges, m.Churn
+    FROM churndata.Customer c
+    LEFT JOIN churndata.Service s ON s.customerID = c.customerID
+    LEFT JOIN churndata.MonthlyCharges m ON m.customerID = c.customerID
+    WHERE c.customerID = id AND @churn_bulk_load IS NULL;
+
+-- Counts the changes to CustomerProfile, so a copy of it such as the in-memory snapshot can tell it is out
+-- of date by comparing the sum with the one it was loaded at, and separately the customers added or
+-- removed, for copies of the customer IDs. Slotted by connection like ChurnSummary.
+CREATE TABLE churndata.ChangeVersion (
+    slot INT PRIMARY KEY,
+    version BIGINT NOT NULL,
+    customers BIGINT NOT NULL DEFAULT 0
+);
+
+INSERT INTO churndata.ChangeVersion (slot, version)
+VALUES (0, 0), (1, 0), (2, 0), (3, 0), (4, 0), (5, 0), (6, 0), (7, 0),
+    (8, 0), (9, 0), (10, 0), (11, 0), (12, 0), (13, 0), (14, 0), (15, 0);
+
+CREATE TRIGGER churndata.CustomerProfile_version_insert AFTER INSERT ON churndata.CustomerProfile
+FOR EACH ROW
+    UPDATE churndata.ChangeVersion SET version = version + 1 WHERE slot = CONNECTION_ID() % 16;
+
+CREATE TRIGGER churndata.CustomerProfile_version_update AFTER UPDATE ON churndata.CustomerProfile
+FOR EACH ROW
+    UPDATE churndata.ChangeVersion SET version = version + 1 WHERE slot = CONNECTION_ID() % 16;
+
+CREATE TRIGGER churndata.CustomerProfile_version_delete AFTER DELETE ON churndata.CustomerProfile
+FOR EACH ROW
+    UPDATE churndata.ChangeVersion SET version = version + 1 WHERE slot = CONNECTION_ID() % 16;
+
+CREATE TRIGGER churndata.Customer_version_insert AFTER INSERT ON churndata.Customer
+FOR EACH ROW
+    UPDATE churndata.ChangeVersion SET customers = customers + 1 WHERE slot = CONNECTION_ID() % 16;
+
+CREATE TRIGGER churndata.Customer_version_delete AFTER DELETE ON churndata.Customer
+FOR EACH ROW
+    UPDATE churndata.ChangeVersion SET customers = customers + 1 WHERE slot = CONNECTION_ID() % 16;
+
+-- Seeds the profiles; also rebuilds them after a bulk change that bypasses triggers
+REPLACE INTO churndata.CustomerProfile
+SELECT c.customerID, c.gender, c.SeniorCitizen, c.Partner, c.Dependents, c.tenure,
+    s.PhoneService, s.MultipleLines, s.InternetService, s.OnlineSecurity, s.OnlineBackup, s.DeviceProtection,
+    s.TechSupport, s.StreamingTV, s.StreamingMovies, s.Contract, s.PaperlessBilling, s.PaymentMethod,
+    m.MonthlyCharges, m.TotalCharges, m.Churn
+FROM churndata.Customer c
+LEFT JOIN churndata.Service s ON s.customerID = c.customerID
+LEFT JOIN churndata.MonthlyCharges m ON m.customerID = c.customerID;
+
+CREATE TRIGGER churndata.Customer_profile_insert AFTER INSERT ON churndata.Customer
+FOR EACH ROW
+    CALL churndata.RefreshCustomerProfile(NEW.customerID);
+
+CREATE TRIGGER churndata.Customer_profile_update AFTER UPDATE ON churndata.Customer
+FOR EACH ROW
+    CALL churndata.RefreshCustomerProfile(NEW.customerID);
+
+CREATE TRIGGER churndata.Customer_profile_delete AFTER DELETE ON churndata.Customer
+FOR EACH ROW
+    DELETE FROM churndata.CustomerProfile WHERE customerID = OLD.customerID;
+
+CREATE TRIGGER churndata.Service_profile_insert AFTER INSERT ON churndata.Service
+FOR EACH ROW
+    CALL churndata.RefreshCustomerProfile(NEW.customerID);
+
+CREATE TRIGGER churndata.Service_profile_update AFTER UPDATE ON churndata.Service
+FOR EACH ROW
+    CALL churndata.RefreshCustomerProfile(NEW.customerID);
+
+CREATE TRIGGER churndata.Service_profile_delete AFTER DELETE ON churndata.Service
+FOR EACH ROW
+    CALL churndata.RefreshCustomerProfile(OLD.customerID);
+
+CREATE TRIGGER churndata.MonthlyCharges_profile_insert AFTER INSERT ON churndata.MonthlyCharges
+FOR EACH ROW
+    CALL churndata.RefreshCustomerProfile(NEW.customerID);
+
+CREATE TRIGGER churndata.MonthlyCharges_profile_update AFTER UPDATE ON churndata.MonthlyCharges
+FOR EACH ROW
+    CALL churndata.RefreshCustomerProfile(NEW.customerID);
+
+CREATE TRIGGER churndata.MonthlyCharges_profile_delete AFTER DELETE ON churndata.MonthlyCharges
+FOR EACH ROW
+    CALL churndata.RefreshCustomerProfile(OLD.customerID);
+
 SELECT COUNT(*) AS totalCustomers, 
 SUM(CASE WHEN Churn = 'Yes' THEN 1 ELSE 0 END) 
 AS churnedCustomers 